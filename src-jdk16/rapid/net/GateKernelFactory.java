@@ -0,0 +1,34 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Selects the GateKernel of the JVM. This is the Java 16 version of the multi-release jar:
+ * it selects the VectorGateKernel if the module jdk.incubator.vector is present
+ * (--add-modules jdk.incubator.vector) and the system property rapid.gateKernel is not "scalar".
+ *
+ * @author Bernhard
+ */
+final class GateKernelFactory {
+
+    private static final Logger LOG = LogManager.getLogger(GateKernelFactory.class);
+
+    private GateKernelFactory() {
+    }
+
+    static GateKernel create() {
+        if ("scalar".equals(System.getProperty("rapid.gateKernel"))
+                || !ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            return GateKernel.scalar();
+        }
+        try {
+            // by name, so this class links without the module
+            return (GateKernel) Class.forName("rapid.net.VectorGateKernel").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            LOG.warn("The Vector API kernel is not available, using the scalar kernel", ex);
+            return GateKernel.scalar();
+        }
+    }
+}
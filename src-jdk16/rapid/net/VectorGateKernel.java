@@ -0,0 +1,114 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The GateKernel using the Vector API (jdk.incubator.vector) with the preferred species of the CPU.
+ * Fan-ins below two vectors are reduced by the scalar kernel, so the small gates keep their exact results.
+ *
+ * @author Bernhard
+ */
+final class VectorGateKernel extends GateKernel {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final int MIN_LENGTH = 2 * LANES;
+
+    private final GateKernel scalar = GateKernel.scalar();
+
+    @Override
+    public String getName() {
+        return "vector" + SPECIES.vectorBitSize();
+    }
+
+    @Override
+    public float and(float[] values, int length) {
+        if (length < MIN_LENGTH) {
+            return scalar.and(values, length);
+        }
+        final FloatVector one = FloatVector.broadcast(SPECIES, 1.0f);
+        FloatVector product = one;
+        int count = 0;
+        final int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            FloatVector val = FloatVector.fromArray(SPECIES, values, i);
+            val = val.blend(one.div(val), val.compare(VectorOperators.GT, 1.0f));
+            final VectorMask<Float> set = val.compare(VectorOperators.NE, 0.0f);
+            product = product.mul(val, set);
+            count += set.trueCount();
+        }
+        float f = product.reduceLanes(VectorOperators.MUL);
+        for (; i < length; i++) {
+            final float val = values[i];
+            final float norm = (val > 1.0f) ? (1.0f / val) : val;
+            if (norm != 0.0f) {
+                f *= norm;
+                count++;
+            }
+        }
+        return f * ((float) count / (float) length);
+    }
+
+    @Override
+    public float mul(float[] values, int length) {
+        if (length < MIN_LENGTH) {
+            return scalar.mul(values, length);
+        }
+        FloatVector product = FloatVector.broadcast(SPECIES, 1.0f);
+        final int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            product = product.mul(FloatVector.fromArray(SPECIES, values, i));
+        }
+        float f = product.reduceLanes(VectorOperators.MUL);
+        for (; i < length; i++) {
+            f *= values[i];
+        }
+        return f;
+    }
+
+    @Override
+    public float or(float[] values, int length) {
+        if (length < MIN_LENGTH) {
+            return scalar.or(values, length);
+        }
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int count = 0;
+        final int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            final FloatVector val = FloatVector.fromArray(SPECIES, values, i);
+            sum = sum.add(val);
+            count += val.compare(VectorOperators.NE, 0.0f).trueCount();
+        }
+        float f = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            f += values[i];
+            count += (values[i] != 0.0f) ? 1 : 0;
+        }
+        return (count > 0) ? (f / count) : 0.0f;
+    }
+
+    @Override
+    public float add(float[] values, int length) {
+        if (length < MIN_LENGTH) {
+            return scalar.add(values, length);
+        }
+        FloatVector sum = FloatVector.zero(SPECIES);
+        final int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            sum = sum.add(FloatVector.fromArray(SPECIES, values, i));
+        }
+        float f = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            f += values[i];
+        }
+        return f;
+    }
+}
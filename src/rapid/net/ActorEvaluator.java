@@ -0,0 +1,370 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import rapid.net.port.Port;
+
+/**
+ * Evaluates a network with its gates working independently (experimental).
+ *
+ * Each hidden and output gate is an actor with a mailbox. The edges deliver their weighted values
+ * as messages tagged with the query (the "cycle") they belong to; a gate fires when the values of all
+ * its incoming edges for a query have arrived and sends its result along its outgoing edges.
+ * An actor with messages is scheduled as a task on the executor (by default a work-stealing
+ * ForkJoinPool); it never runs on two threads at once, so its state needs no locks.
+ * Any number of queries may be in flight, each one is completed when all output gates have fired.
+ *
+ * The results are the same as the ones of a NetworkSnapshot: a gate whose inputs have all not
+ * fired does not fire either. The actors are wired once by the constructor, so they keep the edges
+ * and weights of that time; the evaluator does not change the cycles or the hit-statistics of the network.
+ * PortStreams are not supported.
+ *
+ * @author Bernhard
+ */
+public class ActorEvaluator {
+
+    private static final Logger LOG = LogManager.getLogger(ActorEvaluator.class);
+
+    /**
+     * A query in flight.
+     */
+    private final class Wave {
+
+        final float[][] gateResults;
+        final AtomicInteger pendingOutputs = new AtomicInteger(outputGateCount);
+        final CompletableFuture<int[]> future = new CompletableFuture<>();
+
+        Wave() {
+            gateResults = new float[portGateCounts.length][];
+            for (int i = 0; i < portGateCounts.length; i++) {
+                gateResults[i] = new float[portGateCounts[i]];
+            }
+        }
+
+        void outputFired(int port, int index, float result) {
+            gateResults[port][index] = result;
+            if (pendingOutputs.decrementAndGet() == 0) {
+                complete();
+            }
+        }
+
+        void complete() {
+            final int[] outputValues = new int[outputSize];
+            for (int i = 0; i < outputDecoders.length && i < outputSize; i++) {
+                outputValues[i] = outputDecoders[i].decode(gateResults[i], cycle);
+            }
+            future.complete(outputValues);
+        }
+    }
+
+    /**
+     * The value of an edge for a wave.
+     */
+    private static final class Message {
+
+        final Wave wave;
+        final int slot;
+        final float value;
+        final boolean fired;
+
+        Message(Wave wave, int slot, float value, boolean fired) {
+            this.wave = wave;
+            this.slot = slot;
+            this.value = value;
+            this.fired = fired;
+        }
+    }
+
+    /**
+     * The input values of an actor received so far for a wave.
+     */
+    private static final class Pending {
+
+        final float[] values;
+        int received = 0;
+        boolean fired = false;
+
+        Pending(int inCount) {
+            values = new float[inCount];
+        }
+    }
+
+    /**
+     * The outgoing edges of a gate.
+     */
+    private static final class Targets {
+
+        final Actor[] actors;
+        final int[] slots;
+        final float[] weights;
+        final float[] biases;
+
+        Targets(int count) {
+            actors = new Actor[count];
+            slots = new int[count];
+            weights = new float[count];
+            biases = new float[count];
+        }
+    }
+
+    private final class Actor implements Runnable {
+
+        final Gate.Operation operation;
+        final int inCount;
+        final int outputPort;   // -1 for a hidden gate
+        final int outputIndex;
+        Targets targets;
+        final ConcurrentLinkedQueue<Message> mailbox = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        final HashMap<Wave, Pending> pending = new HashMap<>();   // only used by the thread running the actor
+
+        Actor(Gate gate, int outputPort, int outputIndex) {
+            this.operation = gate.getOperation();
+            this.inCount = gate.getIns().size();
+            this.outputPort = outputPort;
+            this.outputIndex = outputIndex;
+        }
+
+        void deliver(Message message) {
+            mailbox.add(message);
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int count = 0;
+            while (true) {
+                final Message message = mailbox.poll();
+                if (message == null) {
+                    scheduled.set(false);
+                    // a message may have arrived after the poll, but before the flag was cleared
+                    if (mailbox.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                receive(message);
+                if (++count >= batchSize && !mailbox.isEmpty()) {
+                    // give the other actors a chance, the actor stays scheduled (an empty actor is not, so the
+                    // executor may be shut down when all waves are completed)
+                    executor.execute(this);
+                    return;
+                }
+            }
+        }
+
+        private void receive(Message message) {
+            messages.increment();
+            Pending values = pending.get(message.wave);
+            if (values == null) {
+                values = new Pending(inCount);
+                pending.put(message.wave, values);
+            }
+            values.values[message.slot] = message.value;
+            values.fired |= message.fired;
+            if (++values.received == inCount) {
+                pending.remove(message.wave);
+                fire(message.wave, values.fired ? operation.apply(values.values, inCount) : 0.0f);
+            }
+        }
+
+        void fire(Wave wave, float result) {
+            send(targets, wave, result);
+            if (outputPort >= 0) {
+                wave.outputFired(outputPort, outputIndex, result);
+            }
+        }
+    }
+
+    private final ExecutorService executor;
+    private final int cycle;
+    private final Port[] inputPorts;
+    private final Targets[][] inputTargets;
+    private final Actor[] sources;  // the actors without incoming edges, they fire at the start of each wave
+    private final Port.Decoder[] outputDecoders;    // see Port.freezeDecoder()
+    private final int[] portGateCounts;
+    private final int outputSize;
+    private final int outputGateCount;
+    private final int actorCount;
+    private final int maxPortGates;
+    private final ThreadLocal<float[]> inputScratch;
+    private final LongAdder messages = new LongAdder();
+    private volatile int batchSize = 64;
+
+    /**
+     * Creates the actors, they run on the common ForkJoinPool.
+     */
+    public ActorEvaluator(Network network) {
+        this(network, null);
+    }
+
+    /**
+     * @param network the network to compile
+     * @param executor runs the actors (e.g. one with a virtual thread per task), it is not shut down by the evaluator;
+     * null for the common ForkJoinPool
+     */
+    public ActorEvaluator(Network network, ExecutorService executor) {
+        if (network.hasStreams()) {
+            throw new UnsupportedOperationException(network.name + ": actors for networks with PortStreams are not supported");
+        }
+        this.cycle = network.getCycles() + 1;
+        this.outputSize = network.getOutputSize();
+        this.inputPorts = network.getInputSlots().clone();
+        final Port[] outputPorts = network.getOutputSlots();
+        this.outputDecoders = new Port.Decoder[outputPorts.length];
+        this.portGateCounts = new int[outputPorts.length];
+
+        IdentityHashMap<Gate, Actor> actors = new IdentityHashMap<>();
+        ArrayList<Gate> gates = new ArrayList<>(network.getGates());
+        for (Gate gate : network.getGates()) {
+            actors.put(gate, new Actor(gate, -1, -1));
+        }
+        int outputGates = 0;
+        for (int p = 0; p < outputPorts.length; p++) {
+            final List<Gate> portGates = outputPorts[p].getGates();
+            outputDecoders[p] = outputPorts[p].freezeDecoder();
+            portGateCounts[p] = portGates.size();
+            for (int g = 0; g < portGates.size(); g++) {
+                actors.put(portGates.get(g), new Actor(portGates.get(g), p, g));
+                gates.add(portGates.get(g));
+                outputGates++;
+            }
+        }
+        this.outputGateCount = outputGates;
+        this.actorCount = actors.size();
+
+        // the slot of each edge is its index in the incoming edges of its target
+        ArrayList<Actor> zeroIns = new ArrayList<>();
+        for (Gate gate : gates) {
+            final Actor actor = actors.get(gate);
+            actor.targets = targetsOf(network, gate, actors);
+            if (actor.inCount == 0) {
+                zeroIns.add(actor);
+            }
+        }
+        this.sources = zeroIns.toArray(new Actor[zeroIns.size()]);
+        inputTargets = new Targets[inputPorts.length][];
+        int max = 0;
+        for (int i = 0; i < inputPorts.length; i++) {
+            final List<Gate> portGates = inputPorts[i].getGates();
+            inputTargets[i] = new Targets[portGates.size()];
+            for (int g = 0; g < portGates.size(); g++) {
+                inputTargets[i][g] = targetsOf(network, portGates.get(g), actors);
+            }
+            max = Math.max(max, portGates.size());
+        }
+        this.maxPortGates = max;
+        this.inputScratch = ThreadLocal.withInitial(() -> new float[maxPortGates]);
+
+        this.executor = (executor != null) ? executor : ForkJoinPool.commonPool();
+        LOG.debug(network.name + ": " + toString());
+    }
+
+    private static Targets targetsOf(Network network, Gate gate, IdentityHashMap<Gate, Actor> actors) {
+        final List<Edge> outs = gate.getOuts();
+        Targets targets = new Targets(outs.size());
+        for (int e = 0; e < outs.size(); e++) {
+            final Edge out = outs.get(e);
+            final Gate to = (Gate) out.getTo();
+            targets.actors[e] = actors.get(to);
+            if (targets.actors[e] == null) {
+                throw new IllegalStateException(network.name + ": " + out + " leads to a gate outside of the hidden and output layers");
+            }
+            targets.slots[e] = to.getIns().indexOf(out);
+            targets.weights[e] = out.getWeight();
+            targets.biases[e] = out.getBias();
+        }
+        return targets;
+    }
+
+    private static void send(Targets targets, Wave wave, float result) {
+        final boolean fired = (result != 0.0f);
+        for (int e = 0; e < targets.actors.length; e++) {
+            final float value = fired ? (result * targets.weights[e] + targets.biases[e]) : 0.0f;
+            targets.actors[e].deliver(new Message(wave, targets.slots[e], value, fired));
+        }
+    }
+
+    public int getOutputSize() {
+        return outputSize;
+    }
+
+    public int getActorCount() {
+        return actorCount;
+    }
+
+    /**
+     * @return the number of messages received by the actors since the start
+     */
+    public long getMessageCount() {
+        return messages.sum();
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize the number of messages an actor handles before it gives the other actors a chance
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("The batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Starts a wave through the actors, the returned future is completed by the thread running the last output gate.
+     * @param inputPattern the input-values
+     * @return the output-values in the same order as Network.getOutputValues() returns them
+     */
+    public CompletableFuture<int[]> queryAsync(int[] inputPattern) {
+        final Wave wave = new Wave();
+        if (outputGateCount == 0) {
+            wave.complete();
+            return wave.future;
+        }
+        final float[] gateValues = inputScratch.get();
+        for (int i = 0; i < inputPorts.length; i++) {
+            final Targets[] targets = inputTargets[i];
+            if (i < inputPattern.length) {
+                inputPorts[i].encodeValue(inputPattern[i], gateValues);
+                for (int g = 0; g < targets.length; g++) {
+                    send(targets[g], wave, gateValues[g]);
+                }
+            } else {
+                for (Targets target : targets) {
+                    send(target, wave, 0.0f);
+                }
+            }
+        }
+        for (Actor source : sources) {
+            source.fire(wave, 0.0f);
+        }
+        return wave.future;
+    }
+
+    public int[] query(int[] inputPattern) {
+        return queryAsync(inputPattern).join();
+    }
+
+    @Override
+    public String toString() {
+        return "ActorEvaluator{actors=" + actorCount + ", outputGates=" + outputGateCount + ", messages=" + getMessageCount() + "}";
+    }
+}
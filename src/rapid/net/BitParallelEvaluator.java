@@ -0,0 +1,392 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import rapid.net.port.BinaryPort;
+import rapid.net.port.OneHotPort;
+import rapid.net.port.Port;
+import rapid.net.port.PortStream;
+import rapid.net.port.Portable;
+
+/**
+ * Bit-sliced evaluation of a learned network for many input-patterns at once.
+ *
+ * When all inputs are OneHotPort, MapToOneHotPort or BinaryPort, every input gate
+ * is either 0 or 1. The evaluator packs 64 patterns into one long word per input gate
+ * and decides which AND-gates fire by bitwise operations over these words. For AND-gates
+ * whose inputs all have the same weight, the number of active inputs is counted bit-sliced
+ * too, so their result is a simple table lookup. Float scoring is only done for the
+ * output gates (and the patterns) which actually fire.
+ *
+ * The evaluator is a compiled copy of the current network structure: create a new instance
+ * after learning or optimizing. In contrast to Network.query() it does not change the cycles
+ * or the hit-statistics of the network.
+ *
+ * @author Bernhard
+ */
+public class BitParallelEvaluator {
+
+    private static final Logger LOG = LogManager.getLogger(BitParallelEvaluator.class);
+
+    public static final int PATTERNS_PER_WORD = 64;
+
+    private final Network network;
+
+    // input ports (in the order of the input values) and their gates
+    private final Port[] inputPorts;
+    private final int[] inputGateOffset;
+    private final int inputGateCount;
+
+    // hidden AND-gates: indices of the input gates and the weighted value of an active input
+    private final int[][] andIns;
+    private final float[][] andInValues;
+    private final float[][] andCountTable;    // result by number of active inputs, null if weights differ
+    private final int[] andPlanes;            // number of bit-planes to count the active inputs
+
+    // output gates: indices of the AND-gates and the edge weights
+    private final Port[] outputPorts;
+    private final int[] outputGateOffset;
+    private final Gate.Operation[] outOps;
+    private final int[][] outIns;
+    private final float[][] outWeights;
+    private final float[][] outBiases;
+    private final int outputSize;
+
+    // working storage for one word of patterns
+    private final long[] inputBits;
+    private final long[] andFired;
+    private final long[][] andCount;
+    private final float[][] outResults;
+    private final float[][] inputGateValues;
+    private final float[][] outputGateResults;
+    private float[] values = new float[16];   // the gathered input values of an output gate
+
+    public BitParallelEvaluator(Network network) {
+        if (!isApplicable(network)) {
+            throw new IllegalArgumentException(network.name + " is not a purely binary/one-hot network");
+        }
+        this.network = network;
+
+        // inputs
+        inputPorts = network.getInputSlots().clone();
+        inputGateOffset = new int[inputPorts.length];
+        IdentityHashMap<Gate, Integer> inputIndex = new IdentityHashMap<>();
+        int gateCount = 0;
+        for (int i = 0; i < inputPorts.length; i++) {
+            inputGateOffset[i] = gateCount;
+            for (Gate gate : inputPorts[i].getGates()) {
+                inputIndex.put(gate, gateCount++);
+            }
+        }
+        inputGateCount = gateCount;
+
+        // outputs
+        outputSize = network.getOutputSize();
+        outputPorts = network.getOutputSlots().clone();
+        outputGateOffset = new int[outputPorts.length + 1];
+        ArrayList<Gate> outputGates = new ArrayList<>();
+        for (int i = 0; i < outputPorts.length; i++) {
+            outputGateOffset[i] = outputGates.size();
+            outputGates.addAll(outputPorts[i].getGates());
+        }
+        outputGateOffset[outputPorts.length] = outputGates.size();
+
+        // hidden AND-gates, in the order they are referenced by the output gates
+        IdentityHashMap<Gate, Integer> andIndex = new IdentityHashMap<>();
+        ArrayList<Gate> andGates = new ArrayList<>();
+        outOps = new Gate.Operation[outputGates.size()];
+        outIns = new int[outputGates.size()][];
+        outWeights = new float[outputGates.size()][];
+        outBiases = new float[outputGates.size()][];
+        for (int o = 0; o < outputGates.size(); o++) {
+            Gate outGate = outputGates.get(o);
+            List<Edge> ins = outGate.getIns();
+            outOps[o] = outGate.getOperation();
+            outIns[o] = new int[ins.size()];
+            outWeights[o] = new float[ins.size()];
+            outBiases[o] = new float[ins.size()];
+            for (int e = 0; e < ins.size(); e++) {
+                Edge edge = ins.get(e);
+                Gate andGate = (Gate) edge.getFrom();
+                Integer index = andIndex.get(andGate);
+                if (index == null) {
+                    index = andGates.size();
+                    andIndex.put(andGate, index);
+                    andGates.add(andGate);
+                }
+                outIns[o][e] = index;
+                outWeights[o][e] = edge.getWeight();
+                outBiases[o][e] = edge.getBias();
+            }
+        }
+
+        andIns = new int[andGates.size()][];
+        andInValues = new float[andGates.size()][];
+        andCountTable = new float[andGates.size()][];
+        andPlanes = new int[andGates.size()];
+        andCount = new long[andGates.size()][];
+        for (int a = 0; a < andGates.size(); a++) {
+            List<Edge> ins = andGates.get(a).getIns();
+            andIns[a] = new int[ins.size()];
+            andInValues[a] = new float[ins.size()];
+            boolean uniform = true;
+            for (int e = 0; e < ins.size(); e++) {
+                Edge edge = ins.get(e);
+                andIns[a][e] = inputIndex.get((Gate) edge.getFrom());
+                andInValues[a][e] = 1.0f * edge.getWeight() + edge.getBias();
+                uniform &= (andInValues[a][e] == andInValues[a][0]) && (andInValues[a][e] != 0.0f);
+            }
+            if (uniform && ins.size() > 0) {
+                andCountTable[a] = createCountTable(andInValues[a][0], ins.size());
+                andPlanes[a] = 32 - Integer.numberOfLeadingZeros(ins.size());
+                andCount[a] = new long[andPlanes[a]];
+            }
+        }
+
+        inputBits = new long[inputGateCount];
+        andFired = new long[andGates.size()];
+        outResults = new float[outputGates.size()][PATTERNS_PER_WORD];
+        inputGateValues = new float[inputPorts.length][];
+        for (int i = 0; i < inputPorts.length; i++) {
+            inputGateValues[i] = new float[inputPorts[i].getGates().size()];
+        }
+        outputGateResults = new float[outputPorts.length][];
+        for (int i = 0; i < outputPorts.length; i++) {
+            outputGateResults[i] = new float[outputGateOffset[i + 1] - outputGateOffset[i]];
+        }
+        LOG.debug(network.name + ": compiled " + inputGateCount + " input-gates, " + andGates.size() + " AND-gates, " + outputGates.size() + " output-gates");
+    }
+
+    /**
+     * Checks if the network can be evaluated bit-parallel: all inputs have to be OneHotPort,
+     * MapToOneHotPort or BinaryPort and every hidden gate has to be an AND-gate which is fed
+     * by input gates directly and feeds output gates directly (which is what learning creates).
+     * @param network the network to check
+     * @return true if a BitParallelEvaluator can be created for the network
+     */
+    public static boolean isApplicable(Network network) {
+        IdentityHashMap<Gate, Boolean> inputGates = new IdentityHashMap<>();
+        for (Portable input : network.getInputs()) {
+            if (!isApplicable_doInput(input, inputGates)) {
+                return false;
+            }
+        }
+        for (Portable output : network.getOutputs()) {
+            if (!isApplicable_doOutput(output)) {
+                return false;
+            }
+        }
+        for (Port port : network.getOutputSlots()) {
+            for (Gate outGate : port.getGates()) {
+                for (Edge in : outGate.getIns()) {
+                    Gate andGate = (Gate) in.getFrom();
+                    if (andGate.getOperation() != Gate.Operation.AND) {
+                        return false;
+                    }
+                    for (Edge andIn : andGate.getIns()) {
+                        if (!inputGates.containsKey((Gate) andIn.getFrom())) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isApplicable_doInput(Portable input, IdentityHashMap<Gate, Boolean> inputGates) {
+        if (input instanceof PortStream) {
+            return false;
+        }
+        if (input instanceof Port) {
+            if (!(input instanceof OneHotPort) && !(input instanceof BinaryPort)) {
+                return false;
+            }
+            for (Gate gate : ((Port) input).getGates()) {
+                inputGates.put(gate, Boolean.TRUE);
+            }
+        }
+        if (input.getChildren() != null) {
+            for (Portable child : input.getChildren()) {
+                if (!isApplicable_doInput(child, inputGates)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isApplicable_doOutput(Portable output) {
+        if (output instanceof PortStream) {
+            return false;
+        }
+        if (output.getChildren() != null) {
+            for (Portable child : output.getChildren()) {
+                if (!isApplicable_doOutput(child)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static float[] createCountTable(float inValue, int size) {
+        final float val = (inValue > 1.0f) ? (1.0f / inValue) : inValue;
+        float[] table = new float[size + 1];
+        float f = 1.0f;
+        for (int count = 1; count <= size; count++) {
+            f = f * val;
+            table[count] = f * ((float) count / (float) size);
+        }
+        return table;
+    }
+
+    public int getOutputSize() {
+        return outputSize;
+    }
+
+    /**
+     * Evaluates all given input-patterns.
+     * @param inputPatterns one input-pattern per row, the same as for Network.query()
+     * @return one output-pattern per row, the same as Network.getOutputValues() returns
+     */
+    public int[][] query(int[][] inputPatterns) {
+        int[][] result = new int[inputPatterns.length][outputSize];
+        for (int first = 0; first < inputPatterns.length; first += PATTERNS_PER_WORD) {
+            int count = Math.min(PATTERNS_PER_WORD, inputPatterns.length - first);
+            queryWord(inputPatterns, result, first, count);
+        }
+        return result;
+    }
+
+    private void queryWord(int[][] inputPatterns, int[][] result, int first, int count) {
+        // 1. set the bits of the active input gates
+        Arrays.fill(inputBits, 0L);
+        for (int i = 0; i < inputPorts.length; i++) {
+            final Port port = inputPorts[i];
+            final float[] gateValues = inputGateValues[i];
+            for (int p = 0; p < count; p++) {
+                final int[] pattern = inputPatterns[first + p];
+                if (i >= pattern.length) {
+                    continue;
+                }
+                port.encodeValue(pattern[i], gateValues);
+                for (int g = 0; g < gateValues.length; g++) {
+                    if (gateValues[g] != 0.0f) {
+                        inputBits[inputGateOffset[i] + g] |= (1L << p);
+                    }
+                }
+            }
+        }
+
+        // 2. AND-gates fire when any of their inputs is active, count the active inputs bit-sliced
+        for (int a = 0; a < andIns.length; a++) {
+            final int[] ins = andIns[a];
+            long fired = 0L;
+            if (andCountTable[a] != null) {
+                final long[] planes = andCount[a];
+                Arrays.fill(planes, 0L);
+                for (int e = 0; e < ins.length; e++) {
+                    long carry = inputBits[ins[e]];
+                    fired |= carry;
+                    for (int k = 0; k < planes.length && carry != 0L; k++) {
+                        long sum = planes[k] ^ carry;
+                        carry = planes[k] & carry;
+                        planes[k] = sum;
+                    }
+                }
+            } else {
+                for (int e = 0; e < ins.length; e++) {
+                    fired |= inputBits[ins[e]];
+                }
+            }
+            andFired[a] = fired;
+        }
+
+        // 3. float scoring only for the output gates which fire
+        for (int o = 0; o < outIns.length; o++) {
+            final int[] ins = outIns[o];
+            final float[] results = outResults[o];
+            long fired = 0L;
+            for (int e = 0; e < ins.length; e++) {
+                fired |= andFired[ins[e]];
+            }
+            for (int p = 0; p < count; p++) {
+                results[p] = 0.0f;
+            }
+            while (fired != 0L) {
+                final int p = Long.numberOfTrailingZeros(fired);
+                fired &= fired - 1;
+                if (values.length < ins.length) {
+                    values = new float[Math.max(ins.length, 2 * values.length)];
+                }
+                boolean triggered = false;
+                for (int e = 0; e < ins.length; e++) {
+                    final int a = ins[e];
+                    if ((andFired[a] & (1L << p)) != 0L) {
+                        float andResult = andResult(a, p);
+                        triggered |= (andResult != 0.0f);
+                        values[e] = andResult * outWeights[o][e] + outBiases[o][e];
+                    } else {
+                        values[e] = 0.0f;
+                    }
+                }
+                if (triggered) {
+                    results[p] = outOps[o].apply(values, ins.length);
+                }
+            }
+        }
+
+        // 4. decode the output values
+        final int cycle = network.getCycles();
+        for (int p = 0; p < count; p++) {
+            final int[] output = result[first + p];
+            for (int i = 0; i < outputPorts.length; i++) {
+                final Port port = outputPorts[i];
+                final int offset = outputGateOffset[i];
+                final float[] gateResults = outputGateResults[i];
+                for (int g = 0; g < gateResults.length; g++) {
+                    gateResults[g] = outResults[offset + g][p];
+                }
+                int value = port.decodeValue(gateResults, cycle);
+                if (value == Portable.NO_VALUE) {
+                    value = port.estimateValue();
+                }
+                if (i < output.length) {
+                    output[i] = value;
+                }
+            }
+        }
+    }
+
+    private float andResult(int a, int p) {
+        if (andCountTable[a] != null) {
+            final long[] planes = andCount[a];
+            int count = 0;
+            for (int k = 0; k < planes.length; k++) {
+                count |= (int) ((planes[k] >>> p) & 1L) << k;
+            }
+            return andCountTable[a][count];
+        }
+        // different weights: score the AND-gate for this pattern
+        final int[] ins = andIns[a];
+        float f = 1.0f;
+        int count = 0;
+        for (int e = 0; e < ins.length; e++) {
+            float val = ((inputBits[ins[e]] & (1L << p)) != 0L) ? andInValues[a][e] : 0.0f;
+            if (val > 1.0f) {
+                val = 1.0f / val;
+            }
+            if (val != 0.0f) {
+                f = f * val;
+                count++;
+            }
+        }
+        return f * ((float) count / (float) ins.length);
+    }
+}
@@ -0,0 +1,103 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Flattened form of a list of gates in topological order, which the compiled evaluators
+ * (NetworkSnapshot, ShardedEvaluator, WavePipeline, QuantizedEvaluator) are built from.
+ *
+ * The incoming edges of gate g are the entries inOffset[g] until inOffset[g+1] of inIndex,
+ * weights and biases; inIndex refers to the values-array the evaluator passes to evaluate().
+ * The arrays are a copy of the gates at the time of the compilation, later learning or
+ * optimizing is not seen by them.
+ *
+ * @author Bernhard
+ */
+final class CompiledGates {
+
+    final Gate.Operation[] operations;
+    final int[] inOffset;
+    final int[] inIndex;
+    final float[] weights;
+    final float[] biases;
+    final int maxFanIn;
+
+    /**
+     * @param gates the gates to compile, the inputs of a gate before the gate itself
+     * @param index the index of a gate in the values-array, negative if the gate is not known
+     */
+    CompiledGates(List<Gate> gates, ToIntFunction<Gate> index) {
+        operations = new Gate.Operation[gates.size()];
+        inOffset = new int[gates.size() + 1];
+        int edgeCount = 0;
+        int fanIn = 0;
+        for (Gate gate : gates) {
+            edgeCount += gate.getIns().size();
+            fanIn = Math.max(fanIn, gate.getIns().size());
+        }
+        maxFanIn = fanIn;
+        inIndex = new int[edgeCount];
+        weights = new float[edgeCount];
+        biases = new float[edgeCount];
+        int edge = 0;
+        for (int g = 0; g < gates.size(); g++) {
+            operations[g] = gates.get(g).getOperation();
+            inOffset[g] = edge;
+            edge = flatten(gates.get(g), index, inIndex, weights, biases, edge);
+        }
+        inOffset[gates.size()] = edge;
+    }
+
+    int size() {
+        return operations.length;
+    }
+
+    /**
+     * @param g the index of the gate in this list
+     * @param values the values of the gates, indexed by inIndex
+     * @param gathered working storage of at least maxFanIn values
+     * @return the result of the gate
+     */
+    float evaluate(int g, float[] values, float[] gathered) {
+        return evaluate(operations[g], inIndex, weights, biases, inOffset[g], inOffset[g + 1], values, gathered);
+    }
+
+    /**
+     * Copies the incoming edges of the gate into the arrays.
+     * @return the offset behind the edges of the gate
+     */
+    static int flatten(Gate gate, ToIntFunction<Gate> index, int[] inIndex, float[] weights, float[] biases, int offset) {
+        for (Edge in : gate.getIns()) {
+            final int from = index.applyAsInt((Gate) in.getFrom());
+            if (from < 0) {
+                throw new IllegalStateException(in + " comes from a gate which is not compiled");
+            }
+            inIndex[offset] = from;
+            weights[offset] = in.getWeight();
+            biases[offset] = in.getBias();
+            offset++;
+        }
+        return offset;
+    }
+
+    /**
+     * Evaluates the gate with the edges first until end, same as the propagation of the network.
+     */
+    static float evaluate(Gate.Operation operation, int[] inIndex, float[] weights, float[] biases, int first, int end,
+            float[] values, float[] gathered) {
+        // a gate only fires if at least one of its inputs has fired
+        boolean fired = false;
+        for (int e = first; e < end; e++) {
+            final float value = values[inIndex[e]];
+            if (value != 0.0f) {
+                fired = true;
+                gathered[e - first] = value * weights[e] + biases[e];
+            } else {
+                gathered[e - first] = 0.0f;
+            }
+        }
+        return fired ? operation.apply(gathered, end - first) : 0.0f;
+    }
+}
@@ -9,9 +9,7 @@ public class Edge implements Visitable {
 
     private static final Logger LOG = LogManager.getLogger(Edge.class);
 
-    private static int instanceCounter = 0;
-
-    private final String name;
+    private int id = 0;    // allocated by the network when it is exported, see Network.toGraphML()
     private Node from;
     private Node to;
 
@@ -53,17 +51,29 @@ public class Edge implements Visitable {
 
     @Override
     public String name() {
+        final String name = (id != 0) ? ("Edge" + id)
+                : (((from != null) ? from.name() : "()") + "->" + ((to != null) ? to.name() : "()"));
         return name + "(w=" + weight + ", b=" + bias + ")";
     }
 
     public Edge(Node from, Node to) {
-        this.name = "Edge" + (++instanceCounter);
         this.from = from;
         this.to = to;
         this.weight = 1.0f;
         this.bias = 0.0f;
     }
 
+    /**
+     * @return the id of the edge within its network, 0 if it has not been allocated yet
+     */
+    public int getId() {
+        return id;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
     public Node getFrom() {
         return from;
     }
@@ -85,8 +95,13 @@ public class Edge implements Visitable {
     }
 
     public void setWeight(float weight) {
-        LOG.debug(toString() + " set w=" + weight);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(toString() + " set w=" + weight);
+        }
         this.weight = weight;
+        if (to != null) {
+            to.touch();
+        }
     }
 
     public float getBias() {
@@ -94,8 +109,13 @@ public class Edge implements Visitable {
     }
 
     public void setBias(float bias) {
-        LOG.debug(toString() + " set b=" + bias);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(toString() + " set b=" + bias);
+        }
         this.bias = bias;
+        if (to != null) {
+            to.touch();
+        }
     }
 
     public void setValue(float val, int cycle) {
@@ -120,9 +140,12 @@ public class Edge implements Visitable {
     }
 
     public void remove() {
-        LOG.debug(" remove edge " + toString());
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(" remove edge " + toString());
+        }
         from.outs.remove(this);
         to.ins.remove(this);
+        to.touch();
         from = null;
         to = null;
     }
@@ -156,7 +179,7 @@ public class Edge implements Visitable {
     }
 
     public void toGraphML(GraphMLWriter gml, boolean showValues, int resultCycle) {
-        gml.beginEdge(name, from.name(), to.name()).data(GraphMLWriter.DATA_WEIGHT, weight).data(GraphMLWriter.DATA_BIAS, bias);
+        gml.beginEdge("Edge" + id, from.name(), to.name()).data(GraphMLWriter.DATA_WEIGHT, weight).data(GraphMLWriter.DATA_BIAS, bias);
         if( showValues && this.cycle == resultCycle)
             gml.data(GraphMLWriter.EDGEDATA_VALUE, value);
         gml.endEdge();
@@ -2,9 +2,7 @@
 package rapid.net;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.function.Function;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import rapid.util.GraphMLWriter;
@@ -14,52 +12,15 @@ public class Gate extends Node {
     private static final Logger LOG = LogManager.getLogger(Gate.class);
 
     public enum Operation {
-        AND("AND", (values) -> {
-            float f = 1.0f;
-            int count = 0;
-            for (float val : values) {
-                if (val > 1.0f) {
-                    val = 1.0f / val;
-                }
-                if (val != 0.0f) {
-                    f = f * val;
-                    count++;
-                }
-            }
-            return f * ((float) count / (float) values.size());
-        }),
-        MUL("MUL", (values) -> {
-            float f = 1.0f;
-            for (float val : values) {
-                f = f * val;
-            }
-            return f;
-        }),
-        OR("OR", (values) -> {
-            float f = 0.0f;
-            int count = 0;
-            for (float val : values) {
-                if (val != 0.0f) {
-                    f = f + val;
-                    count++;
-                }
-            }
-            return (count > 0) ? (f / count) : 0.0f;
-        }),
-        ADD("ADD", (values) -> {
-            float f = 0.0f;
-            for (float val : values) {
-                f = f + val;
-            }
-            return f;
-        });
+        AND("AND"),
+        MUL("MUL"),
+        OR("OR"),
+        ADD("ADD");
 
         private final String symbol;
-        private final Function<List<Float>, Float> op;
 
-        Operation(String symbol, Function<List<Float>, Float> op) {
+        Operation(String symbol) {
             this.symbol = symbol;
-            this.op = op;
         }
 
         @Override
@@ -67,12 +28,27 @@ public class Gate extends Node {
             return symbol;
         }
 
+        /**
+         * Reduces the first length values with the GateKernel of the JVM.
+         */
+        public float apply(float[] values, int length) {
+            return GateKernel.get().apply(this, values, length);
+        }
+
         public float apply(List<Float> values) {
-            return op.apply(values);
+            final float[] array = new float[values.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = values.get(i);
+            }
+            return apply(array, array.length);
         }
     }
 
+    // the gathered input values of the gate being evaluated
+    private static final ThreadLocal<float[][]> SCRATCH = ThreadLocal.withInitial(() -> new float[][]{new float[16]});
+
     public final Layer parent;
+    private final int index;    // the name is derived from the parent and the index, see Layer.gateName()
     private final Operation operation;
     private final int creationCycle;
 
@@ -81,9 +57,28 @@ public class Gate extends Node {
     private float result;
     private int resultCycle;
 
+    // for the sweep-propagation (see Network.Propagation.SWEEP)
+    private int activeCycle;
+    private int sweepIndex = -1;
+
     protected Gate(Layer parent, String name, Operation operation, int creationCycle) {
         super(name);
         this.parent = parent;
+        this.index = -1;
+        this.operation = operation;
+        this.creationCycle = creationCycle;
+
+        ins = new ArrayList<>();
+        outs = new ArrayList<>();
+    }
+
+    /**
+     * Creates a gate without a name, its name is derived by the parent from the index when it is needed.
+     */
+    protected Gate(Layer parent, int index, Operation operation, int creationCycle) {
+        super(null);
+        this.parent = parent;
+        this.index = index;
         this.operation = operation;
         this.creationCycle = creationCycle;
 
@@ -91,6 +86,19 @@ public class Gate extends Node {
         outs = new ArrayList<>();
     }
 
+    /**
+     * @return the index the name of the gate is derived from, -1 if the gate was created with a name
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public String name() {
+        final String name = super.name();
+        return (name != null) ? name : parent.gateName(index);
+    }
+
     public Operation getOperation() {
         return this.operation;
     }
@@ -107,6 +115,10 @@ public class Gate extends Node {
         this.hits++;
     }
 
+    void setHits(int hits) {
+        this.hits = hits;   // restored by a NetworkCheckpoint
+    }
+
     public void setStartValue(float value) {
         this.startValue = value;
     }
@@ -115,6 +127,13 @@ public class Gate extends Node {
         return this.startValue;
     }
 
+    /**
+     * @return true if this gate was evaluated in the given cycle
+     */
+    public boolean isPropagated(int cycle) {
+        return resultCycle == cycle;
+    }
+
     public float getResult(int cycle) {
         if (resultCycle == cycle) {
             return result;
@@ -138,21 +157,70 @@ public class Gate extends Node {
     public void remove() {
         super.remove();
         parent.getGates().remove(this);
+        sweepIndex = -1;
+    }
+
+    @Override
+    protected void touch() {
+        super.touch();
+        if (parent != null) {
+            parent.changed();   // the version of the network, see Network.getVersion()
+        }
+    }
+
+    /**
+     * Marks that this gate got a value (or an input-value) in the given cycle.
+     */
+    void activate(int cycle) {
+        activeCycle = cycle;
+    }
+
+    boolean isActive(int cycle) {
+        return activeCycle == cycle;
+    }
+
+    int getSweepIndex() {
+        return sweepIndex;
+    }
+
+    void setSweepIndex(int sweepIndex) {
+        this.sweepIndex = sweepIndex;
     }
 
     public boolean propagate(int cycle) {
         if (cycle == resultCycle) {
             return false;   // aready propagated, do not need to repeat
         }
+        evaluate(cycle);
+        return true;
+    }
+
+    /**
+     * Evaluates this gate again in the given cycle, e.g. after its inputs or their weights were changed.
+     * A hit is counted only once per cycle.
+     */
+    void repropagate(int cycle) {
+        if (cycle == resultCycle && !ins.isEmpty()) {
+            hits--;
+        }
+        evaluate(cycle);
+    }
+
+    private void evaluate(int cycle) {
         if (ins.isEmpty()) {
             result = startValue;  // if there are no inputs, then use the startValue instead.
         } else {
             // calculate the result-value
-            List<Float> vals = new LinkedList<>();
-            for (Edge in : ins) {
-                vals.add(in.getWeightedValue(cycle));
+            final int count = ins.size();
+            final float[][] scratch = SCRATCH.get();
+            if (scratch[0].length < count) {
+                scratch[0] = new float[Math.max(count, 2 * scratch[0].length)];
+            }
+            final float[] vals = scratch[0];
+            for (int i = 0; i < count; i++) {
+                vals[i] = ins.get(i).getWeightedValue(cycle);
             }
-            result = operation.apply(vals);
+            result = operation.apply(vals, count);
             hits++;
         }
         resultCycle = cycle;
@@ -161,7 +229,6 @@ public class Gate extends Node {
         for (Edge out : outs) {
             out.setValue(result, resultCycle);
         }
-        return true;
     }
 
     @Override
@@ -267,4 +334,16 @@ public class Gate extends Node {
     public static Gate createAddGate(Layer parent, String name, int cycle) {
         return new Gate(parent, name, Operation.ADD, cycle);
     }
+
+    public static Gate createAndGate(Layer parent, int index, int cycle) {
+        return new Gate(parent, index, Operation.AND, cycle);
+    }
+
+    public static Gate createOrGate(Layer parent, int index, int cycle) {
+        return new Gate(parent, index, Operation.OR, cycle);
+    }
+
+    public static Gate createAddGate(Layer parent, int index, int cycle) {
+        return new Gate(parent, index, Operation.ADD, cycle);
+    }
 }
@@ -0,0 +1,137 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Reduces the weighted input values of a gate, gathered into a contiguous float array, to the result
+ * of its operation (see Gate.Operation).
+ *
+ * The scalar kernel is used on Java 8. It works on the array without boxing and keeps the order
+ * of the inputs, so its results are exactly the ones of the former reduction of a List<Float>;
+ * the JIT does not reorder float reductions, so these loops are not vectorized.
+ * In a multi-release jar running on Java 16 or later with the module jdk.incubator.vector
+ * (--add-modules jdk.incubator.vector), a kernel using the Vector API is selected instead
+ * (see src-jdk16/). Its results may differ from the scalar ones in the last bits, since it
+ * reduces the lanes in another order. Set the system property rapid.gateKernel=scalar to keep
+ * the scalar kernel.
+ *
+ * @author Bernhard
+ */
+public abstract class GateKernel {
+
+    private static final Logger LOG = LogManager.getLogger(GateKernel.class);
+
+    private static final GateKernel SCALAR = new Scalar();
+    private static final GateKernel INSTANCE = GateKernelFactory.create();
+
+    static {
+        LOG.debug("Gate kernel " + INSTANCE.getName());
+    }
+
+    /**
+     * @return the kernel selected for this JVM
+     */
+    public static GateKernel get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the scalar kernel, which is available on every JVM
+     */
+    public static GateKernel scalar() {
+        return SCALAR;
+    }
+
+    public abstract String getName();
+
+    /**
+     * The product of the values which are not 0 (values above 1 are inverted), scaled by the ratio of them.
+     */
+    public abstract float and(float[] values, int length);
+
+    public abstract float mul(float[] values, int length);
+
+    /**
+     * The mean of the values which are not 0, 0 if all are.
+     */
+    public abstract float or(float[] values, int length);
+
+    public abstract float add(float[] values, int length);
+
+    public float apply(Gate.Operation operation, float[] values, int length) {
+        switch (operation) {
+            case AND:
+                return and(values, length);
+            case MUL:
+                return mul(values, length);
+            case OR:
+                return or(values, length);
+            case ADD:
+                return add(values, length);
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "GateKernel{" + getName() + "}";
+    }
+
+    static final class Scalar extends GateKernel {
+
+        @Override
+        public String getName() {
+            return "scalar";
+        }
+
+        @Override
+        public float and(float[] values, int length) {
+            float f = 1.0f;
+            int count = 0;
+            for (int i = 0; i < length; i++) {
+                float val = values[i];
+                if (val > 1.0f) {
+                    val = 1.0f / val;   // a branch, the division is too expensive to do it for every value
+                }
+                if (val != 0.0f) {
+                    f *= val;
+                    count++;
+                }
+            }
+            return f * ((float) count / (float) length);
+        }
+
+        @Override
+        public float mul(float[] values, int length) {
+            float f = 1.0f;
+            for (int i = 0; i < length; i++) {
+                f *= values[i];
+            }
+            return f;
+        }
+
+        @Override
+        public float or(float[] values, int length) {
+            float f = 0.0f;
+            int count = 0;
+            for (int i = 0; i < length; i++) {
+                final float val = values[i];
+                f += val;   // adding a 0 does not change the sum
+                count += (val != 0.0f) ? 1 : 0;
+            }
+            return (count > 0) ? (f / count) : 0.0f;
+        }
+
+        @Override
+        public float add(float[] values, int length) {
+            float f = 0.0f;
+            for (int i = 0; i < length; i++) {
+                f += values[i];
+            }
+            return f;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+/**
+ * Selects the GateKernel of the JVM. This is the Java 8 version, which always selects the scalar kernel;
+ * a multi-release jar replaces it on Java 16 or later (see src-jdk16/rapid/net/GateKernelFactory.java).
+ *
+ * @author Bernhard
+ */
+final class GateKernelFactory {
+
+    private GateKernelFactory() {
+    }
+
+    static GateKernel create() {
+        return GateKernel.scalar();
+    }
+}
@@ -11,6 +11,7 @@ public class Layer {
 
     public final String name;
     protected final List<Gate> gates;
+    private long version = 0;   // counts the changes of the gates, see Network.getVersion()
 
     protected Layer(String name, List<Gate> gates) {
         this.name = name;
@@ -21,6 +22,27 @@ public class Layer {
         return this.gates;
     }
 
+    /**
+     * @return the number of changes of the incoming edges (or their weights) of the gates so far
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Marks that a gate of the layer has been changed.
+     */
+    protected void changed() {
+        version++;
+    }
+
+    /**
+     * @return the name of the gate with the index, which was created without a name (e.g. "In.3")
+     */
+    public String gateName(int index) {
+        return name + "." + index;
+    }
+
     @Override
     public String toString() {
         return name + "{" + gates.size() + " gates}";
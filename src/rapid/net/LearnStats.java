@@ -0,0 +1,160 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import rapid.util.CsvWriter;
+
+/**
+ * The time spent in the phases of learning and the changes done by them, counted by each Network
+ * (see Network.getLearnStats()) since its creation or the last reset().
+ *
+ * The phases of a learn() are the query of the input pattern, the insert of the AND-gates (with their edges),
+ * the verification re-query, the correction of the weights if the verification failed, and the optimization
+ * of the output gates (which also runs in optimizeAll() and optimizeIncremental()).
+ *
+ * @author Bernhard
+ */
+public class LearnStats {
+
+    public enum Phase {
+        QUERY, INSERT, VERIFY, CORRECT, OPTIMIZE
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final long[] nanos = new long[PHASES.length];
+    private final long[] runs = new long[PHASES.length];
+    private long learns = 0;
+    private long gatesInserted = 0;
+    private long edgesCreated = 0;
+    private long edgesRemoved = 0;
+    private long permutationHits = 0;
+    private long duplicateHits = 0;
+
+    void add(Phase phase, long phaseNanos) {
+        nanos[phase.ordinal()] += phaseNanos;
+        runs[phase.ordinal()]++;
+    }
+
+    void learned() {
+        learns++;
+    }
+
+    void inserted(int gates, int edges) {
+        gatesInserted += gates;
+        edgesCreated += edges;
+    }
+
+    void removed(int edges) {
+        edgesRemoved += edges;
+    }
+
+    void permutationFound() {
+        permutationHits++;
+    }
+
+    void duplicateFound() {
+        duplicateHits++;
+    }
+
+    public long getNanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * @return the number of times the phase was run
+     */
+    public long getRuns(Phase phase) {
+        return runs[phase.ordinal()];
+    }
+
+    public long getLearns() {
+        return learns;
+    }
+
+    public long getGatesInserted() {
+        return gatesInserted;
+    }
+
+    public long getEdgesCreated() {
+        return edgesCreated;
+    }
+
+    public long getEdgesRemoved() {
+        return edgesRemoved;
+    }
+
+    /**
+     * @return the number of output gates whose inputs had permutations which were removed
+     */
+    public long getPermutationHits() {
+        return permutationHits;
+    }
+
+    /**
+     * @return the number of output gates whose inputs had duplicate gates which were removed
+     */
+    public long getDuplicateHits() {
+        return duplicateHits;
+    }
+
+    public void reset() {
+        for (int i = 0; i < PHASES.length; i++) {
+            nanos[i] = 0;
+            runs[i] = 0;
+        }
+        learns = 0;
+        gatesInserted = 0;
+        edgesCreated = 0;
+        edgesRemoved = 0;
+        permutationHits = 0;
+        duplicateHits = 0;
+    }
+
+    /**
+     * Writes the column names of write().
+     */
+    public static void writeHeader(CsvWriter csv) {
+        csv.print("Name");
+        csv.print("#Learns");
+        for (Phase phase : PHASES) {
+            csv.print(phase + "[ns]");
+            csv.print("#" + phase);
+        }
+        csv.print("#GatesInserted");
+        csv.print("#EdgesCreated");
+        csv.print("#EdgesRemoved");
+        csv.print("#PermutationHits");
+        csv.print("#DuplicateHits");
+        csv.println();
+    }
+
+    /**
+     * Writes the current values as a row.
+     */
+    public void write(CsvWriter csv, String name) {
+        csv.print(name);
+        csv.print(learns);
+        for (int i = 0; i < PHASES.length; i++) {
+            csv.print(nanos[i]);
+            csv.print(runs[i]);
+        }
+        csv.print(gatesInserted);
+        csv.print(edgesCreated);
+        csv.print(edgesRemoved);
+        csv.print(permutationHits);
+        csv.print(duplicateHits);
+        csv.println();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("learns=").append(learns);
+        for (int i = 0; i < PHASES.length; i++) {
+            if (runs[i] > 0) {
+                sb.append(", ").append(PHASES[i].name().toLowerCase()).append('=').append(nanos[i] / 1000).append("us/").append(runs[i]);
+            }
+        }
+        return sb.append(", gates=+").append(gatesInserted).append(", edges=+").append(edgesCreated).append("/-").append(edgesRemoved)
+                .append(", permutations=").append(permutationHits).append(", duplicates=").append(duplicateHits).toString();
+    }
+}
@@ -0,0 +1,160 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the input/output pairs which the network has been verified to answer correctly, so learn()
+ * can skip them (see Network.setLearnedFilterCapacity()).
+ *
+ * A pair is stored as a 64 bit fingerprint in an open-addressing table (8 bytes per pair). Different pairs
+ * with the same fingerprint are not distinguished, which is unlikely enough for millions of pairs.
+ * The pairs belong to a version of the network (see Network.getVersion()), all of them are dropped when the
+ * version changes; they are dropped too when the capacity is reached.
+ *
+ * @author Bernhard
+ */
+public class LearnedPatternFilter {
+
+    private static final long EMPTY = 0L;
+
+    private final int capacity;
+    private final long[] table;     // the fingerprints, EMPTY for a free entry
+    private final int mask;
+    private int size = 0;
+    private long version = -1;
+    private long lookups = 0;
+    private long skipped = 0;
+    private long clears = 0;
+
+    public LearnedPatternFilter(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity of the filter must be positive");
+        }
+        this.capacity = capacity;
+        // at most half of the table is used, so the probe sequences stay short
+        this.table = new long[Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) * 2];
+        this.mask = table.length - 1;
+    }
+
+    public static long fingerprint(int[] inputPattern, int[] outputPattern) {
+        long hash = mix(0x9E3779B97F4A7C15L, inputPattern);
+        return finish(mix(hash, outputPattern));
+    }
+
+    /**
+     * The fingerprint of a sparse pattern, see Network.learnSparse().
+     */
+    public static long fingerprint(int[] activeSlots, int[] activeValues, int[] outputPattern) {
+        long hash = mix(0xC2B2AE3D27D4EB4FL, activeSlots);
+        hash = mix(hash, activeValues);
+        return finish(mix(hash, outputPattern));
+    }
+
+    private static long mix(long hash, int[] values) {
+        hash = (hash ^ values.length) * 0x100000001B3L;     // the length separates the arrays
+        for (int value : values) {
+            hash = (hash ^ value) * 0x100000001B3L;
+            hash ^= hash >>> 29;
+        }
+        return hash;
+    }
+
+    private static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return (hash != EMPTY) ? hash : 1L;
+    }
+
+    /**
+     * @param version the current version of the network, the pairs of another version are dropped
+     * @return true if the pair with the fingerprint was verified before
+     */
+    public boolean contains(long fingerprint, long version) {
+        checkVersion(version);
+        lookups++;
+        for (int i = index(fingerprint);; i = (i + 1) & mask) {
+            final long entry = table[i];
+            if (entry == fingerprint) {
+                skipped++;
+                return true;
+            } else if (entry == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Adds the verified pair with the fingerprint.
+     * @param version the version of the network after the pair was verified
+     */
+    public void add(long fingerprint, long version) {
+        checkVersion(version);
+        if (size >= capacity) {
+            clear();
+        }
+        for (int i = index(fingerprint);; i = (i + 1) & mask) {
+            final long entry = table[i];
+            if (entry == fingerprint) {
+                return;
+            } else if (entry == EMPTY) {
+                table[i] = fingerprint;
+                size++;
+                return;
+            }
+        }
+    }
+
+    private int index(long fingerprint) {
+        return (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+    }
+
+    private void checkVersion(long version) {
+        if (version != this.version) {
+            clear();
+            this.version = version;
+        }
+    }
+
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(table, EMPTY);
+            size = 0;
+            clears++;
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getLookups() {
+        return lookups;
+    }
+
+    /**
+     * @return the number of learns which were skipped, as their pair was found
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * @return the number of times the pairs were dropped (because the network changed or the filter was full)
+     */
+    public long getClears() {
+        return clears;
+    }
+
+    @Override
+    public String toString() {
+        return "LearnedPatternFilter{size=" + size + "/" + capacity + ", lookups=" + lookups + ", skipped=" + skipped + ", clears=" + clears + "}";
+    }
+}
@@ -0,0 +1,54 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import java.util.List;
+import rapid.net.port.Port;
+
+/**
+ * Is told about every change of the learned structure of a network, e.g. to journal it
+ * (see rapid.net.journal.LearningJournal). The methods are called by the thread which learns,
+ * the learn-events before they are applied, the others after.
+ *
+ * @author Bernhard
+ */
+public interface LearningListener {
+
+    /**
+     * @return false if the listener can not record the values which the setter function of learn() sets,
+     * the network rejects such learns then
+     */
+    default boolean isSetterFuncSupported() {
+        return true;
+    }
+
+    /**
+     * Network.learn() is about to learn the pattern.
+     */
+    default void onLearn(int[] inputPattern, int[] outputPattern, boolean optimize) {
+    }
+
+    /**
+     * Network.learnSparse() is about to learn the pattern.
+     */
+    default void onLearnSparse(int[] activeSlots, int[] activeValues, int[] outputPattern, boolean optimize) {
+    }
+
+    /**
+     * Network.optimizeAll() has optimized all output gates.
+     */
+    default void onOptimizeAll() {
+    }
+
+    /**
+     * The output gates were optimized (in this order) by Network.optimizeAll(Portable), optimizeIncremental() or optimizeGates().
+     */
+    default void onOptimizeGates(List<Gate> gates) {
+    }
+
+    /**
+     * The weights of the inputs to the gates of the value of the output port were multiplied by the factor,
+     * because the learned pattern did not verify.
+     */
+    default void onCorrection(Port output, int value, float factor) {
+    }
+}
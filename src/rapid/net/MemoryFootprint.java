@@ -0,0 +1,324 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.PlatformManagedObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import rapid.net.port.Port;
+import rapid.net.port.PortStream;
+import rapid.net.port.Portable;
+
+/**
+ * Estimates the heap used by a network: ports, gates, edges, their names, lists and maps.
+ *
+ * The shallow size of the classes of the network is calculated from their fields by reflection
+ * (HotSpot layout: 12/16 bytes header, 4/8 bytes references, 8 bytes alignment), the JDK classes
+ * (String, ArrayList, HashMap, boxed numbers) are estimated by their known layout.
+ * Each edge is accounted to the gate it leads to, each gate to the port (or hidden layer) it belongs to.
+ *
+ * @author Bernhard
+ */
+public class MemoryFootprint {
+
+    private static final Logger LOG = LogManager.getLogger(MemoryFootprint.class);
+
+    public static final String LAYER_NETWORK = "network";
+    public static final String LAYER_INPUT = "input";
+    public static final String LAYER_HIDDEN = "hidden";
+    public static final String LAYER_OUTPUT = "output";
+
+    private static final boolean COMPRESSED_OOPS = detectCompressedOops();
+    private static final int REF = COMPRESSED_OOPS ? 4 : 8;
+    private static final int HEADER = COMPRESSED_OOPS ? 12 : 16;
+    private static final int ARRAY_HEADER = COMPRESSED_OOPS ? 16 : 24;
+    private static final boolean COMPACT_STRINGS = isCompactStrings();
+    private static final Map<Class<?>, Long> SHALLOW_SIZES = new HashMap<>();
+
+    private final IdentityHashMap<Object, Boolean> visited = new IdentityHashMap<>();
+    private final LinkedHashMap<String, Long> byLayer = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Long> byPortType = new LinkedHashMap<>();
+    private long totalBytes = 0;
+    private int gateCount = 0;
+    private int edgeCount = 0;
+
+    private MemoryFootprint() {
+    }
+
+    /**
+     * Walks the whole network and returns its footprint.
+     */
+    public static MemoryFootprint of(Network network) {
+        MemoryFootprint footprint = new MemoryFootprint();
+        footprint.add(LAYER_NETWORK, null, footprint.sizeOfObject(network));
+        for (Portable input : network.getInputs()) {
+            footprint.addPortable(LAYER_INPUT, input);
+        }
+        for (Gate gate : network.getGates()) {
+            footprint.add(LAYER_HIDDEN, null, footprint.sizeOfGate(gate));
+        }
+        for (Portable output : network.getOutputs()) {
+            footprint.addPortable(LAYER_OUTPUT, output);
+        }
+        return footprint;
+    }
+
+    /**
+     * @return the bytes of a new gate with its incoming and outgoing edges, used for the incremental estimation
+     */
+    public static long estimateInsert(Gate gate) {
+        MemoryFootprint footprint = new MemoryFootprint();
+        long bytes = footprint.sizeOfGate(gate);
+        for (Edge out : gate.getOuts()) {
+            bytes += footprint.sizeOfObject(out);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the bytes of an evaluator compiled from a network (its arrays and working storage),
+     * without the network and the ports it still refers to
+     */
+    public static long estimateCompiled(Object evaluator) {
+        return new MemoryFootprint().sizeOfObject(evaluator);
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public Map<String, Long> getBytesByLayer() {
+        return byLayer;
+    }
+
+    public Map<String, Long> getBytesByPortType() {
+        return byPortType;
+    }
+
+    public int getGateCount() {
+        return gateCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryFootprint{total=" + totalBytes + " bytes, gates=" + gateCount + ", edges=" + edgeCount
+                + ", layers=" + byLayer + ", ports=" + byPortType + "}";
+    }
+
+    private void add(String layer, String portType, long bytes) {
+        totalBytes += bytes;
+        byLayer.merge(layer, bytes, Long::sum);
+        if (portType != null) {
+            byPortType.merge(portType, bytes, Long::sum);
+        }
+    }
+
+    private void addPortable(String layer, Portable port) {
+        long bytes = sizeOfObject(port);
+        if (port instanceof Port) {
+            for (Gate gate : ((Port) port).getGates()) {
+                bytes += sizeOfGate(gate);
+            }
+        }
+        add(layer, port.getClass().getSimpleName(), bytes);
+
+        if (port instanceof PortStream) {
+            PortStream stream = (PortStream) port;
+            for (int i = 0; i < stream.size(); i++) {
+                for (Portable child : stream.getChildrenByIndex(i)) {
+                    addPortable(layer, child);
+                }
+            }
+        } else if (port.getChildren() != null) {
+            for (Portable child : port.getChildren()) {
+                addPortable(layer, child);
+            }
+        }
+    }
+
+    private long sizeOfGate(Gate gate) {
+        gateCount++;
+        long bytes = sizeOfObject(gate);
+        for (Edge in : gate.getIns()) {
+            edgeCount++;
+            bytes += sizeOfObject(in);
+        }
+        return bytes;
+    }
+
+    /**
+     * Size of the object with its strings, arrays, collections and boxed values,
+     * but without the other gates, edges and ports it refers to.
+     */
+    private long sizeOfObject(Object object) {
+        if (object == null || visited.put(object, Boolean.TRUE) != null) {
+            return 0;
+        }
+        long bytes = shallowSize(object.getClass());
+        for (Class<?> c = object.getClass(); c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+                    continue;
+                }
+                try {
+                    field.setAccessible(true);
+                    bytes += sizeOfValue(field.get(object));
+                } catch (ReflectiveOperationException | RuntimeException ex) {
+                    LOG.debug("Can not access " + field + ": " + ex.getMessage());
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private long sizeOfValue(Object value) {
+        if (value == null || value instanceof Node || value instanceof Edge || value instanceof Layer
+                || value instanceof Portable || value instanceof Enum || value instanceof Class) {
+            return 0;   // accounted separately or shared
+        }
+        if (visited.containsKey(value)) {
+            return 0;
+        }
+        if (value instanceof String) {
+            visited.put(value, Boolean.TRUE);
+            return sizeOfString((String) value);
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            visited.put(value, Boolean.TRUE);
+            return align(HEADER + ((value instanceof Long || value instanceof Double) ? 8 : 4));
+        }
+        if (value.getClass().isArray()) {
+            visited.put(value, Boolean.TRUE);
+            return sizeOfArray(value);
+        }
+        if (value instanceof Collection) {
+            visited.put(value, Boolean.TRUE);
+            Collection<?> collection = (Collection<?>) value;
+            long bytes = align(HEADER + 4 * 4) + align(ARRAY_HEADER + (long) REF * collection.size());
+            if (value instanceof Set) {
+                bytes += collection.size() * align(HEADER + 4 + 3 * REF);   // hash-set nodes
+            }
+            for (Object element : collection) {
+                bytes += sizeOfValue(element);
+            }
+            return bytes;
+        }
+        if (value instanceof Map) {
+            visited.put(value, Boolean.TRUE);
+            Map<?, ?> map = (Map<?, ?>) value;
+            long table = Integer.highestOneBit(Math.max(1, (int) (map.size() / 0.75f)) * 2 - 1);
+            long bytes = align(HEADER + 4 * 4 + 3 * REF) + align(ARRAY_HEADER + REF * table)
+                    + map.size() * align(HEADER + 4 + 3 * REF + ((value instanceof LinkedHashMap) ? 2 * REF : 0));
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                bytes += sizeOfValue(entry.getKey()) + sizeOfValue(entry.getValue());
+            }
+            return bytes;
+        }
+        if (value.getClass().getName().startsWith("rapid.")) {
+            return sizeOfObject(value);
+        }
+        visited.put(value, Boolean.TRUE);
+        return shallowSize(value.getClass());
+    }
+
+    private static long sizeOfString(String s) {
+        final long chars = COMPACT_STRINGS ? s.length() : 2L * s.length();
+        return shallowSize(String.class) + align(ARRAY_HEADER + chars);
+    }
+
+    private long sizeOfArray(Object array) {
+        final Class<?> type = array.getClass().getComponentType();
+        final int length = java.lang.reflect.Array.getLength(array);
+        int elementSize = REF;
+        if (type == long.class || type == double.class) {
+            elementSize = 8;
+        } else if (type == int.class || type == float.class) {
+            elementSize = 4;
+        } else if (type == short.class || type == char.class) {
+            elementSize = 2;
+        } else if (type == byte.class || type == boolean.class) {
+            elementSize = 1;
+        }
+        long bytes = align(ARRAY_HEADER + (long) elementSize * length);
+        if (!type.isPrimitive()) {
+            for (int i = 0; i < length; i++) {
+                bytes += sizeOfValue(java.lang.reflect.Array.get(array, i));
+            }
+        }
+        return bytes;
+    }
+
+    private static synchronized long shallowSize(Class<?> c) {
+        Long size = SHALLOW_SIZES.get(c);
+        if (size == null) {
+            long bytes = HEADER;
+            for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+                for (Field field : k.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers())) {
+                        bytes += fieldSize(field.getType());
+                    }
+                }
+            }
+            size = align(bytes);
+            SHALLOW_SIZES.put(c, size);
+        }
+        return size;
+    }
+
+    private static int fieldSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        } else if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REF;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * @return true if the estimates assume compressed references (4 bytes) and object headers (12 bytes)
+     */
+    public static boolean isCompressedOops() {
+        return COMPRESSED_OOPS;
+    }
+
+    private static boolean detectCompressedOops() {
+        try {
+            // the methods are looked up on the exported interfaces, the implementation classes are not accessible
+            Class<? extends PlatformManagedObject> beanClass = Class.forName("com.sun.management.HotSpotDiagnosticMXBean")
+                    .asSubclass(PlatformManagedObject.class);
+            Object bean = ManagementFactory.getPlatformMXBean(beanClass);
+            Object option = beanClass.getMethod("getVMOption", String.class).invoke(bean, "UseCompressedOops");
+            return Boolean.parseBoolean((String) Class.forName("com.sun.management.VMOption").getMethod("getValue").invoke(option));
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return true;    // default of the 64 bit JVMs with less than 32GB heap
+        }
+    }
+
+    private static boolean isCompactStrings() {
+        try {
+            return String.class.getDeclaredField("value").getType() == byte[].class;
+        } catch (NoSuchFieldException | RuntimeException ex) {
+            return false;
+        }
+    }
+}
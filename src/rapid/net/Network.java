@@ -1,14 +1,22 @@
 // License: Apache 2.0. See LICENSE file in root directory.
 package rapid.net;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.util.BiConsumer;
@@ -16,6 +24,7 @@ import rapid.net.port.FuzzyPort;
 import rapid.net.port.OneHotPort;
 import rapid.net.port.Port;
 import rapid.net.port.PortStream;
+import rapid.util.CsvWriter;
 import rapid.util.Utils;
 import rapid.net.port.Portable;
 import rapid.util.GraphMLWriter;
@@ -25,13 +34,91 @@ public class Network extends Layer {
 
     private static final Logger LOG = LogManager.getLogger(Network.class.toString());
 
+    /**
+     * How the values are propagated through the gates on query() and learn().
+     */
+    public enum Propagation {
+        /**
+         * Breadth-first, starting at the input gates which got a value. Only the active gates are touched,
+         * but a gate is evaluated when its first input arrives, which may be before all of its inputs arrived.
+         */
+        BFS,
+        /**
+         * One sweep over all gates in topological order (see Node.getLevel()), evaluating each active gate
+         * exactly once, after all of its inputs. Faster on dense activations.
+         */
+        SWEEP
+    }
+
     private float precision = 0.001f;   // uncertainty of 0,1%
     private final ArrayList<Portable> inputs;
     private final ArrayList<Portable> outputs;
 
     private int nextGateId;
+    private int nextEdgeId = 1;         // the ids are allocated by each network, so networks can learn in parallel
+    private int nextVisitSessionId = 1;
     private int cycles;     // measure the interaction-cycles with the neural-network
 
+    // flattened ports (value index --> Port), rebuilt when ports or streams change
+    private final ArrayList<PortStream> inputStreams = new ArrayList<>();
+    private final ArrayList<PortStream> outputStreams = new ArrayList<>();
+    private boolean streamsValid = false;
+    private boolean slotsValid = false;
+    private Port[] inputSlots;
+    private Port[] outputSlots;
+    private int outputSize;
+    private final ArrayDeque<Gate> bfp = new ArrayDeque<>();
+    private final ArrayList<Gate> learnInsertedGates = new ArrayList<>();   // by the current learn()
+
+    // all gates sorted by their level, rebuilt when gates are inserted (see Propagation.SWEEP)
+    private Propagation propagation = Propagation.BFS;
+    private Gate[] sweepOrder = new Gate[0];
+    private int sweepSize = 0;
+    private boolean sweepValid = false;
+
+    // contributions below the threshold are dropped on propagation (0.0: off)
+    private float activationThreshold = 0.0f;
+    private final ArrayList<Gate> droppedTargets = new ArrayList<>();
+    private int propagatedGates = 0;
+    private int skippedEdges = 0;
+    private int skippedGates = 0;
+
+    // input ports which got a value by the last sparse query (-1: all ports were set by a dense query)
+    private Port[] activePorts = new Port[16];
+    private int activeCount = -1;
+
+    // copy-on-write snapshots for concurrent readers (see NetworkSnapshot)
+    private final AtomicReference<NetworkSnapshot> snapshot = new AtomicReference<>();
+    private NetworkSnapshot.Builder snapshotBuilder;
+    private boolean autoPublish = false;
+
+    // output gates changed since their last optimization (gate --> stamp of the last change)
+    private final LinkedHashMap<Gate, Long> dirtyGates = new LinkedHashMap<>();
+    private long dirtyStamp = 0;
+
+    // memory budget (see MemoryFootprint): soft --> listener is called once, hard --> no more AND-gates are inserted
+    private long memorySoftBudget = Long.MAX_VALUE;
+    private long memoryHardBudget = Long.MAX_VALUE;
+    private long memoryEstimate = 0;
+    private boolean memorySoftExceeded = false;
+    private Consumer<MemoryFootprint> memoryListener;
+    private int blockedInserts = 0;
+
+    // is told about every change of the learned structure (see LearningListener)
+    private LearningListener learningListener;
+
+    // optional cache of the query results, see setQueryCacheCapacity()
+    private QueryCache queryCache;
+
+    // optional filter of the verified input/output pairs, see setLearnedFilterCapacity()
+    private LearnedPatternFilter learnedFilter;
+    private boolean learnVerified = false;  // the output pattern of the last learn was verified
+
+    // the time spent in the phases of learning, see getLearnStats()
+    private final LearnStats learnStats = new LearnStats();
+    private CsvWriter learnStatsCsv;
+    private int learnStatsInterval = 0;
+
     public Network(String name) {
         super(name, new ArrayList<Gate>());
         this.inputs = new ArrayList<>();
@@ -52,18 +139,280 @@ public class Network extends Layer {
 
     public <T extends Portable> T addInput(T port) {
         inputs.add(port);
+        invalidatePorts();
         return port;
     }
 
     public <T extends Portable> T addOutput(T port) {
         outputs.add(port);
+        invalidatePorts();
         return port;
     }
 
+    public List<Portable> getInputs() {
+        return inputs;
+    }
+
+    public List<Portable> getOutputs() {
+        return outputs;
+    }
+
     public int getCycles() {
         return cycles;
     }
 
+    public Propagation getPropagation() {
+        return propagation;
+    }
+
+    public void setPropagation(Propagation propagation) {
+        this.propagation = propagation;
+    }
+
+    public float getActivationThreshold() {
+        return activationThreshold;
+    }
+
+    /**
+     * Drops the contributions of edges whose weighted value is below the threshold (but not zero) on propagation,
+     * so gates which only get such small inputs are not evaluated at all.
+     * @param activationThreshold the minimum absolute weighted edge-value, 0.0 to propagate every non-zero value (default)
+     */
+    public void setActivationThreshold(float activationThreshold) {
+        this.activationThreshold = activationThreshold;
+        changed();
+    }
+
+    /**
+     * @return the number of gates evaluated by the last query (or learn)
+     */
+    public int getPropagatedGates() {
+        return propagatedGates;
+    }
+
+    /**
+     * @return the number of edges dropped by the activation threshold in the last query (or learn)
+     */
+    public int getSkippedEdges() {
+        return skippedEdges;
+    }
+
+    /**
+     * @return the number of gates not evaluated in the last query (or learn), because the activation threshold
+     * dropped all of their inputs
+     */
+    public int getSkippedGates() {
+        return skippedGates;
+    }
+
+    /**
+     * Creates an immutable snapshot of the current network and publishes it to the readers.
+     * Must be called by the thread which learns (the writer).
+     * @return the published snapshot
+     */
+    public NetworkSnapshot publish() {
+        if (snapshotBuilder == null) {
+            snapshotBuilder = new NetworkSnapshot.Builder();
+        }
+        NetworkSnapshot published = snapshotBuilder.build(this);
+        snapshot.set(published);
+        return published;
+    }
+
+    /**
+     * @return the last published snapshot (may be called by any thread), null if nothing was published yet
+     */
+    public NetworkSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    public boolean isAutoPublish() {
+        return autoPublish;
+    }
+
+    /**
+     * @param autoPublish if true, a new snapshot is published after each learn() and optimizeAll()
+     */
+    public void setAutoPublish(boolean autoPublish) {
+        this.autoPublish = autoPublish;
+    }
+
+    public LearningListener getLearningListener() {
+        return learningListener;
+    }
+
+    /**
+     * @param learningListener is told about every learn, optimization and correction, null for none
+     */
+    public void setLearningListener(LearningListener learningListener) {
+        this.learningListener = learningListener;
+    }
+
+    /**
+     * @return the cache of the query results (with its hit-rate), null if there is none
+     */
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Caches the results of queryCached() by their input pattern, for networks which are queried with the same
+     * patterns again and again. A cached query does not propagate the network, so neither the cycles nor
+     * the values and hits of the gates are changed by it; ties between output gates are always resolved
+     * as in the first query. query() and queryInto() are never cached, as their callers may read the values
+     * of the ports afterwards. Networks with PortStreams are not cached.
+     * @param capacity the maximum number of cached results (the least recently used is evicted), 0 for no cache
+     */
+    public void setQueryCacheCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("The capacity of the query cache must not be negative");
+        }
+        queryCache = (capacity > 0) ? new QueryCache(capacity) : null;
+    }
+
+    /**
+     * @return the filter of the verified input/output pairs (with its statistics), null if there is none
+     */
+    public LearnedPatternFilter getLearnedFilter() {
+        return learnedFilter;
+    }
+
+    /**
+     * Remembers the input/output pairs the network answered correctly when they were learned, so learning them
+     * again returns false immediately, without propagating the network (e.g. for replayed training data with
+     * many duplicates). The pairs are forgotten as soon as the network is changed (see getVersion()).
+     * A skipped learn does not change the cycles or the hits of the gates and is not told to the LearningListener.
+     * Learns with a setterFunc and networks with PortStreams are not filtered.
+     * @param capacity the maximum number of remembered pairs, 0 for no filter
+     */
+    public void setLearnedFilterCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("The capacity of the learned-pattern filter must not be negative");
+        }
+        learnedFilter = (capacity > 0) ? new LearnedPatternFilter(capacity) : null;
+    }
+
+    /**
+     * @return the time spent in the phases of learning and the changes done by them
+     */
+    public LearnStats getLearnStats() {
+        return learnStats;
+    }
+
+    /**
+     * Writes the LearnStats as a row to the CSV file after every interval learns.
+     * @param csv the opened CSV file, null to stop writing
+     * @param interval the number of learns between two rows
+     */
+    public void setLearnStatsCsv(CsvWriter csv, int interval) {
+        if (csv != null && interval <= 0) {
+            throw new IllegalArgumentException("The interval of the learn stats must be positive");
+        }
+        this.learnStatsCsv = csv;
+        this.learnStatsInterval = interval;
+    }
+
+    private void learned() {
+        if (learnStatsCsv != null && learnStats.getLearns() % learnStatsInterval == 0) {
+            learnStats.write(learnStatsCsv, name);
+        }
+    }
+
+    /**
+     * @return changes whenever a gate or an edge of the network (including its ports) is inserted, removed or re-weighted
+     */
+    @Override
+    public long getVersion() {
+        validateSlots();
+        long version = super.getVersion();
+        for (Port port : inputSlots) {
+            version += port.getVersion();
+        }
+        for (Port port : outputSlots) {
+            version += port.getVersion();
+        }
+        return version;
+    }
+
+    /**
+     * Walks the whole network and estimates its heap usage.
+     * Also resets the incremental estimation used by the memory budget.
+     * @return the footprint with the breakdown by layer and port type
+     */
+    public MemoryFootprint measureMemory() {
+        MemoryFootprint footprint = MemoryFootprint.of(this);
+        memoryEstimate = footprint.getTotalBytes();
+        if (memoryEstimate < memorySoftBudget) {
+            memorySoftExceeded = false;
+        }
+        return footprint;
+    }
+
+    /**
+     * Limits the memory of the network.
+     * When the soft budget is exceeded, the listener (if set) is called once with the measured footprint;
+     * when the hard budget is exceeded, learn() inserts no more AND-gates (see getBlockedInserts()),
+     * until measureMemory() finds the network below the hard budget again (e.g. after pruning).
+     * @param softBudget the soft budget in bytes, Long.MAX_VALUE for none
+     * @param hardBudget the hard budget in bytes, Long.MAX_VALUE for none
+     * @param listener called when the soft budget is exceeded, may be null
+     */
+    public void setMemoryBudget(long softBudget, long hardBudget, Consumer<MemoryFootprint> listener) {
+        this.memorySoftBudget = softBudget;
+        this.memoryHardBudget = hardBudget;
+        this.memoryListener = listener;
+        this.memorySoftExceeded = false;
+        checkMemoryBudget(measureMemory());
+    }
+
+    public long getMemorySoftBudget() {
+        return memorySoftBudget;
+    }
+
+    public long getMemoryHardBudget() {
+        return memoryHardBudget;
+    }
+
+    boolean hasMemoryBudget() {
+        return memorySoftBudget != Long.MAX_VALUE || memoryHardBudget != Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the estimated heap usage in bytes, updated incrementally on each inserted AND-gate if a budget is set
+     */
+    public long getMemoryEstimate() {
+        return memoryEstimate;
+    }
+
+    public boolean isMemorySoftBudgetExceeded() {
+        return memorySoftExceeded;
+    }
+
+    /**
+     * @return the number of AND-gates which were not inserted because of the hard memory budget
+     */
+    public int getBlockedInserts() {
+        return blockedInserts;
+    }
+
+    private void checkMemoryBudget(MemoryFootprint footprint) {
+        if (!memorySoftExceeded && memoryEstimate >= memorySoftBudget) {
+            if (footprint == null) {
+                footprint = measureMemory();    // the incremental estimation drifts, so re-measure before alarming
+            }
+            if (memoryEstimate >= memorySoftBudget) {
+                memorySoftExceeded = true;
+                LOG.warn(name + ": soft memory budget of " + memorySoftBudget + " bytes exceeded: " + footprint);
+                if (memoryListener != null) {
+                    memoryListener.accept(footprint);
+                }
+            }
+        }
+        if (memoryEstimate >= memoryHardBudget && footprint == null) {
+            measureMemory();
+        }
+    }
+
     @Override
     public String toString() {
         int combinations = 1;
@@ -86,7 +435,8 @@ public class Network extends Layer {
         int totalComplexity = combinations * results;
         int relComplexity = (totalComplexity > 0) ? (((100 * totalGates) / (combinations * results))) : 0;
         return this.name + "{inputs=" + inputs.size() + ", outputs=" + outputs.size() + ", gates=" + gates.size() + ", totalGates=" + (inputGates + gates.size() + outputGates)
-                + ", complexity=" + totalGates + " of " + totalComplexity + "(" + relComplexity + "%)}";
+                + ", complexity=" + totalGates + " of " + totalComplexity + "(" + relComplexity + "%)"
+                + ((learnStats.getLearns() > 0) ? (", learnStats={" + learnStats + "}") : "") + "}";
     }
 
     private int toString_doPort(Portable input) {
@@ -176,6 +526,7 @@ public class Network extends Layer {
             toGraphML_doPort(input, gml, "input", showValues);
         }
         for (Gate gate : gates) {
+            allocateEdgeIds(gate);
             gate.toGraphML(gml, "hidden", showValues, cycles);
         }
         for (Portable output : outputs) {
@@ -189,6 +540,7 @@ public class Network extends Layer {
         if (input instanceof Port) {
             List<Gate> gates = ((Port) input).getGates();
             for (Gate gate : gates) {
+                allocateEdgeIds(gate);
                 gate.toGraphML(gml, layer, showValues, cycles);
             }
         }
@@ -200,6 +552,26 @@ public class Network extends Layer {
         }
     }
 
+    @Override
+    public String gateName(int index) {
+        return "AndGate" + index;
+    }
+
+    private void allocateEdgeIds(Gate gate) {
+        for (Edge out : gate.getOuts()) {
+            if (out.getId() == 0) {
+                out.setId(nextEdgeId++);
+            }
+        }
+    }
+
+    /**
+     * @return a new id for a Visitor of the gates of this network
+     */
+    public int nextVisitSessionId() {
+        return nextVisitSessionId++;
+    }
+
     public void clearPortValues() {
         for (Portable input : inputs) {
             input.clearValue(true);
@@ -209,120 +581,395 @@ public class Network extends Layer {
         }
     }
 
-    private void prepareValues(List<Portable> ports) {
-        // prepare output-values
-        Iterator<Portable> itPort = ports.iterator();
-        while (itPort.hasNext()) {
-            prepareValues_doPort(itPort.next());
+    private void prepareValues(List<PortStream> streams) {
+        // prepare the streams for the next values
+        for (int i = 0; i < streams.size(); i++) {
+            streams.get(i).next(cycles);
+        }
+        if (!streams.isEmpty()) {
+            slotsValid = false; // the streams have switched to other children
+        }
+    }
+
+    /**
+     * Marks the flattened input- and output-slots to be rebuilt.
+     * Must be called when the children of a port-group are changed after adding it to the network.
+     */
+    public void invalidatePorts() {
+        streamsValid = false;
+        slotsValid = false;
+        sweepValid = false;
+        changed();
+    }
+
+    private void validateSlots() {
+        if (!streamsValid) {
+            inputStreams.clear();
+            outputStreams.clear();
+            for (Portable input : inputs) {
+                validateSlots_doStreams(input, inputStreams);
+            }
+            for (Portable output : outputs) {
+                validateSlots_doStreams(output, outputStreams);
+            }
+            streamsValid = true;
+            slotsValid = false;
+        }
+        if (!slotsValid) {
+            ArrayList<Port> slots = new ArrayList<>();
+            for (Portable input : inputs) {
+                validateSlots_doPorts(input, slots);
+            }
+            inputSlots = slots.toArray(new Port[slots.size()]);
+
+            slots.clear();
+            outputSize = 0;
+            for (Portable output : outputs) {
+                validateSlots_doPorts(output, slots);
+                int count = output.getChildCount(true);
+                outputSize += (count > 0) ? count : 1;
+            }
+            outputSlots = slots.toArray(new Port[slots.size()]);
+            slotsValid = true;
         }
     }
 
-    private void prepareValues_doPort(Portable port) {
+    private void validateSlots_doStreams(Portable port, List<PortStream> streams) {
         if (port instanceof PortStream) {
-            PortStream sampler = (PortStream) port;
-            sampler.next(cycles);
+            streams.add((PortStream) port);
         }
         if (port.getChildren() != null) {
             Iterator<Portable> itChild = port.getChildren().iterator();
             while (itChild.hasNext()) {
-                prepareValues_doPort(itChild.next());
+                validateSlots_doStreams(itChild.next(), streams);
             }
         }
     }
 
+    private void validateSlots_doPorts(Portable port, List<Port> slots) {
+        if (port instanceof Port) {
+            slots.add((Port) port);
+        }
+        if (port.getChildren() != null) {
+            Iterator<Portable> itChild = port.getChildren().iterator();
+            while (itChild.hasNext()) {
+                validateSlots_doPorts(itChild.next(), slots);
+            }
+        }
+    }
+
+    /**
+     * @return the input ports in the order of the input values (value index --> Port)
+     */
+    Port[] getInputSlots() {
+        validateSlots();
+        return inputSlots;
+    }
+
+    /**
+     * @return the output ports in the order of the output values (value index --> Port)
+     */
+    Port[] getOutputSlots() {
+        validateSlots();
+        return outputSlots;
+    }
+
+    public int getInputSize() {
+        return getInputSlots().length;
+    }
+
+    public int getOutputSize() {
+        validateSlots();
+        return outputSize;
+    }
+
+    boolean hasStreams() {
+        validateSlots();
+        return !inputStreams.isEmpty() || !outputStreams.isEmpty();
+    }
+
     protected void setInputValues(int[] values, BiConsumer<Queue<Gate>, Integer> setterFunc, Queue<Gate> bfp) {
-        LOG.debug(name + ": set input=[" + Utils.intArrayToString(values) + "] cycle=" + cycles);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(name + ": set input=[" + Utils.intArrayToString(values) + "] cycle=" + cycles);
+        }
         if (setterFunc != null) {
             setterFunc.accept(bfp, cycles);
         }
-        int valueIndex = 0;
-        Iterator<Portable> itInput = inputs.iterator();
-        while (valueIndex < values.length && itInput.hasNext()) {
-            valueIndex = setInputValues_doInput(itInput.next(), values, valueIndex, bfp);
+        final Port[] slots = getInputSlots();
+        final int count = Math.min(values.length, slots.length);
+        for (int i = 0; i < count; i++) {
+            slots[i].setValue(values[i], bfp, cycles);
         }
+        activeCount = -1;
     }
 
-    private int setInputValues_doInput(Portable input, int[] values, int valueIndex, Queue<Gate> bfp) {
-        if (input.setValue(values[valueIndex], bfp, cycles)) {
-            valueIndex++;
+    /**
+     * Sets only the given input-slots, all other input-ports will have no value (NO_VALUE).
+     * Only the ports which were set by the previous sparse query are cleared, so the effort
+     * depends on the number of active inputs and not on the number of input-slots.
+     */
+    protected void setInputValuesSparse(int[] activeSlots, int[] activeValues, BiConsumer<Queue<Gate>, Integer> setterFunc, Queue<Gate> bfp) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(name + ": set sparse input=[" + Utils.intArrayToString(activeSlots) + "]=[" + Utils.intArrayToString(activeValues) + "] cycle=" + cycles);
         }
-        if (input.getChildren() != null) {
-            Iterator<Portable> itChild = input.getChildren().iterator();
-            while (itChild.hasNext()) {
-                valueIndex = setInputValues_doInput(itChild.next(), values, valueIndex, bfp);
+        final Port[] slots = getInputSlots();
+        if (activeCount < 0) {
+            // the previous query was a dense one
+            for (Port slot : slots) {
+                slot.clearValue(false);
+            }
+        } else {
+            for (int i = 0; i < activeCount; i++) {
+                activePorts[i].clearValue(false);
             }
         }
-        return valueIndex;
-    }
-
-    public int[] getOutputValues() {
-        int resultSize = 0;
-        for (Portable output : outputs) {
-            int count = output.getChildCount(true);
-            resultSize += (count > 0) ? count : 1;
+        if (setterFunc != null) {
+            // after the clearing, which would remove the values set by the setter function
+            setterFunc.accept(bfp, cycles);
         }
-        int[] result = new int[resultSize];
 
-        int resultIndex = 0;
-        Iterator<Portable> itOutput = outputs.iterator();
-        while (resultIndex < result.length && itOutput.hasNext()) {
-            resultIndex = getOutputValues_doOutput(itOutput.next(), result, resultIndex);
+        final int count = Math.min(activeSlots.length, activeValues.length);
+        if (activePorts.length < count) {
+            activePorts = new Port[Math.max(count, 2 * activePorts.length)];
+        }
+        activeCount = 0;
+        for (int i = 0; i < count; i++) {
+            final Port port = slots[activeSlots[i]];
+            port.setValue(activeValues[i], bfp, cycles);
+            activePorts[activeCount++] = port;
         }
-        LOG.debug(name + ": get output=[" + Utils.intArrayToString(result) + "] cycle=" + cycles);
+    }
+
+    public int[] getOutputValues() {
+        int[] result = new int[getOutputSize()];
+        getOutputValues(result);
         return result;
     }
 
-    private int getOutputValues_doOutput(Portable output, int[] result, int resultIndex) {
-        result[resultIndex] = output.getValue(cycles);
-        if (output instanceof Port) {
-            if (result[resultIndex] == Portable.NO_VALUE) {
-                result[resultIndex] = output.estimateValue();
+    public void getOutputValues(int[] result) {
+        final Port[] slots = getOutputSlots();
+        final int count = Math.min(result.length, slots.length);
+        for (int i = 0; i < count; i++) {
+            int value = slots[i].getValue(cycles);
+            if (value == Portable.NO_VALUE) {
+                value = slots[i].estimateValue();
             }
-            resultIndex++;
+            result[i] = value;
         }
-        if (output.getChildren() != null) {
-            Iterator<Portable> itChild = output.getChildren().iterator();
-            while (itChild.hasNext()) {
-                resultIndex = getOutputValues_doOutput(itChild.next(), result, resultIndex);
-            }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(name + ": get output=[" + Utils.intArrayToString(result) + "] cycle=" + cycles);
         }
-        return resultIndex;
     }
 
     public int[] query(int[] inputPattern, BiConsumer<Queue<Gate>, Integer> setterFunc) {
+        propagate(inputPattern, setterFunc);
+        return getOutputValues();
+    }
+
+    /**
+     * Same as query(), the result is cached with the context (see setQueryCacheCapacity()).
+     * Only the returned values are valid: if they are taken from the cache, the network is not propagated,
+     * so the values of the ports (e.g. MapToOneHotPort.getItem()) and getOutputValues() are the ones of an
+     * earlier query.
+     * @param inputPattern the input-values
+     * @param context identifies the values set by the setterFunc (e.g. the key of a MapToOneHotPort),
+     * a query with a setterFunc but without a context is not cached
+     * @param setterFunc optional function to set additional input values
+     * @return the output-values
+     */
+    public int[] queryCached(int[] inputPattern, Object context, BiConsumer<Queue<Gate>, Integer> setterFunc) {
+        final boolean cached = (queryCache != null) && (setterFunc == null || context != null) && !hasStreams();
+        if (cached) {
+            final int[] result = queryCache.get(inputPattern, context, getVersion());
+            if (result != null) {
+                return result;
+            }
+        }
+        propagate(inputPattern, setterFunc);
+        final int[] result = getOutputValues();
+        if (cached) {
+            queryCache.put(inputPattern, context, result);
+        }
+        return result;
+    }
+
+    public void queryInto(int[] inputPattern, int[] outputValues) {
+        queryInto(inputPattern, outputValues, null);
+    }
+
+    /**
+     * Same as query(), but the output-values are written into the given (preallocated) array,
+     * so no result-array is allocated per query.
+     * @param inputPattern the input-values
+     * @param outputValues receives the output-values, should have getOutputSize() elements
+     * @param setterFunc optional function to set additional input values
+     */
+    public void queryInto(int[] inputPattern, int[] outputValues, BiConsumer<Queue<Gate>, Integer> setterFunc) {
+        propagate(inputPattern, setterFunc);
+        getOutputValues(outputValues);
+    }
+
+    /**
+     * Same as query(), but only the input-ports with a value are passed in as (slot, value) pairs,
+     * all other input-ports have no value (NO_VALUE, resp. 0.0 on fuzzy ports).
+     * @param activeSlots the indices of the input-values which are set
+     * @param activeValues the values for the input-slots in activeSlots
+     * @param setterFunc optional function to set additional input values
+     * @return the (dense) output-values
+     */
+    public int[] querySparse(int[] activeSlots, int[] activeValues, BiConsumer<Queue<Gate>, Integer> setterFunc) {
+        propagateSparse(activeSlots, activeValues, setterFunc);
+        return getOutputValues();
+    }
+
+    public void querySparseInto(int[] activeSlots, int[] activeValues, int[] outputValues, BiConsumer<Queue<Gate>, Integer> setterFunc) {
+        propagateSparse(activeSlots, activeValues, setterFunc);
+        getOutputValues(outputValues);
+    }
+
+    private void propagate(int[] inputPattern, BiConsumer<Queue<Gate>, Integer> setterFunc) {
         // propagate test-pattern
         cycles++;
-        LinkedList<Gate> bfp = new LinkedList<>();
-        prepareValues(inputs);
+        validateSlots();
+        bfp.clear();
+        prepareValues(inputStreams);
         setInputValues(inputPattern, setterFunc, bfp);
-        prepareValues(outputs);
-        propagateBFS(bfp);
-        return getOutputValues();
+        prepareValues(outputStreams);
+        propagateGates(bfp);
+    }
+
+    private void propagateSparse(int[] activeSlots, int[] activeValues, BiConsumer<Queue<Gate>, Integer> setterFunc) {
+        cycles++;
+        validateSlots();
+        bfp.clear();
+        prepareValues(inputStreams);
+        setInputValuesSparse(activeSlots, activeValues, setterFunc, bfp);
+        prepareValues(outputStreams);
+        propagateGates(bfp);
     }
 
     public boolean learn(int[] inputPattern, int[] outputPattern, BiConsumer<Queue<Gate>, Integer> setterFunc, boolean optimize) {
+        final long fingerprint = (isLearnFiltered(setterFunc)) ? LearnedPatternFilter.fingerprint(inputPattern, outputPattern) : 0L;
+        if (fingerprint != 0L && learnedFilter.contains(fingerprint, getVersion())) {
+            return false;   // verified before, there is nothing new to learn
+        }
+        if (learningListener != null) {
+            checkSetterFunc(setterFunc);
+            learningListener.onLearn(inputPattern, outputPattern, optimize);
+        }
+        learnStats.learned();
+        // fill network with current values
+        final long start = System.nanoTime();
+        propagate(inputPattern, setterFunc);
+        learnStats.add(LearnStats.Phase.QUERY, System.nanoTime() - start);
+        final boolean learned = learn_doInsertAndPublish(outputPattern, optimize,
+                () -> propagate(inputPattern, setterFunc),
+                () -> Utils.intArrayToString(inputPattern));
+        if (fingerprint != 0L && learnVerified) {
+            learnedFilter.add(fingerprint, getVersion());
+        }
+        learned();
+        return learned;
+    }
+
+    /**
+     * Same as learn(), but only the input-ports with a value are passed in, see querySparse().
+     */
+    public boolean learnSparse(int[] activeSlots, int[] activeValues, int[] outputPattern, BiConsumer<Queue<Gate>, Integer> setterFunc, boolean optimize) {
+        final long fingerprint = (isLearnFiltered(setterFunc)) ? LearnedPatternFilter.fingerprint(activeSlots, activeValues, outputPattern) : 0L;
+        if (fingerprint != 0L && learnedFilter.contains(fingerprint, getVersion())) {
+            return false;
+        }
+        if (learningListener != null) {
+            checkSetterFunc(setterFunc);
+            learningListener.onLearnSparse(activeSlots, activeValues, outputPattern, optimize);
+        }
+        learnStats.learned();
         // fill network with current values
-        query(inputPattern, setterFunc);
+        final long start = System.nanoTime();
+        propagateSparse(activeSlots, activeValues, setterFunc);
+        learnStats.add(LearnStats.Phase.QUERY, System.nanoTime() - start);
+        final boolean learned = learn_doInsertAndPublish(outputPattern, optimize,
+                () -> propagateSparse(activeSlots, activeValues, setterFunc),
+                () -> Utils.intArrayToString(activeSlots) + "=" + Utils.intArrayToString(activeValues));
+        if (fingerprint != 0L && learnVerified) {
+            learnedFilter.add(fingerprint, getVersion());
+        }
+        learned();
+        return learned;
+    }
+
+    private void checkSetterFunc(BiConsumer<Queue<Gate>, Integer> setterFunc) {
+        if (setterFunc != null && !learningListener.isSetterFuncSupported()) {
+            throw new IllegalStateException(name + ": the learning listener can not record the values set by a setter function");
+        }
+    }
+
+    private boolean isLearnFiltered(BiConsumer<Queue<Gate>, Integer> setterFunc) {
+        return (learnedFilter != null) && (setterFunc == null) && !hasStreams();
+    }
+
+    private boolean learn_doInsertAndPublish(int[] outputPattern, boolean optimize, Runnable requery, Supplier<String> inputText) {
+        final int gateId = nextGateId;
+        boolean learned = learn_doInsert(outputPattern, optimize, requery, inputText);
+        if (autoPublish && nextGateId != gateId) {
+            publish();
+        }
+        return learned;
+    }
+
+    private boolean learn_doInsert(int[] outputPattern, boolean optimize, Runnable requery, Supplier<String> inputText) {
+        learnVerified = false;
         // insert/learn (and automatically optimizeGate) result-pattern
         if (insert(outputPattern, optimize) > 0) {
             // verify if the learned input-pattern already results to the output-pattern
-            int[] outputValues = query(inputPattern, setterFunc);
+            final long start = System.nanoTime();
+            if (optimize || activationThreshold > 0.0f || hasStreams()) {
+                requery.run();  // the structure (or the stream-ports) may have changed anywhere
+            } else {
+                propagateCone(learnInsertedGates, true);
+            }
+            int[] outputValues = getOutputValues();
+            int failed = -1;
             for (int j = 0; j < outputValues.length; j++) {
-                final int sollValue = outputPattern[j];
-                final int istValue = outputValues[j];
-                if (sollValue != istValue) {
-                    Portable output = outputs.get(j);
-                    LOG.debug("ATTENTION - Verification of data failed! Input=" + Utils.intArrayToString(inputPattern) + " " + ((Layer) output).name + " should be " + sollValue + " but is " + istValue);
+                if (outputPattern[j] != outputValues[j]) {
+                    failed = j;
+                    break;
+                }
+            }
+            learnStats.add(LearnStats.Phase.VERIFY, System.nanoTime() - start);
+            if (failed >= 0) {
+                final int sollValue = outputPattern[failed];
+                final int istValue = outputValues[failed];
+                Port output = outputSlots[failed];
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("ATTENTION - Verification of data failed! Input=" + inputText.get() + " " + output.name() + " should be " + sollValue + " but is " + istValue);
                     LOG.debug(toString() + "\n" + dumpNetworkToString(true));
-                    return correct(output, sollValue, istValue);
                 }
+                final long correctStart = System.nanoTime();
+                final boolean corrected = correct(output, sollValue, istValue);
+                learnStats.add(LearnStats.Phase.CORRECT, System.nanoTime() - correctStart);
+                return corrected;
             }
+            learnVerified = true;
             return true;
         } else {
+            // nothing was inserted, but maybe only because an insert was not possible
+            learnVerified = (learnedFilter != null) && isAnswered(outputPattern);
             return false;   // there was nothing new to learn
         }
     }
 
+    private boolean isAnswered(int[] outputPattern) {
+        final int[] outputValues = getOutputValues();
+        for (int j = 0; j < outputValues.length && j < outputPattern.length; j++) {
+            if (outputValues[j] != outputPattern[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private boolean correct(Portable output, final int sollValue, final int istValue) {
         if (output instanceof Port) {
             Port outputPort = (Port)output;
@@ -332,13 +979,21 @@ public class Network extends Layer {
                 Gate sollGate = sollGates.get(0);
                 float sollResult = sollGate.getResult(cycles);
                 float istResult = istGates.get(0).getResult(cycles);
+                if (sollResult == 0.0f) {
+                    return false;   // there is no input to the sollGate which could be corrected
+                }
                 float correction = (istResult / sollResult) * (1.f + 10.f*precision);
                 Iterator it = sollGate.getIns().iterator();
                 while( it.hasNext() ) {
                     Edge edge = (Edge)it.next();
                     edge.setWeight( edge.getWeight()*correction );
                 }
+                markDirty(sollGate);
+                propagateCone(sollGates, false);
                 LOG.info("Corrected weight-values for inputs to " + output.name() + " by factor " + correction);
+                if (learningListener != null) {
+                    learningListener.onCorrection(outputPort, sollValue, correction);
+                }
                 return true;
             }
         }
@@ -373,6 +1028,168 @@ public class Network extends Layer {
         }
     }
 
+    private int propagateGates(Queue<Gate> bfp) {
+        skippedEdges = 0;
+        if (propagation == Propagation.SWEEP) {
+            propagatedGates = propagateSweep(bfp);
+        } else {
+            propagatedGates = propagateBFS(bfp);
+        }
+        skippedGates = 0;
+        if (!droppedTargets.isEmpty()) {
+            for (Gate gate : droppedTargets) {
+                if (!gate.isPropagated(cycles) && !gate.isActive(cycles)) {
+                    gate.activate(cycles);  // count it once (the propagation is finished)
+                    skippedGates++;
+                }
+            }
+            droppedTargets.clear();
+        }
+        if (skippedEdges > 0 && LOG.isDebugEnabled()) {
+            LOG.debug(name + ": activation threshold skipped " + skippedEdges + " edges and " + skippedGates + " gates.");
+        }
+        return propagatedGates;
+    }
+
+    /**
+     * @return true if the value of the edge is below the activation threshold, then it is dropped
+     */
+    private boolean dropBelowThreshold(Edge out, float value) {
+        if (activationThreshold <= 0.0f || Math.abs(value * out.getWeight() + out.getBias()) >= activationThreshold) {
+            return false;
+        }
+        out.setValue(0.0f, cycles);
+        droppedTargets.add((Gate) out.getTo());
+        skippedEdges++;
+        return true;
+    }
+
+    /**
+     * Evaluates the active gates in the order of their levels, starting at the gates in the queue.
+     * Gates which are not (yet) part of the sweep-order, e.g. the gates of newly created stream-ports,
+     * are propagated breadth-first afterwards and the order is rebuilt on the next query.
+     */
+    private int propagateSweep(Queue<Gate> bfp) {
+        if (!sweepValid || !isInSweepOrder(bfp)) {
+            buildSweepOrder();
+            if (!isInSweepOrder(bfp)) {
+                return propagateBFS(bfp);
+            }
+        }
+        int first = sweepSize;
+        for (Gate gate : bfp) {
+            gate.activate(cycles);
+            first = Math.min(first, gate.getSweepIndex());
+        }
+        bfp.clear();
+
+        int count = 0;
+        final Gate[] order = sweepOrder;
+        for (int i = first; i < sweepSize; i++) {
+            final Gate gate = order[i];
+            if (!gate.isActive(cycles) || !gate.propagate(cycles)) {
+                continue;
+            }
+            count++;
+            final List<Edge> outs = gate.getOuts();
+            for (int j = 0; j < outs.size(); j++) {
+                final Edge out = outs.get(j);
+                final float value = out.getValue(cycles);
+                if (0.0f != value && !dropBelowThreshold(out, value)) {
+                    final Gate to = (Gate) out.getTo();
+                    if (to.getSweepIndex() > i && isInSweepOrder(to)) {
+                        to.activate(cycles);
+                    } else {
+                        bfp.offer(to);
+                        sweepValid = false;
+                    }
+                }
+            }
+        }
+        if (!bfp.isEmpty()) {
+            count += propagateBFS(bfp);
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(name + ": sweep propagation finished: propagated " + count + " of " + sweepSize + " gates.");
+        }
+        return count;
+    }
+
+    private boolean isInSweepOrder(Gate gate) {
+        final int index = gate.getSweepIndex();
+        return index >= 0 && index < sweepSize && sweepOrder[index] == gate;
+    }
+
+    private boolean isInSweepOrder(Queue<Gate> gates) {
+        for (Gate gate : gates) {
+            if (!isInSweepOrder(gate)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sorts all gates of the ports and the hidden gates by their level into one contiguous array (counting-sort).
+     */
+    private void buildSweepOrder() {
+        ArrayList<Gate> all = new ArrayList<>();
+        for (Portable input : inputs) {
+            buildSweepOrder_doPort(input, all);
+        }
+        all.addAll(gates);
+        for (Portable output : outputs) {
+            buildSweepOrder_doPort(output, all);
+        }
+
+        int maxLevel = 0;
+        for (Gate gate : all) {
+            maxLevel = Math.max(maxLevel, gate.getLevel());
+        }
+        int[] start = new int[maxLevel + 2];
+        for (Gate gate : all) {
+            start[gate.getLevel() + 1]++;
+        }
+        for (int level = 1; level < start.length; level++) {
+            start[level] += start[level - 1];
+        }
+        for (int i = 0; i < sweepSize; i++) {
+            sweepOrder[i].setSweepIndex(-1);
+        }
+        if (sweepOrder.length < all.size()) {
+            sweepOrder = new Gate[all.size() + all.size() / 4];
+        }
+        for (Gate gate : all) {
+            final int index = start[gate.getLevel()]++;
+            sweepOrder[index] = gate;
+            gate.setSweepIndex(index);
+        }
+        Arrays.fill(sweepOrder, all.size(), Math.max(sweepSize, all.size()), null);
+        sweepSize = all.size();
+        sweepValid = true;
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(name + ": sweep order rebuilt: " + sweepSize + " gates on " + (maxLevel + 1) + " levels.");
+        }
+    }
+
+    private void buildSweepOrder_doPort(Portable port, List<Gate> all) {
+        if (port instanceof Port) {
+            all.addAll(((Port) port).getGates());
+        }
+        if (port instanceof PortStream) {
+            final PortStream stream = (PortStream) port;
+            for (int i = 0; i < stream.size(); i++) {
+                for (Portable child : stream.getChildrenByIndex(i)) {
+                    buildSweepOrder_doPort(child, all);
+                }
+            }
+        } else if (port.getChildren() != null) {
+            for (Portable child : port.getChildren()) {
+                buildSweepOrder_doPort(child, all);
+            }
+        }
+    }
+
     private int propagateBFS(Queue<Gate> bfp) {
         // Breadth-first propagation
         //LOG.debug(name + ": breadth-first propagation started...");
@@ -381,8 +1198,11 @@ public class Network extends Layer {
         while (gate != null) {
             if (gate.propagate(cycles)) {
                 count++;
-                for (Edge out : gate.getOuts()) {
-                    if (0.0f != out.getValue(cycles)) {
+                final List<Edge> outs = gate.getOuts();
+                for (int i = 0; i < outs.size(); i++) {
+                    final Edge out = outs.get(i);
+                    final float value = out.getValue(cycles);
+                    if (0.0f != value && !dropBelowThreshold(out, value)) {
                         bfp.offer((Gate) out.getTo());
                     }
                 }
@@ -390,20 +1210,94 @@ public class Network extends Layer {
 
             gate = bfp.poll();  // get next gate from the head
         }
-        LOG.debug(name + ": breadth-first propagation finished: propagated " + count + " gates.");
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(name + ": breadth-first propagation finished: propagated " + count + " gates.");
+        }
         return count;
     }
 
+    /**
+     * Re-evaluates the given gates and all gates behind them in the current cycle, in the order of their levels.
+     * The other gates keep their results, so this is much cheaper than a new query when only a few gates changed.
+     * @param changedGates the gates whose inputs were changed
+     * @param countRequeryHits if true, every gate propagated by the last query counts the hit a complete new query
+     * would have counted, because the hits balance between multiple results of the output ports and rate the gates
+     * for the Pruner
+     * @return the number of re-evaluated gates
+     */
+    private int propagateCone(List<Gate> changedGates, boolean countRequeryHits) {
+        Set<Gate> inCone = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayList<Gate> cone = new ArrayList<>(changedGates.size() * 2);
+        for (Gate gate : changedGates) {
+            if (inCone.add(gate)) {
+                cone.add(gate);
+            }
+        }
+        for (int i = 0; i < cone.size(); i++) {
+            for (Edge out : cone.get(i).getOuts()) {
+                final Gate to = (Gate) out.getTo();
+                if (inCone.add(to)) {
+                    cone.add(to);
+                }
+            }
+        }
+        cone.sort((a, b) -> Integer.compare(a.getLevel(), b.getLevel()));
+
+        for (Gate gate : cone) {
+            // new edges from gates outside of the cone did not get their values yet
+            for (Edge in : gate.getIns()) {
+                final Gate from = (Gate) in.getFrom();
+                if (!inCone.contains(from) && from.isPropagated(cycles)) {
+                    in.setValue(from.getResult(cycles), cycles);
+                }
+            }
+            final boolean wasPropagated = gate.isPropagated(cycles);
+            gate.repropagate(cycles);
+            if (countRequeryHits && wasPropagated && !gate.getIns().isEmpty()) {
+                gate.incHits();
+            }
+        }
+        if (countRequeryHits) {
+            for (Gate gate : gates) {
+                propagateCone_doRequeryHit(gate, inCone);
+            }
+            for (Port slot : getOutputSlots()) {
+                for (Gate gate : slot.getGates()) {
+                    propagateCone_doRequeryHit(gate, inCone);
+                }
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(name + ": cone propagation finished: propagated " + cone.size() + " gates.");
+        }
+        return cone.size();
+    }
+
+    private void propagateCone_doRequeryHit(Gate gate, Set<Gate> inCone) {
+        if (!inCone.contains(gate) && gate.isPropagated(cycles) && !gate.getIns().isEmpty()) {
+            gate.incHits();
+        }
+    }
+
     private int insert(int[] outputValues, boolean optimize) {
-        LOG.debug(toString() + " insert() started...");
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(toString() + " insert() started...");
+        }
+        final long start = System.nanoTime();
+        final long optimizeNanos = learnStats.getNanos(LearnStats.Phase.OPTIMIZE);
+        learnInsertedGates.clear();
         int valueIndex = 0;
         Iterator<Portable> itOutput = outputs.iterator();
         Ref<Integer> insertedGates = new Ref<>(0);
         while (valueIndex < outputValues.length && itOutput.hasNext()) {
             valueIndex = insert_doOutput(itOutput.next(), outputValues, valueIndex, optimize, insertedGates);
         }
-        LOG.debug(toString() + "\n" + dumpNetworkToString(false));
-        LOG.debug(toString() + " insert() finished. added gates=" + insertedGates.value);
+        // without the optimization of the output gates, which is a phase of its own
+        learnStats.add(LearnStats.Phase.INSERT, System.nanoTime() - start - (learnStats.getNanos(LearnStats.Phase.OPTIMIZE) - optimizeNanos));
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(toString() + "\n" + dumpNetworkToString(false));
+            LOG.debug(toString() + " insert() finished. added gates=" + insertedGates.value);
+        }
         return insertedGates.value;
     }
 
@@ -442,7 +1336,14 @@ public class Network extends Layer {
     }
 
     private Gate insertAndGate(Gate outputOrGate) {
-        Gate andGate = Gate.createAndGate(this, "AndGate" + (nextGateId++), cycles);
+        if (memoryEstimate >= memoryHardBudget) {
+            blockedInserts++;
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(name + ": hard memory budget of " + memoryHardBudget + " bytes exceeded, no gate inserted for " + outputOrGate.name());
+            }
+            return null;
+        }
+        Gate andGate = Gate.createAndGate(this, nextGateId++, cycles);
 
         Ref<Float> sumWeight = new Ref<>(0.0f);
         for (Portable input : inputs) {
@@ -453,9 +1354,17 @@ public class Network extends Layer {
             Edge andToOrEdge = outputOrGate.createIn(andGate);
             andToOrEdge.setWeight(sumWeight.value);
             andGate.addOut(andToOrEdge);
+            markDirty(outputOrGate);
 
             gates.add(andGate);
+            learnInsertedGates.add(andGate);
+            learnStats.inserted(1, andGate.getIns().size() + 1);
+            sweepValid = false;
             LOG.debug(andGate);
+            if (hasMemoryBudget()) {
+                memoryEstimate += MemoryFootprint.estimateInsert(andGate);
+                checkMemoryBudget(null);
+            }
             return andGate;
         } else {
             return null;
@@ -467,11 +1376,17 @@ public class Network extends Layer {
         for (Portable output : outputs) {
             count += optimizaAll_doOutput(output);
         }
+        if (learningListener != null) {
+            learningListener.onOptimizeAll();
+        }
+        if (autoPublish) {
+            publish();
+        }
         return count;
     }
 
     private int optimizaAll_doOutput(Portable output) {
-        int count = optimizeAll(output);
+        int count = optimizeAll_doPort(output);
         if (output.getChildren() != null) {
             Iterator<Portable> itChild = output.getChildren().iterator();
             while (itChild.hasNext()) {
@@ -481,7 +1396,28 @@ public class Network extends Layer {
         return count;
     }
 
+    /**
+     * Optimizes the gates of the output port and of all its child ports (e.g. of a PortGroup).
+     * @return the number of optimizations done
+     */
     public int optimizeAll(Portable output) {
+        ArrayList<Gate> outputGates = new ArrayList<>();
+        optimizeAll_doCollect(output, outputGates);
+        return optimizeGates(outputGates);
+    }
+
+    private void optimizeAll_doCollect(Portable output, List<Gate> outputGates) {
+        if (output instanceof Port) {
+            outputGates.addAll(((Port) output).getGates());
+        }
+        if (output.getChildren() != null) {
+            for (Portable child : output.getChildren()) {
+                optimizeAll_doCollect(child, outputGates);
+            }
+        }
+    }
+
+    private int optimizeAll_doPort(Portable output) {
         int count = 0;
         if (output instanceof Port) {
             List<Gate> gates = ((Port) output).getGates();
@@ -492,22 +1428,121 @@ public class Network extends Layer {
         return count;
     }
 
+    /**
+     * Optimizes the given output gates in this order, e.g. to replay an optimizeIncremental().
+     * @return the number of optimizations done
+     */
+    public int optimizeGates(List<Gate> outputGates) {
+        int count = 0;
+        for (Gate gate : outputGates) {
+            count += optimizeGate(gate);
+        }
+        if (learningListener != null) {
+            learningListener.onOptimizeGates(outputGates);
+        }
+        if (autoPublish && count > 0) {
+            publish();
+        }
+        return count;
+    }
+
+    /**
+     * Optimizes the output gates which were changed since their last optimization, the most
+     * recently changed first, until the time budget is used up.
+     * Can be called after each learn-batch instead of optimizeAll().
+     * @param budgetNanos the maximum time to spend, at least one gate is optimized if there is any
+     * @return the number of optimizations done, the same as optimizeAll() returns
+     */
+    public int optimizeIncremental(long budgetNanos) {
+        if (dirtyGates.isEmpty()) {
+            return 0;
+        }
+        final long startNanos = System.nanoTime();
+        ArrayList<Gate> order = new ArrayList<>(dirtyGates.keySet());
+        order.sort((a, b) -> Long.compare(dirtyGates.get(b), dirtyGates.get(a)));
+
+        int count = 0;
+        int optimized = 0;
+        for (Gate gate : order) {
+            if (optimized > 0 && (System.nanoTime() - startNanos) >= budgetNanos) {
+                break;
+            }
+            count += optimizeGate(gate);
+            optimized++;
+        }
+        if (learningListener != null) {
+            learningListener.onOptimizeGates(order.subList(0, optimized));
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(toString() + " optimized " + optimized + " of " + order.size() + " dirty gates in " + (System.nanoTime() - startNanos) / 1000 + " usec.");
+        }
+        if (autoPublish && count > 0) {
+            publish();
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of output gates which were changed since their last optimization
+     */
+    public int getDirtyGateCount() {
+        return dirtyGates.size();
+    }
+
+    void markDirty(Gate gate) {
+        dirtyGates.put(gate, ++dirtyStamp);
+    }
+
+    /**
+     * @return the dirty output gates, the least recently changed first
+     */
+    List<Gate> getDirtyGates() {
+        ArrayList<Gate> order = new ArrayList<>(dirtyGates.keySet());
+        order.sort((a, b) -> Long.compare(dirtyGates.get(a), dirtyGates.get(b)));
+        return order;
+    }
+
+    int getNextGateId() {
+        return nextGateId;
+    }
+
+    /**
+     * Takes over the hidden gates and counters restored by a NetworkCheckpoint, the edges are already linked.
+     */
+    void restore(List<Gate> hiddenGates, int cycles, int nextGateId) {
+        gates.addAll(hiddenGates);
+        this.cycles = cycles;
+        this.nextGateId = nextGateId;
+        invalidatePorts();
+        if (hasMemoryBudget()) {
+            measureMemory();
+        }
+    }
+
     protected int optimizeGate(Gate dstGate) {
-        LOG.debug(toString() + " optimizing " + dstGate.name());
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(toString() + " optimizing " + dstGate.name());
+        }
+        final long start = System.nanoTime();
+        dirtyGates.remove(dstGate);
         int count = 0;
         if (dstGate.getOperation() == Gate.Operation.OR) {
             count += optimizeRemoveInputPermutations(dstGate);
             count += optimizeRemoveDuplicateInputGates(dstGate);
         }
+        learnStats.add(LearnStats.Phase.OPTIMIZE, System.nanoTime() - start);
         return count;
     }
 
     private int optimizeRemoveInputPermutations(Gate orGate) {
-        Visitor result = new Visitor();
+        Visitor result = new Visitor(nextVisitSessionId());
         result.visitBackwardDSF(orGate, 5);
-        LOG.debug(toString() + " checking permutations on " + orGate.name());
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(toString() + " checking permutations on " + orGate.name());
+        }
 
-        HashSet<Layer> permutatedInputs = new HashSet<>();
+        // in the order they are found, so the optimization is repeatable (e.g. on replay of a LearningJournal)
+        LinkedHashSet<Layer> permutatedInputs = new LinkedHashSet<>();
         for (LinkedList<Visitable> path : result.paths) {
             Visitable input = path.getLast();
             if (input instanceof Gate) {
@@ -549,6 +1584,8 @@ public class Network extends Layer {
                 }
             }
         }
+        learnStats.permutationFound();
+        learnStats.removed(removeCount);
         return removeCount;
     }
 
@@ -556,7 +1593,9 @@ public class Network extends Layer {
         if (orGate == null || orGate.getIns().size() <= 1) {
             return 0;   // no duplicates possible
         }
-        LOG.debug(toString() + " checking duplicate-input-paths on " + orGate.name());
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(toString() + " checking duplicate-input-paths on " + orGate.name());
+        }
 
         int count = 0;
         Iterator it = orGate.getIns().iterator();
@@ -581,8 +1620,10 @@ public class Network extends Layer {
         LOG.debug(toString() + " duplicate-input-paths found!");
 
         if (!removeNodes.isEmpty()) {
+            learnStats.duplicateFound();
             for (Node removeNode : removeNodes) {
                 LOG.info(toString() + " removed duplicate node: " + removeNode.toString());
+                learnStats.removed(removeNode.getIns().size() + removeNode.getOuts().size());
                 removeNode.remove();
             }
             edgeRef.setWeight(edgeRef.getWeight() + removedWeights);
@@ -0,0 +1,441 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import rapid.net.port.MapToOneHotPort;
+import rapid.net.port.Port;
+import rapid.net.port.Portable;
+
+/**
+ * Writes the learned structure of a network (the hidden gates, all edges with their weights and biases,
+ * the hits of the gates, the items of the MapToOneHotPorts and the counters) into a binary image,
+ * and reads it back into a network with the same ports, which has not learned anything yet.
+ *
+ * The ports themselves are not written, they are created by the application (e.g. by the PortFactory)
+ * as before; the image checks that they match. The image ends with a CRC32 of its content.
+ * PortStreams are not supported.
+ *
+ * @author Bernhard
+ */
+public final class NetworkCheckpoint {
+
+    private static final Logger LOG = LogManager.getLogger(NetworkCheckpoint.class);
+
+    private static final int MAGIC = 0x52434b50;    // "RCKP"
+    private static final int VERSION = 2;
+
+    private static final byte KEY_STRING = 0;
+    private static final byte KEY_INTEGER = 1;
+    private static final byte KEY_LONG = 2;
+    private static final byte KEY_CHARACTER = 3;
+
+    private NetworkCheckpoint() {
+    }
+
+    /**
+     * Writes the image of the network, the stream is not closed.
+     */
+    public static void write(Network network, OutputStream stream) throws IOException {
+        if (network.hasStreams()) {
+            throw new UnsupportedOperationException(network.name + ": checkpoints of networks with PortStreams are not supported");
+        }
+        final CheckedOutputStream checked = new CheckedOutputStream(stream, new CRC32());
+        final DataOutputStream out = new DataOutputStream(checked);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(network.name);
+        out.writeInt(network.getCycles());
+        out.writeInt(network.getNextGateId());
+
+        ArrayList<Gate> all = new ArrayList<>();
+        writePorts(out, network.getInputSlots(), all);
+        out.writeInt(network.getGates().size());
+        for (Gate gate : network.getGates()) {
+            out.writeInt(gate.getIndex());
+            out.writeByte(gate.getOperation().ordinal());
+            out.writeInt(gate.getCreationCycle());
+            out.writeInt(gate.getHits());
+            all.add(gate);
+        }
+        writePorts(out, network.getOutputSlots(), all);
+
+        IdentityHashMap<Gate, Integer> gateIds = new IdentityHashMap<>();
+        for (Gate gate : all) {
+            gateIds.put(gate, gateIds.size());
+        }
+        IdentityHashMap<Edge, Integer> edgeIds = new IdentityHashMap<>();
+        int edgeCount = 0;
+        for (Gate gate : all) {
+            edgeCount += gate.getIns().size();
+        }
+        out.writeInt(edgeCount);
+        for (Gate gate : all) {
+            out.writeInt(gate.getIns().size());
+            for (Edge in : gate.getIns()) {
+                final Integer from = gateIds.get((Gate) in.getFrom());
+                if (from == null) {
+                    throw new IllegalStateException(network.name + ": " + in + " comes from a gate outside of the network");
+                }
+                out.writeInt(from);
+                out.writeFloat(in.getWeight());
+                out.writeFloat(in.getBias());
+                edgeIds.put(in, edgeIds.size());
+            }
+        }
+        for (Gate gate : all) {
+            out.writeInt(gate.getOuts().size());
+            for (Edge edge : gate.getOuts()) {
+                out.writeInt(edgeIds.get(edge));
+            }
+        }
+
+        List<Gate> dirtyGates = network.getDirtyGates();
+        out.writeInt(dirtyGates.size());
+        for (Gate gate : dirtyGates) {
+            out.writeInt(gateIds.get(gate));
+        }
+        out.flush();
+        out.writeLong(checked.getChecksum().getValue());
+        out.flush();
+        LOG.debug(network.name + ": checkpoint written, gates=" + all.size() + " edges=" + edgeCount);
+    }
+
+    private static void writePorts(DataOutputStream out, Port[] slots, List<Gate> all) throws IOException {
+        out.writeInt(slots.length);
+        for (Port slot : slots) {
+            out.writeUTF(slot.getClass().getSimpleName());
+            final List<Gate> gates = slot.getGates();
+            out.writeInt(gates.size());
+            if (slot instanceof MapToOneHotPort) {
+                final MapToOneHotPort<?> map = (MapToOneHotPort<?>) slot;
+                for (int i = 0; i < gates.size(); i++) {
+                    writeKey(out, map.getKey(i));
+                }
+            }
+            for (Gate gate : gates) {
+                out.writeInt(gate.getHits());
+                all.add(gate);
+            }
+        }
+    }
+
+    /**
+     * Reads an image into the network, which must have the same ports as the written one and no hidden gates.
+     * The whole image is read and verified before the network is changed, so a damaged image or a network
+     * which does not match leaves the network as it was. The stream is not closed.
+     * @throws IOException if the image is damaged
+     * @throws IllegalStateException if the network does not match the image
+     */
+    public static void read(Network network, InputStream stream) throws IOException {
+        if (!network.getGates().isEmpty()) {
+            throw new IllegalStateException(network.name + ": a checkpoint can only be read into a network without hidden gates");
+        }
+        final Image image = Image.read(network.name, stream);
+        image.inputs.match(network, network.getInputSlots());
+        image.outputs.match(network, network.getOutputSlots());
+
+        ArrayList<Gate> all = new ArrayList<>(image.gateCount);
+        image.inputs.apply(network.getInputSlots(), all, image.cycles);
+        ArrayList<Gate> hidden = new ArrayList<>(image.hiddenIndex.length);
+        for (int i = 0; i < image.hiddenIndex.length; i++) {
+            Gate gate = new Gate(network, image.hiddenIndex[i], Gate.Operation.values()[image.hiddenOperation[i]], image.hiddenCreationCycle[i]);
+            gate.setHits(image.hiddenHits[i]);
+            hidden.add(gate);
+            all.add(gate);
+        }
+        image.outputs.apply(network.getOutputSlots(), all, image.cycles);
+
+        final int edgeCount = image.edgeFrom.length;
+        Edge[] edges = new Edge[edgeCount];
+        Gate[] edgeTargets = new Gate[edgeCount];
+        int edge = 0;
+        for (int g = 0; g < all.size(); g++) {
+            final Gate gate = all.get(g);
+            for (int i = 0; i < image.inCounts[g]; i++) {
+                final Edge created = new Edge(all.get(image.edgeFrom[edge]), gate);
+                created.setWeight(image.edgeWeight[edge]);
+                created.setBias(image.edgeBias[edge]);
+                edges[edge] = created;
+                edgeTargets[edge++] = gate;
+            }
+        }
+        // the outs first, so the levels are raised along them when the ins are added
+        for (int g = 0; g < all.size(); g++) {
+            for (int id : image.outs[g]) {
+                all.get(g).addOut(edges[id]);
+            }
+        }
+        for (int i = 0; i < edgeCount; i++) {
+            edgeTargets[i].addIn(edges[i]);
+        }
+        for (int id : image.dirty) {
+            network.markDirty(all.get(id));
+        }
+        network.restore(hidden, image.cycles, image.nextGateId);
+        LOG.info(network.name + ": checkpoint of " + image.name + " read, gates=" + all.size() + " edges=" + edgeCount + " cycles=" + image.cycles);
+    }
+
+    /**
+     * The content of an image, which has been read completely and whose checksum has been verified.
+     */
+    private static final class Image {
+
+        String name;
+        int cycles;
+        int nextGateId;
+        int gateCount;
+        PortsImage inputs;
+        PortsImage outputs;
+        int[] hiddenIndex;
+        int[] hiddenOperation;
+        int[] hiddenCreationCycle;
+        int[] hiddenHits;
+        int[] inCounts;
+        int[] edgeFrom;
+        float[] edgeWeight;
+        float[] edgeBias;
+        int[][] outs;
+        int[] dirty;
+
+        static Image read(String networkName, InputStream stream) throws IOException {
+            final CheckedInputStream checked = new CheckedInputStream(stream, new CRC32());
+            final DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(networkName + ": not a checkpoint");
+            }
+            Image image = new Image();
+            image.name = in.readUTF();
+            image.cycles = in.readInt();
+            image.nextGateId = in.readInt();
+
+            image.inputs = PortsImage.read(in);
+            final int hiddenCount = readCount(in);
+            image.hiddenIndex = new int[hiddenCount];
+            image.hiddenOperation = new int[hiddenCount];
+            image.hiddenCreationCycle = new int[hiddenCount];
+            image.hiddenHits = new int[hiddenCount];
+            for (int i = 0; i < hiddenCount; i++) {
+                image.hiddenIndex[i] = in.readInt();
+                image.hiddenOperation[i] = in.readUnsignedByte();
+                if (image.hiddenOperation[i] >= Gate.Operation.values().length) {
+                    throw new IOException(networkName + ": unknown operation " + image.hiddenOperation[i]);
+                }
+                image.hiddenCreationCycle[i] = in.readInt();
+                image.hiddenHits[i] = in.readInt();
+            }
+            image.outputs = PortsImage.read(in);
+            image.gateCount = image.inputs.gateCount() + hiddenCount + image.outputs.gateCount();
+
+            final int edgeCount = readCount(in);
+            image.inCounts = new int[image.gateCount];
+            image.edgeFrom = new int[edgeCount];
+            image.edgeWeight = new float[edgeCount];
+            image.edgeBias = new float[edgeCount];
+            int edge = 0;
+            for (int g = 0; g < image.gateCount; g++) {
+                image.inCounts[g] = readCount(in);
+                for (int i = 0; i < image.inCounts[g]; i++) {
+                    if (edge >= edgeCount) {
+                        throw new IOException(networkName + ": too many edges");
+                    }
+                    image.edgeFrom[edge] = readId(in, image.gateCount, "gate");
+                    image.edgeWeight[edge] = in.readFloat();
+                    image.edgeBias[edge++] = in.readFloat();
+                }
+            }
+            if (edge != edgeCount) {
+                throw new IOException(networkName + ": " + edge + " edges instead of " + edgeCount);
+            }
+            image.outs = new int[image.gateCount][];
+            for (int g = 0; g < image.gateCount; g++) {
+                image.outs[g] = new int[readCount(in)];
+                for (int i = 0; i < image.outs[g].length; i++) {
+                    image.outs[g][i] = readId(in, edgeCount, "edge");
+                }
+            }
+            image.dirty = new int[readCount(in)];
+            for (int i = 0; i < image.dirty.length; i++) {
+                image.dirty[i] = readId(in, image.gateCount, "gate");
+            }
+            final long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected) {
+                throw new IOException(networkName + ": checkpoint has a wrong checksum");
+            }
+            return image;
+        }
+    }
+
+    /**
+     * The input- or output-slots of an image: their types, the items of the MapToOneHotPorts and the hits of their gates.
+     */
+    private static final class PortsImage {
+
+        String[] types;
+        Object[][] keys;    // null for the ports which are no MapToOneHotPorts
+        int[][] hits;
+
+        static PortsImage read(DataInputStream in) throws IOException {
+            final int count = readCount(in);
+            PortsImage ports = new PortsImage();
+            ports.types = new String[count];
+            ports.keys = new Object[count][];
+            ports.hits = new int[count][];
+            for (int p = 0; p < count; p++) {
+                ports.types[p] = in.readUTF();
+                final int gateCount = readCount(in);
+                if (ports.types[p].equals(MapToOneHotPort.class.getSimpleName())) {
+                    ports.keys[p] = new Object[gateCount];
+                    for (int i = 0; i < gateCount; i++) {
+                        ports.keys[p][i] = readKey(in);
+                    }
+                }
+                ports.hits[p] = new int[gateCount];
+                for (int i = 0; i < gateCount; i++) {
+                    ports.hits[p][i] = in.readInt();
+                }
+            }
+            return ports;
+        }
+
+        int gateCount() {
+            int count = 0;
+            for (int[] gateHits : hits) {
+                count += gateHits.length;
+            }
+            return count;
+        }
+
+        /**
+         * @throws IllegalStateException if the slots do not match the image
+         */
+        void match(Network network, Port[] slots) {
+            if (types.length != slots.length) {
+                throw new IllegalStateException(network.name + ": checkpoint has " + types.length + " ports instead of " + slots.length);
+            }
+            for (int p = 0; p < slots.length; p++) {
+                final Port slot = slots[p];
+                if (!types[p].equals(slot.getClass().getSimpleName())) {
+                    throw new IllegalStateException(network.name + ": " + slot.name() + " is a " + slot.getClass().getSimpleName() + " but was a " + types[p]);
+                }
+                final List<Gate> gates = slot.getGates();
+                if (keys[p] != null) {
+                    // the existing items must be the first ones of the image, the others are created
+                    @SuppressWarnings("unchecked")
+                    final MapToOneHotPort<Object> map = (MapToOneHotPort<Object>) slot;
+                    for (int i = 0; i < keys[p].length; i++) {
+                        final int index = map.getIndex(keys[p][i]);
+                        if ((i < gates.size()) ? (index != i) : (index != Portable.NO_VALUE || indexOf(keys[p], keys[p][i]) != i)) {
+                            throw new IllegalStateException(network.name + ": item " + keys[p][i] + " of " + slot.name() + " has the index " + index + " instead of " + i);
+                        }
+                    }
+                }
+                if ((keys[p] != null) ? (gates.size() > hits[p].length) : (gates.size() != hits[p].length)) {
+                    throw new IllegalStateException(network.name + ": " + slot.name() + " has " + gates.size() + " gates instead of " + hits[p].length);
+                }
+                for (Gate gate : gates) {
+                    if (!gate.getIns().isEmpty() || !gate.getOuts().isEmpty()) {
+                        throw new IllegalStateException(network.name + ": " + slot.name() + " has already learned");
+                    }
+                }
+            }
+        }
+
+        void apply(Port[] slots, List<Gate> all, int cycle) {
+            for (int p = 0; p < slots.length; p++) {
+                if (keys[p] != null) {
+                    @SuppressWarnings("unchecked")
+                    final MapToOneHotPort<Object> map = (MapToOneHotPort<Object>) slots[p];
+                    for (int i = map.getGates().size(); i < keys[p].length; i++) {
+                        map.createItem(keys[p][i], cycle);
+                    }
+                }
+                final List<Gate> gates = slots[p].getGates();
+                for (int i = 0; i < gates.size(); i++) {
+                    gates.get(i).setHits(hits[p][i]);
+                    all.add(gates.get(i));
+                }
+            }
+        }
+
+        private static int indexOf(Object[] keys, Object key) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Negative count " + count);
+        }
+        return count;
+    }
+
+    private static int readId(DataInputStream in, int count, String type) throws IOException {
+        final int id = in.readInt();
+        if (id < 0 || id >= count) {
+            throw new IOException("Unknown " + type + " " + id);
+        }
+        return id;
+    }
+
+    /**
+     * Writes an item of a MapToOneHotPort. Strings, Integers, Longs and Characters keep their type,
+     * other keys are written as their string.
+     */
+    public static void writeKey(DataOutput out, Object key) throws IOException {
+        if (key instanceof Integer) {
+            out.writeByte(KEY_INTEGER);
+            out.writeInt((Integer) key);
+        } else if (key instanceof Long) {
+            out.writeByte(KEY_LONG);
+            out.writeLong((Long) key);
+        } else if (key instanceof Character) {
+            out.writeByte(KEY_CHARACTER);
+            out.writeChar((Character) key);
+        } else {
+            if (!(key instanceof String)) {
+                LOG.warn("Item " + key + " of type " + ((key != null) ? key.getClass().getName() : "null") + " is written as String");
+            }
+            out.writeByte(KEY_STRING);
+            out.writeUTF(String.valueOf(key));
+        }
+    }
+
+    /**
+     * @see #writeKey(java.io.DataOutput, java.lang.Object)
+     */
+    public static Object readKey(DataInput in) throws IOException {
+        final byte type = in.readByte();
+        switch (type) {
+            case KEY_STRING:
+                return in.readUTF();
+            case KEY_INTEGER:
+                return in.readInt();
+            case KEY_LONG:
+                return in.readLong();
+            case KEY_CHARACTER:
+                return in.readChar();
+            default:
+                throw new IOException("Unknown item type " + type);
+        }
+    }
+}
@@ -0,0 +1,367 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs the learn- and query-jobs of many independent networks on a fixed pool of threads.
+ *
+ * A network is not thread-safe, so the jobs of one network are queued and run one after the other
+ * (in the order they were submitted), while the jobs of different networks run in parallel.
+ * A thread runs at most getBatchSize() jobs of a network before it continues with the next network,
+ * so a network with a long queue does not starve the others.
+ *
+ * For each network the pool keeps its Stats (the number of jobs, the time spent in them and the throughput).
+ *
+ * @author Bernhard
+ */
+public class NetworkPool {
+
+    private static final Logger LOG = LogManager.getLogger(NetworkPool.class);
+
+    /**
+     * The metrics of one network in the pool.
+     */
+    public static final class Stats {
+
+        private final String name;
+        private final long registered = System.nanoTime();
+        private long learns = 0;
+        private long queries = 0;
+        private long jobs = 0;
+        private long failures = 0;
+        private long busyNanos = 0;
+        private long lastFinished = 0;
+
+        private Stats(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public synchronized long getLearns() {
+            return learns;
+        }
+
+        public synchronized long getQueries() {
+            return queries;
+        }
+
+        /**
+         * @return the number of finished jobs, including the learns, the queries and the failed ones
+         */
+        public synchronized long getJobs() {
+            return jobs;
+        }
+
+        public synchronized long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return the time the threads of the pool spent in the jobs of the network
+         */
+        public synchronized long getBusyNanos() {
+            return busyNanos;
+        }
+
+        /**
+         * @return the finished jobs per second, from the registration of the network until its last finished job
+         */
+        public synchronized double getJobsPerSecond() {
+            return (jobs > 0) ? (jobs * 1e9 / Math.max(1, lastFinished - registered)) : 0.0;
+        }
+
+        /**
+         * @return the finished jobs per second of busy time, i.e. how fast a single thread runs the jobs of the network
+         */
+        public synchronized double getJobsPerBusySecond() {
+            return (jobs > 0) ? (jobs * 1e9 / Math.max(1, busyNanos)) : 0.0;
+        }
+
+        private synchronized void finished(Kind kind, long nanos, boolean failed) {
+            jobs++;
+            if (kind == Kind.LEARN) {
+                learns++;
+            } else if (kind == Kind.QUERY) {
+                queries++;
+            }
+            if (failed) {
+                failures++;
+            }
+            busyNanos += nanos;
+            lastFinished = System.nanoTime();
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "Stats{" + name + ": jobs=" + jobs + ", learns=" + learns + ", queries=" + queries + ", failures=" + failures
+                    + ", busy=" + busyNanos / 1000000 + "ms, throughput=" + String.format("%.1f", getJobsPerSecond()) + "/s}";
+        }
+    }
+
+    private enum Kind {
+        LEARN, QUERY, OTHER
+    }
+
+    /**
+     * The queued jobs of one network, scheduled on the pool while it has jobs.
+     * There is at most one lane per network, so its jobs never run on two threads at once.
+     */
+    private final class Lane implements Runnable {
+
+        final Network network;
+        final ArrayDeque<Runnable> jobs = new ArrayDeque<>();
+        Stats stats;                // guarded by the pool
+        boolean retired = false;    // guarded by the pool, unregistered but still having jobs
+        boolean scheduled = false;  // guarded by jobs
+
+        Lane(Network network) {
+            this.network = network;
+            this.stats = new Stats(network.name);
+        }
+
+        /**
+         * @throws IllegalStateException if the pool is shut down
+         */
+        void add(Runnable job) {
+            synchronized (jobs) {
+                jobs.add(job);
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException ex) {
+                synchronized (jobs) {
+                    jobs.removeLastOccurrence(job);
+                    scheduled = false;
+                }
+                throw new IllegalStateException("The pool is shut down", ex);
+            }
+        }
+
+        boolean isIdle() {
+            synchronized (jobs) {
+                return !scheduled && jobs.isEmpty();
+            }
+        }
+
+        @Override
+        public void run() {
+            int count = 0;
+            while (true) {
+                final Runnable job;
+                synchronized (jobs) {
+                    job = jobs.poll();
+                    if (job == null) {
+                        scheduled = false;
+                    }
+                }
+                if (job == null) {
+                    removeIfRetired(this);
+                    return;
+                }
+                job.run();
+                if (++count >= batchSize && !executor.isShutdown()) {
+                    // give the other networks a chance
+                    try {
+                        executor.execute(this);
+                        return;
+                    } catch (RejectedExecutionException ex) {
+                        // shut down meanwhile, the remaining jobs are run by this thread
+                    }
+                }
+            }
+        }
+    }
+
+    private final ExecutorService executor;
+    private final int threads;
+    private final IdentityHashMap<Network, Lane> lanes = new IdentityHashMap<>();
+    private volatile int batchSize = 16;
+
+    /**
+     * Creates a pool with one daemon thread per processor.
+     */
+    public NetworkPool() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public NetworkPool(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The number of threads must be positive");
+        }
+        this.threads = threads;
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "NetworkPool");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize the number of jobs of a network a thread runs before it continues with the next network
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("The batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Adds the network to the pool, the network must not be used outside of the pool until it is removed.
+     * Submitting a job registers the network too.
+     */
+    public synchronized Stats register(Network network) {
+        return lane(network).stats;
+    }
+
+    /**
+     * Returns the lane of the network, a retired lane is registered again with new stats.
+     */
+    private Lane lane(Network network) {
+        final Lane lane = lanes.computeIfAbsent(network, Lane::new);
+        if (lane.retired) {
+            lane.retired = false;
+            lane.stats = new Stats(network.name);
+        }
+        return lane;
+    }
+
+    /**
+     * Removes the network and its stats from the pool, its queued jobs are still run.
+     * The network may be used outside of the pool when they are finished.
+     */
+    public synchronized Stats unregister(Network network) {
+        final Lane lane = lanes.get(network);
+        if (lane == null || lane.retired) {
+            return null;
+        }
+        if (lane.isIdle()) {
+            lanes.remove(network);
+        } else {
+            // the lane is kept until its jobs are finished, so a job submitted meanwhile does not run beside them
+            lane.retired = true;
+        }
+        return lane.stats;
+    }
+
+    private synchronized void removeIfRetired(Lane lane) {
+        if (lane.retired && lane.isIdle()) {
+            lanes.remove(lane.network);
+        }
+    }
+
+    /**
+     * @return the stats of the network, null if it is not registered
+     */
+    public synchronized Stats getStats(Network network) {
+        final Lane lane = lanes.get(network);
+        return (lane != null && !lane.retired) ? lane.stats : null;
+    }
+
+    /**
+     * @return the stats of all registered networks, in the order they were registered
+     */
+    public synchronized List<Stats> getAllStats() {
+        ArrayList<Stats> all = new ArrayList<>();
+        for (Lane lane : lanes.values()) {
+            if (!lane.retired) {
+                all.add(lane.stats);
+            }
+        }
+        all.sort((a, b) -> Long.compare(a.registered, b.registered));
+        return all;
+    }
+
+    /**
+     * @see Network#learn(int[], int[], java.util.function.BiConsumer, boolean)
+     */
+    public CompletableFuture<Boolean> submitLearn(Network network, int[] inputPattern, int[] outputPattern, boolean optimize) {
+        return submit(network, Kind.LEARN, n -> n.learn(inputPattern, outputPattern, null, optimize));
+    }
+
+    /**
+     * The result is taken from the query cache of the network, if it has one.
+     * @see Network#queryCached(int[], java.lang.Object, java.util.function.BiConsumer)
+     */
+    public CompletableFuture<int[]> submitQuery(Network network, int[] inputPattern) {
+        return submit(network, Kind.QUERY, n -> n.queryCached(inputPattern, null, null));
+    }
+
+    /**
+     * Runs any job on the network, e.g. optimizeAll(), after the jobs submitted before.
+     */
+    public <T> CompletableFuture<T> submit(Network network, Function<Network, T> job) {
+        return submit(network, Kind.OTHER, job);
+    }
+
+    /**
+     * @throws IllegalStateException if the pool is shut down
+     */
+    private <T> CompletableFuture<T> submit(Network network, Kind kind, Function<Network, T> job) {
+        if (executor.isShutdown()) {
+            throw new IllegalStateException("The pool is shut down");
+        }
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        synchronized (this) {
+            // added under the lock, so the lane is not removed by removeIfRetired() meanwhile
+            final Lane lane = lane(network);
+            final Stats stats = lane.stats;
+            lane.add(() -> {
+                final long start = System.nanoTime();
+                try {
+                    final T result = job.apply(network);
+                    stats.finished(kind, System.nanoTime() - start, false);
+                    future.complete(result);
+                } catch (RuntimeException | Error ex) {
+                    LOG.warn(network.name + ": job failed", ex);
+                    stats.finished(kind, System.nanoTime() - start, true);
+                    future.completeExceptionally(ex);
+                }
+            });
+        }
+        return future;
+    }
+
+    /**
+     * Runs the queued jobs and stops the threads.
+     * @return false if the jobs did not finish in time
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        executor.shutdown();
+        final boolean finished = executor.awaitTermination(timeout, unit);
+        LOG.debug(toString());
+        return finished;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "NetworkPool{threads=" + threads + ", networks=" + lanes.size() + "}";
+    }
+}
@@ -0,0 +1,299 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.function.ToIntFunction;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import rapid.net.port.Port;
+
+/**
+ * Immutable image of a network, which can be queried by any number of threads
+ * while the network itself keeps on learning.
+ *
+ * The (single) writer learns on the Network and publishes a new snapshot by Network.publish(),
+ * the readers always query the latest published one from Network.getSnapshot() without any locks.
+ * Every gate is copied into an immutable GateImage (see CompiledGates), which is shared by the following
+ * snapshots as long as the incoming edges of the gate are not changed and its inputs keep their ids. So a publish
+ * only copies the gates touched since the last publish. The output values are decoded from a copy of
+ * the hit-statistics of the output ports (see Port.freezeDecoder()), taken by the publish too.
+ *
+ * Snapshots do not support PortStreams and setter-functions, MapToOneHotPort items are passed
+ * as their index in the input-pattern. Querying a snapshot does not count any hits on the gates.
+ *
+ * @author Bernhard
+ */
+public final class NetworkSnapshot {
+
+    private static final Logger LOG = LogManager.getLogger(NetworkSnapshot.class);
+
+    /**
+     * Immutable copy of a gate and its incoming edges.
+     */
+    static final class GateImage {
+
+        final int id;
+        final int modCount;
+        final Gate.Operation operation;
+        final int[] ins;        // the ids of the input gates
+        final float[] weights;
+        final float[] biases;
+
+        GateImage(int id, Gate gate, ToIntFunction<Gate> ids) {
+            this.id = id;
+            this.modCount = gate.getModCount();
+            this.operation = gate.getOperation();
+            final int count = gate.getIns().size();
+            this.ins = new int[count];
+            this.weights = new float[count];
+            this.biases = new float[count];
+            CompiledGates.flatten(gate, ids, ins, weights, biases, 0);
+        }
+    }
+
+    /**
+     * Per-thread working storage for queries, sized for the largest snapshot queried by the thread.
+     * It does not refer to a snapshot, so the superseded snapshots are not kept by idle threads.
+     */
+    private static final class Scratch {
+
+        float[] values;
+        float[] gateValues;
+        float[][] gateResults;
+        float[] vals = new float[16];  // the gathered input values of a gate
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final long version;
+    private final int cycle;
+    private final int idCount;
+    private final Port[] inputPorts;
+    private final GateImage[][] inputGates;
+    private final GateImage[] hiddenGates;
+    private final Port.Decoder[] outputDecoders;
+    private final GateImage[][] outputGates;
+    private final int outputSize;
+    private final int maxPortGates;
+
+    private NetworkSnapshot(long version, int cycle, int idCount, Port[] inputPorts, GateImage[][] inputGates, GateImage[] hiddenGates,
+            Port.Decoder[] outputDecoders, GateImage[][] outputGates, int outputSize) {
+        this.version = version;
+        this.cycle = cycle;
+        this.idCount = idCount;
+        this.inputPorts = inputPorts;
+        this.inputGates = inputGates;
+        this.hiddenGates = hiddenGates;
+        this.outputDecoders = outputDecoders;
+        this.outputGates = outputGates;
+        this.outputSize = outputSize;
+        int max = 0;
+        for (GateImage[] gates : inputGates) {
+            max = Math.max(max, gates.length);
+        }
+        this.maxPortGates = max;
+    }
+
+    /**
+     * @return the number of the publish which created this snapshot
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int getOutputSize() {
+        return outputSize;
+    }
+
+    public int getGateCount() {
+        return hiddenGates.length;
+    }
+
+    /**
+     * @return the number of gate-images this snapshot shares with the other snapshot
+     */
+    int countSharedGates(NetworkSnapshot other) {
+        IdentityHashMap<GateImage, Boolean> otherImages = new IdentityHashMap<>();
+        for (GateImage image : other.hiddenGates) {
+            otherImages.put(image, Boolean.TRUE);
+        }
+        for (GateImage[] gates : other.outputGates) {
+            for (GateImage image : gates) {
+                otherImages.put(image, Boolean.TRUE);
+            }
+        }
+        int count = 0;
+        for (GateImage image : hiddenGates) {
+            count += otherImages.containsKey(image) ? 1 : 0;
+        }
+        for (GateImage[] gates : outputGates) {
+            for (GateImage image : gates) {
+                count += otherImages.containsKey(image) ? 1 : 0;
+            }
+        }
+        return count;
+    }
+
+    public int[] query(int[] inputPattern) {
+        int[] result = new int[outputSize];
+        queryInto(inputPattern, result);
+        return result;
+    }
+
+    /**
+     * Same as Network.queryInto(), but thread-safe and without changing the network.
+     * @param inputPattern the input-values
+     * @param outputValues receives the output-values
+     */
+    public void queryInto(int[] inputPattern, int[] outputValues) {
+        final Scratch scratch = getScratch();
+        final float[] values = scratch.values;
+
+        // input gates
+        for (int i = 0; i < inputPorts.length; i++) {
+            final GateImage[] gates = inputGates[i];
+            if (i < inputPattern.length) {
+                inputPorts[i].encodeValue(inputPattern[i], scratch.gateValues);
+                for (int g = 0; g < gates.length; g++) {
+                    values[gates[g].id] = scratch.gateValues[g];
+                }
+            } else {
+                for (GateImage gate : gates) {
+                    values[gate.id] = 0.0f;
+                }
+            }
+        }
+
+        // hidden and output gates, in the same order as propagateBFS() reaches them
+        for (GateImage gate : hiddenGates) {
+            evaluate(gate, values, scratch);
+        }
+        for (GateImage[] gates : outputGates) {
+            for (GateImage gate : gates) {
+                evaluate(gate, values, scratch);
+            }
+        }
+
+        // output values
+        for (int i = 0; i < outputDecoders.length; i++) {
+            final GateImage[] gates = outputGates[i];
+            final float[] gateResults = scratch.gateResults[i];
+            for (int g = 0; g < gates.length; g++) {
+                gateResults[g] = values[gates[g].id];
+            }
+            final int value = outputDecoders[i].decode(gateResults, cycle);
+            if (i < outputValues.length) {
+                outputValues[i] = value;
+            }
+        }
+    }
+
+    private Scratch getScratch() {
+        Scratch scratch = SCRATCH.get();
+        if (scratch.values == null || scratch.values.length < idCount) {
+            scratch.values = new float[idCount];
+        }
+        if (scratch.gateValues == null || scratch.gateValues.length < maxPortGates) {
+            scratch.gateValues = new float[maxPortGates];
+        }
+        if (scratch.gateResults == null || scratch.gateResults.length != outputGates.length) {
+            scratch.gateResults = new float[outputGates.length][];
+        }
+        // the ports decode all of the passed gate-results, so these have exactly the size of the port
+        for (int i = 0; i < outputGates.length; i++) {
+            if (scratch.gateResults[i] == null || scratch.gateResults[i].length != outputGates[i].length) {
+                scratch.gateResults[i] = new float[outputGates[i].length];
+            }
+        }
+        return scratch;
+    }
+
+    private static void evaluate(GateImage gate, float[] values, Scratch scratch) {
+        if (scratch.vals.length < gate.ins.length) {
+            scratch.vals = new float[Math.max(gate.ins.length, 2 * scratch.vals.length)];
+        }
+        values[gate.id] = CompiledGates.evaluate(gate.operation, gate.ins, gate.weights, gate.biases, 0, gate.ins.length, values, scratch.vals);
+    }
+
+    /**
+     * Creates the snapshots of one network and keeps the gate-images for the next publish.
+     * Only used by the writer-thread.
+     */
+    static final class Builder {
+
+        private IdentityHashMap<Gate, GateImage> images = new IdentityHashMap<>();
+        private int nextId = 0;
+        private long version = 0;
+
+        NetworkSnapshot build(Network network) {
+            if (network.hasStreams()) {
+                throw new UnsupportedOperationException(network.name + ": snapshots of networks with PortStreams are not supported");
+            }
+            if (nextId > 2 * (images.size() + 64)) {
+                // too many ids of removed gates, renumber all
+                images.clear();
+                nextId = 0;
+            }
+            IdentityHashMap<Gate, GateImage> newImages = new IdentityHashMap<>(images.size());
+
+            Port[] inputPorts = network.getInputSlots().clone();
+            GateImage[][] inputGates = new GateImage[inputPorts.length][];
+            for (int i = 0; i < inputPorts.length; i++) {
+                List<Gate> gates = inputPorts[i].getGates();
+                inputGates[i] = new GateImage[gates.size()];
+                for (int g = 0; g < gates.size(); g++) {
+                    inputGates[i][g] = image(gates.get(g), newImages);
+                }
+            }
+
+            List<Gate> gates = network.getGates();
+            GateImage[] hiddenGates = new GateImage[gates.size()];
+            for (int g = 0; g < gates.size(); g++) {
+                hiddenGates[g] = image(gates.get(g), newImages);
+            }
+
+            Port[] outputPorts = network.getOutputSlots();
+            Port.Decoder[] outputDecoders = new Port.Decoder[outputPorts.length];
+            GateImage[][] outputGates = new GateImage[outputPorts.length][];
+            for (int i = 0; i < outputPorts.length; i++) {
+                outputDecoders[i] = outputPorts[i].freezeDecoder();
+                List<Gate> portGates = outputPorts[i].getGates();
+                outputGates[i] = new GateImage[portGates.size()];
+                for (int g = 0; g < portGates.size(); g++) {
+                    outputGates[i][g] = image(portGates.get(g), newImages);
+                }
+            }
+
+            images = newImages;
+            version++;
+            LOG.debug(network.name + ": published snapshot " + version + " with " + newImages.size() + " gates");
+            return new NetworkSnapshot(version, network.getCycles() + 1, nextId, inputPorts, inputGates, hiddenGates,
+                    outputDecoders, outputGates, network.getOutputSize());
+        }
+
+        /**
+         * Returns the image of the gate from the last publish if it is still valid, otherwise creates a new one.
+         * The images of the inputs of the gate have to be created already.
+         */
+        private GateImage image(Gate gate, IdentityHashMap<Gate, GateImage> newImages) {
+            GateImage image = images.get(gate);
+            final List<Edge> ins = gate.getIns();
+            boolean valid = (image != null) && (image.modCount == gate.getModCount()) && (image.ins.length == ins.size());
+            for (int i = 0; valid && i < ins.size(); i++) {
+                valid = (image.ins[i] == imageOf((Gate) ins.get(i).getFrom(), newImages).id);
+            }
+            if (!valid) {
+                image = new GateImage((image != null) ? image.id : nextId++, gate, from -> imageOf(from, newImages).id);
+            }
+            newImages.put(gate, image);
+            return image;
+        }
+
+        private GateImage imageOf(Gate gate, IdentityHashMap<Gate, GateImage> newImages) {
+            final GateImage image = newImages.get(gate);
+            // an input from a gate which is not in the (input, hidden, output)-order is created on demand
+            return (image != null) ? image : image(gate, newImages);
+        }
+    }
+}
@@ -1,8 +1,11 @@
 // License: Apache 2.0. See LICENSE file in root directory.
 package rapid.net;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -10,10 +13,13 @@ public class Node implements Visitable {
 
     private static final Logger LOG = LogManager.getLogger(Node.class);
 
-    private final String name;
+    private final String name;  // null: derived on demand, see Gate.name()
     protected List<Edge> ins;
     protected List<Edge> outs;
 
+    private int modCount = 0;   // counts the changes of the incoming edges (see NetworkSnapshot)
+    private int level = 0;      // greater than the level of all sources (topological order, see Network.Propagation.SWEEP)
+
     // for the Visitable-Interface
     private int visitId = 0;
     private int visitValue = 0;
@@ -31,16 +37,20 @@ public class Node implements Visitable {
 
         for (Edge in : ins) {
             if (in != null) {
+                linkIn(in);
                 this.ins.add(in);
                 in.setTo(this);
             }
         }
+        touch();
     }
 
     public void addIn(Edge in) {
         if (in != null) {
+            linkIn(in);
             this.ins.add(in);
             in.setTo(this);
+            touch();
         }
     }
 
@@ -87,8 +97,10 @@ public class Node implements Visitable {
     }
 
     public Edge createIn(Node from) {
+        link(from);
         Edge edge = new Edge(from, this);
         this.ins.add(edge);
+        touch();
         return edge;
     }
 
@@ -98,8 +110,80 @@ public class Node implements Visitable {
         return edge;
     }
 
+    public int getModCount() {
+        return modCount;
+    }
+
+    /**
+     * @return the topological level: 0 for nodes without inputs, otherwise greater than the level of each input
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Links the incoming edge (see link()), a rejected edge is also removed from the outgoing edges of its source.
+     */
+    private void linkIn(Edge in) {
+        try {
+            link(in.getFrom());
+        } catch (IllegalStateException ex) {
+            in.getFrom().outs.remove(in);
+            throw ex;
+        }
+    }
+
+    /**
+     * Keeps the levels topologically ordered when an edge from the given node to this node is added:
+     * the levels of this node and of the nodes behind it are raised where necessary.
+     * Removing edges keeps the order valid (levels may only get higher than necessary).
+     * The new levels are collected first, so an edge which would create a cycle changes no level.
+     */
+    private void link(Node from) {
+        if (from == this) {
+            throw new IllegalStateException("Edge from " + name() + " to itself creates a cycle");
+        }
+        if (from == null || level > from.level) {
+            return;
+        }
+        if (outs.isEmpty()) {
+            level = from.level + 1;
+            return;
+        }
+        IdentityHashMap<Node, Integer> raised = new IdentityHashMap<>();
+        raised.put(this, from.level + 1);
+        ArrayDeque<Node> queue = new ArrayDeque<>();
+        queue.add(this);
+        Node node;
+        while ((node = queue.poll()) != null) {
+            final int nodeLevel = raised.get(node);
+            for (Edge out : node.outs) {
+                final Node to = out.getTo();
+                if (to == from) {
+                    throw new IllegalStateException("Edge from " + from.name() + " to " + name() + " creates a cycle");
+                }
+                if (to != null && raised.getOrDefault(to, to.level) <= nodeLevel) {
+                    raised.put(to, nodeLevel + 1);
+                    queue.add(to);
+                }
+            }
+        }
+        for (Map.Entry<Node, Integer> entry : raised.entrySet()) {
+            entry.getKey().level = entry.getValue();
+        }
+    }
+
+    /**
+     * Marks that the incoming edges (or their weights) have been changed.
+     */
+    protected void touch() {
+        modCount++;
+    }
+
     public void remove() {
-        LOG.debug(" remove " + toString());
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(" remove " + toString());
+        }
         while (ins.size() > 0) {
             ins.get(ins.size() - 1).remove();
         }
@@ -0,0 +1,249 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Limits the growth of an online-learning network by removing the least valuable AND-gates
+ * (together with their edges) when the network exceeds a maximum number of gates or edges.
+ *
+ * The value of an AND-gate is its hit-rate, the number of hits per cycle since its creation.
+ * Gates which are dominated by a sibling (same inputs and same output gate) are removed first,
+ * then the gates with the lowest hit-rate, the older ones first.
+ * Pruning can be done in small steps (prune(maxSteps)) between the queries, so it never stalls them.
+ *
+ * @author Bernhard
+ */
+public class Pruner {
+
+    private static final Logger LOG = LogManager.getLogger(Pruner.class);
+
+    private static final float DOMINATED = -1.0f;
+
+    /**
+     * The result of prune(heldOutIn, heldOutOut).
+     */
+    public static class Report {
+
+        public int gatesBefore;
+        public int gatesAfter;
+        public int edgesBefore;
+        public int edgesAfter;
+        public float accuracyBefore;
+        public float accuracyAfter;
+
+        @Override
+        public String toString() {
+            return "Pruning{gates=" + gatesBefore + "->" + gatesAfter + ", edges=" + edgesBefore + "->" + edgesAfter
+                    + ", accuracy=" + accuracyBefore + "->" + accuracyAfter + "}";
+        }
+    }
+
+    private final Network network;
+    private int maxGates = Integer.MAX_VALUE;
+    private int maxEdges = Integer.MAX_VALUE;
+    private int prunedGates = 0;
+
+    public Pruner(Network network) {
+        this.network = network;
+    }
+
+    public int getMaxGates() {
+        return maxGates;
+    }
+
+    /**
+     * @param maxGates the maximum number of (hidden) AND-gates
+     */
+    public void setMaxGates(int maxGates) {
+        this.maxGates = maxGates;
+    }
+
+    public int getMaxEdges() {
+        return maxEdges;
+    }
+
+    /**
+     * @param maxEdges the maximum number of edges from and to the (hidden) AND-gates
+     */
+    public void setMaxEdges(int maxEdges) {
+        this.maxEdges = maxEdges;
+    }
+
+    /**
+     * @return the number of gates removed by this pruner so far
+     */
+    public int getPrunedGates() {
+        return prunedGates;
+    }
+
+    public int countEdges() {
+        int count = 0;
+        for (Gate gate : network.getGates()) {
+            count += gate.getIns().size() + gate.getOuts().size();
+        }
+        return count;
+    }
+
+    public boolean isOverBudget() {
+        return network.getGates().size() > maxGates || countEdges() > maxEdges;
+    }
+
+    /**
+     * Removes gates until the network is within its budget.
+     * @return the number of removed gates
+     */
+    public int prune() {
+        int count = 0;
+        int removed;
+        do {
+            removed = prune(Math.max(1, network.getGates().size() - maxGates));
+            count += removed;
+        } while (removed > 0);
+        return count;
+    }
+
+    /**
+     * Removes at most maxSteps gates, if the network exceeds its budget.
+     * @param maxSteps the maximum number of gates to remove by this call
+     * @return the number of removed gates
+     */
+    public int prune(int maxSteps) {
+        List<Gate> gates = network.getGates();
+        int edges = countEdges();
+        if (gates.size() <= maxGates && edges <= maxEdges) {
+            return 0;
+        }
+
+        // the maxSteps least valuable gates (the most valuable of them at the head)
+        final float[] scores = score(gates);
+        final int cycles = network.getCycles();
+        PriorityQueue<Integer> candidates = new PriorityQueue<>(maxSteps + 1, (a, b) -> {
+            int result = Float.compare(scores[b], scores[a]);
+            if (result == 0) {
+                result = Integer.compare(gates.get(b).getCreationCycle(), gates.get(a).getCreationCycle());
+            }
+            return result;
+        });
+        for (int i = 0; i < gates.size(); i++) {
+            candidates.offer(i);
+            if (candidates.size() > maxSteps) {
+                candidates.poll();
+            }
+        }
+        Integer[] order = candidates.toArray(new Integer[candidates.size()]);
+        Arrays.sort(order, candidates.comparator().reversed());
+
+        int count = 0;
+        ArrayList<Gate> remove = new ArrayList<>();
+        int gateCount = gates.size();
+        for (Integer index : order) {
+            if (gateCount <= maxGates && edges <= maxEdges) {
+                break;
+            }
+            Gate gate = gates.get(index);
+            remove.add(gate);
+            gateCount--;
+            edges -= gate.getIns().size() + gate.getOuts().size();
+        }
+        for (Gate gate : remove) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(network.name + ": pruned " + gate.name() + " hits=" + gate.getHits() + " age=" + (cycles - gate.getCreationCycle()));
+            }
+            for (Edge out : gate.getOuts()) {
+                network.markDirty((Gate) out.getTo());
+            }
+            gate.remove();
+            count++;
+        }
+        prunedGates += count;
+        if (count > 0 && network.hasMemoryBudget()) {
+            network.measureMemory();    // may lift the block of the hard memory budget
+        }
+        if (count > 0 && network.isAutoPublish()) {
+            network.publish();
+        }
+        return count;
+    }
+
+    /**
+     * Prunes the network to its budget and reports the accuracy on the held-out patterns before and after.
+     * The accuracy is measured on a (not published) snapshot, so it does not change the hit-statistics.
+     * @param heldOutIn the input-patterns
+     * @param heldOutOut the expected output-patterns
+     * @return the report
+     */
+    public Report prune(int[][] heldOutIn, int[][] heldOutOut) {
+        Report report = new Report();
+        report.gatesBefore = network.getGates().size();
+        report.edgesBefore = countEdges();
+        report.accuracyBefore = accuracy(heldOutIn, heldOutOut);
+        prune();
+        report.gatesAfter = network.getGates().size();
+        report.edgesAfter = countEdges();
+        report.accuracyAfter = accuracy(heldOutIn, heldOutOut);
+        LOG.info(network.name + ": " + report);
+        return report;
+    }
+
+    /**
+     * @return the share of the patterns for which all output-values are correct
+     */
+    public float accuracy(int[][] inputPatterns, int[][] outputPatterns) {
+        if (inputPatterns.length == 0) {
+            return 1.0f;
+        }
+        NetworkSnapshot snapshot = new NetworkSnapshot.Builder().build(network);
+        int[] outputValues = new int[snapshot.getOutputSize()];
+        int correct = 0;
+        for (int i = 0; i < inputPatterns.length; i++) {
+            snapshot.queryInto(inputPatterns[i], outputValues);
+            boolean ok = true;
+            for (int j = 0; j < outputPatterns[i].length && ok; j++) {
+                ok = (outputPatterns[i][j] == outputValues[j]);
+            }
+            correct += ok ? 1 : 0;
+        }
+        return (float) correct / inputPatterns.length;
+    }
+
+    private float[] score(List<Gate> gates) {
+        final int cycles = network.getCycles();
+        float[] scores = new float[gates.size()];
+        HashMap<List<Object>, Integer> siblings = new HashMap<>();
+        for (int i = 0; i < gates.size(); i++) {
+            Gate gate = gates.get(i);
+            scores[i] = (float) gate.getHits() / Math.max(1, cycles - gate.getCreationCycle());
+
+            // same inputs and outputs as a sibling --> keep the one with the more hits only
+            Set<Node> froms = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Edge in : gate.getIns()) {
+                froms.add(in.getFrom());
+            }
+            Set<Node> tos = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Edge out : gate.getOuts()) {
+                tos.add(out.getTo());
+            }
+            List<Object> key = Arrays.asList(froms, tos);
+            Integer sibling = siblings.get(key);
+            if (sibling == null) {
+                siblings.put(key, i);
+            } else if (gates.get(sibling).getHits() >= gate.getHits()) {
+                scores[i] = DOMINATED;
+            } else {
+                scores[sibling] = DOMINATED;
+                siblings.put(key, i);
+            }
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,435 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import rapid.net.port.Port;
+
+/**
+ * Fixed-point evaluation of a learned network.
+ *
+ * The evaluator is a compiled form of the network in which the edge weights are stored
+ * as 16 bit (or 8 bit) integers with one power-of-two scale for the whole network, and all gate values
+ * are 16.16 fixed-point integers. AND, OR, MUL and ADD are calculated in integer arithmetic
+ * only, the floats are converted at the ports only (see Port.freezeEncoder() and Port.freezeDecoder()).
+ * Because the product of a high fan-in AND-gate (f.e. fed by a FuzzyVector) easily gets
+ * smaller than 2^-16, each gate value has an integer exponent additionally to its mantissa.
+ *
+ * The weights are quantized from the CompiledGates of the network when the evaluator is created, learning
+ * or optimizing afterwards is not seen by it. The evaluator does not change the cycles or the hit-statistics
+ * of the network.
+ *
+ * The evaluator replaces the network for querying: it does not refer to the gates, edges and ports
+ * (of the port types in rapid.net.port, PortStreams are not supported anyway), the inputs are encoded and the outputs decoded with copies of the state of the ports (with the
+ * hit-statistics at the time of the compilation, as a NetworkSnapshot does). So a network which is
+ * not learned any further can be dropped after the compilation, and only the integer arrays stay on
+ * the heap (see getMemoryBytes()).
+ *
+ * @author Bernhard
+ */
+public class QuantizedEvaluator {
+
+    private static final Logger LOG = LogManager.getLogger(QuantizedEvaluator.class);
+
+    public static final int FRACTION_BITS = 16;
+    public static final int ONE = 1 << FRACTION_BITS;
+    private static final long ONE_SQUARE = 1L << (2 * FRACTION_BITS);
+
+    private static final byte OP_AND = 0;
+    private static final byte OP_MUL = 1;
+    private static final byte OP_OR = 2;
+    private static final byte OP_ADD = 3;
+
+    private final String name;
+    private final int cycle;
+    private final int weightBits;
+
+    // encoders of the input ports (in the order of the input values) and the offsets of their gates
+    private final Port.Encoder[] inputEncoders;
+    private final int[] inputGateOffset;
+    private final int inputGateCount;
+
+    // hidden gates followed by the output gates, their inputs are indices into values[]
+    private final int hiddenCount;
+    private final byte[] ops;
+    private final int[] inOffset;
+    private final int[] inIndex;
+    private final short[] weights16;   // used for weightBits > 8
+    private final byte[] weights8;     // used for weightBits <= 8
+    private final int[] biases;        // fixed-point, null if all biases are 0
+    private final int shift;           // the weight scale of all edges is 2^-shift
+
+    // decoders of the output ports and the offsets of their gates
+    private final Port.Decoder[] outputDecoders;
+    private final int[] outputGateOffset;
+    private final int outputSize;
+
+    // working storage
+    private final int[] values;        // fixed-point mantissas of the input gates, hidden gates, output gates
+    private final int[] exponents;     // the value of a gate is values[i]*2^exponents[i]
+    private final float[][] inputGateValues;
+    private final float[][] outputGateResults;
+
+    public QuantizedEvaluator(Network network) {
+        this(network, 16);
+    }
+
+    /**
+     * @param network the network to compile
+     * @param weightBits 16 or 8, the 8 bit weights are only precise enough for one-hot networks
+     */
+    public QuantizedEvaluator(Network network, int weightBits) {
+        if (weightBits != 8 && weightBits != 16) {
+            throw new IllegalArgumentException("weightBits must be 8 or 16 but is " + weightBits);
+        }
+        if (!isApplicable(network)) {
+            throw new IllegalArgumentException(network.name + " has no (input, hidden, output)-structure which can be quantized");
+        }
+        this.name = network.name;
+        this.cycle = network.getCycles() + 1;
+        this.weightBits = weightBits;
+
+        // inputs
+        final Port[] inputPorts = network.getInputSlots();
+        inputEncoders = new Port.Encoder[inputPorts.length];
+        inputGateOffset = new int[inputPorts.length + 1];
+        IdentityHashMap<Gate, Integer> valueIndex = new IdentityHashMap<>();
+        int count = 0;
+        for (int i = 0; i < inputPorts.length; i++) {
+            inputEncoders[i] = inputPorts[i].freezeEncoder();
+            inputGateOffset[i] = count;
+            for (Gate gate : inputPorts[i].getGates()) {
+                valueIndex.put(gate, count++);
+            }
+        }
+        inputGateOffset[inputPorts.length] = count;
+        inputGateCount = count;
+
+        // hidden gates
+        ArrayList<Gate> gates = new ArrayList<>(network.getGates());
+        hiddenCount = gates.size();
+        for (Gate gate : gates) {
+            valueIndex.put(gate, count++);
+        }
+
+        // outputs
+        outputSize = network.getOutputSize();
+        final Port[] outputPorts = network.getOutputSlots();
+        outputDecoders = new Port.Decoder[outputPorts.length];
+        outputGateOffset = new int[outputPorts.length + 1];
+        for (int i = 0; i < outputPorts.length; i++) {
+            outputDecoders[i] = outputPorts[i].freezeDecoder();
+            outputGateOffset[i] = gates.size() - hiddenCount;
+            gates.addAll(outputPorts[i].getGates());
+        }
+        outputGateOffset[outputPorts.length] = gates.size() - hiddenCount;
+
+        // edges, the float weights and biases are quantized
+        final CompiledGates compiled = new CompiledGates(gates, gate -> valueIndex.getOrDefault(gate, -1));
+        ops = new byte[gates.size()];
+        for (int g = 0; g < gates.size(); g++) {
+            ops[g] = (byte) compiled.operations[g].ordinal();
+        }
+        inOffset = compiled.inOffset;
+        inIndex = compiled.inIndex;
+        final int edgeCount = inIndex.length;
+        float maxWeight = 0.0f;
+        boolean hasBias = false;
+        for (int e = 0; e < edgeCount; e++) {
+            maxWeight = Math.max(maxWeight, Math.abs(compiled.weights[e]));
+            hasBias |= (compiled.biases[e] != 0.0f);
+        }
+
+        final int maxQuantized = (1 << (weightBits - 1)) - 1;
+        shift = calcShift(maxWeight, maxQuantized);
+        weights16 = (weightBits > 8) ? new short[edgeCount] : null;
+        weights8 = (weightBits > 8) ? null : new byte[edgeCount];
+        biases = hasBias ? new int[edgeCount] : null;
+        for (int e = 0; e < edgeCount; e++) {
+            final int weight = quantize(compiled.weights[e], shift, maxQuantized);
+            if (weights16 != null) {
+                weights16[e] = (short) weight;
+            } else {
+                weights8[e] = (byte) weight;
+            }
+            if (biases != null) {
+                biases[e] = toFixed(compiled.biases[e]);
+            }
+        }
+
+        values = new int[count + gates.size() - hiddenCount];
+        exponents = new int[values.length];
+        inputGateValues = new float[inputPorts.length][];
+        for (int i = 0; i < inputPorts.length; i++) {
+            inputGateValues[i] = new float[inputGateOffset[i + 1] - inputGateOffset[i]];
+        }
+        outputGateResults = new float[outputPorts.length][];
+        for (int i = 0; i < outputPorts.length; i++) {
+            outputGateResults[i] = new float[outputGateOffset[i + 1] - outputGateOffset[i]];
+        }
+        LOG.debug(name + ": quantized " + edgeCount + " edges to " + weightBits + " bit, scale=2^-" + shift);
+    }
+
+    /**
+     * Checks if the network can be quantized: there must be no streams and every hidden gate
+     * has to be fed by input gates directly and feed output gates directly (which is what learning creates).
+     * @param network the network to check
+     * @return true if a QuantizedEvaluator can be created for the network
+     */
+    public static boolean isApplicable(Network network) {
+        if (network.hasStreams()) {
+            return false;
+        }
+        IdentityHashMap<Gate, Boolean> inputGates = new IdentityHashMap<>();
+        for (Port port : network.getInputSlots()) {
+            for (Gate gate : port.getGates()) {
+                inputGates.put(gate, Boolean.TRUE);
+            }
+        }
+        IdentityHashMap<Gate, Boolean> hiddenGates = new IdentityHashMap<>();
+        for (Gate gate : network.getGates()) {
+            for (Edge in : gate.getIns()) {
+                if (!inputGates.containsKey((Gate) in.getFrom())) {
+                    return false;
+                }
+            }
+            hiddenGates.put(gate, Boolean.TRUE);
+        }
+        for (Port port : network.getOutputSlots()) {
+            for (Gate gate : port.getGates()) {
+                for (Edge in : gate.getIns()) {
+                    if (!hiddenGates.containsKey((Gate) in.getFrom())) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int calcShift(float maxWeight, int maxQuantized) {
+        if (maxWeight == 0.0f || Float.isInfinite(maxWeight) || Float.isNaN(maxWeight)) {
+            return 0;
+        }
+        // largest shift (finest scale) where the maximum weight still fits
+        int shift = (int) Math.floor(Math.log(maxQuantized / maxWeight) / Math.log(2.0));
+        while (Math.round(Math.scalb(maxWeight, shift)) > maxQuantized) {
+            shift--;
+        }
+        return Math.min(shift, 2 * FRACTION_BITS - 2);
+    }
+
+    private static int quantize(float weight, int shift, int maxQuantized) {
+        long q = Math.round(Math.scalb((double) weight, shift));
+        return (int) Math.max(-maxQuantized, Math.min(maxQuantized, q));
+    }
+
+    private static int toFixed(float value) {
+        return saturate(Math.round((double) value * ONE));
+    }
+
+    private static int saturate(long value) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+    }
+
+    public int getOutputSize() {
+        return outputSize;
+    }
+
+    public int getWeightBits() {
+        return weightBits;
+    }
+
+    /**
+     * @return the number of bytes used by the quantized weights
+     */
+    public int getWeightBytes() {
+        return (weights16 != null) ? 2 * weights16.length : weights8.length;
+    }
+
+    /**
+     * @return the estimated heap of the evaluator, its arrays and the encoders and decoders of the ports (see MemoryFootprint)
+     */
+    public long getMemoryBytes() {
+        return MemoryFootprint.estimateCompiled(this);
+    }
+
+    public int[] query(int[] inputPattern) {
+        int[] result = new int[outputSize];
+        queryInto(inputPattern, result);
+        return result;
+    }
+
+    /**
+     * Evaluates the given input-pattern.
+     * @param inputPattern the input-values, the same as for Network.query()
+     * @param outputValues receives the output-values, the same as Network.getOutputValues() returns
+     */
+    public void queryInto(int[] inputPattern, int[] outputValues) {
+        // 1. encode the input values
+        for (int i = 0; i < inputEncoders.length; i++) {
+            final float[] gateValues = inputGateValues[i];
+            final int offset = inputGateOffset[i];
+            if (i < inputPattern.length) {
+                inputEncoders[i].encode(inputPattern[i], gateValues);
+                for (int g = 0; g < gateValues.length; g++) {
+                    values[offset + g] = toFixed(gateValues[g]);
+                    exponents[offset + g] = 0;
+                }
+            } else {
+                for (int g = 0; g < gateValues.length; g++) {
+                    values[offset + g] = 0;
+                    exponents[offset + g] = 0;
+                }
+            }
+        }
+
+        // 2. hidden and output gates in integer arithmetic
+        for (int g = 0; g < ops.length; g++) {
+            evaluate(g);
+        }
+
+        // 3. decode the output values
+        final int outputBase = inputGateCount + hiddenCount;
+        for (int i = 0; i < outputDecoders.length; i++) {
+            final int offset = outputBase + outputGateOffset[i];
+            final float[] gateResults = outputGateResults[i];
+            for (int g = 0; g < gateResults.length; g++) {
+                gateResults[g] = Math.scalb((float) values[offset + g] / ONE, exponents[offset + g]);
+            }
+            final int value = outputDecoders[i].decode(gateResults, cycle);
+            if (i < outputValues.length) {
+                outputValues[i] = value;
+            }
+        }
+    }
+
+    private void evaluate(int g) {
+        final int from = inOffset[g];
+        final int to = inOffset[g + 1];
+        final int index = inputGateCount + g;
+        // fires as in CompiledGates.evaluate(), but in fixed-point arithmetic
+        boolean fired = false;
+        for (int e = from; e < to && !fired; e++) {
+            fired = (values[inIndex[e]] != 0);
+        }
+        if (!fired) {
+            store(index, 0, 0);
+            return;
+        }
+
+        switch (ops[g]) {
+            case OP_AND:
+            case OP_MUL: {
+                // product as mantissa (normalized to 2^30..2^31) and exponent
+                long f = ONE << 14;
+                int fx = -14;
+                int count = 0;
+                for (int e = from; e < to; e++) {
+                    long val = weightedValue(e);
+                    int x = exponents[inIndex[e]];
+                    if (ops[g] == OP_AND) {
+                        if (isGreaterOne(val, x)) {
+                            val = ONE_SQUARE / val;
+                            x = -x;
+                        }
+                        if (val == 0) {
+                            continue;
+                        }
+                    }
+                    if (Math.abs(val) > Integer.MAX_VALUE) {
+                        final int reduce = 33 - Long.numberOfLeadingZeros(Math.abs(val));
+                        val >>= reduce;
+                        x += reduce;
+                    }
+                    f = (f * val) >> FRACTION_BITS;
+                    fx += x;
+                    if (f == 0) {
+                        break;
+                    }
+                    final int norm = Long.numberOfLeadingZeros(Math.abs(f)) - 33;
+                    f = (norm >= 0) ? (f << norm) : (f >> -norm);
+                    fx -= norm;
+                    count++;
+                }
+                if (ops[g] == OP_AND) {
+                    f = f * count / (to - from);
+                }
+                store(index, f, fx);
+                return;
+            }
+            case OP_OR:
+            case OP_ADD:
+            default: {
+                // sum of the mantissas aligned to the largest exponent
+                int maxX = Integer.MIN_VALUE;
+                for (int e = from; e < to; e++) {
+                    if (values[inIndex[e]] != 0) {
+                        maxX = Math.max(maxX, exponents[inIndex[e]]);
+                    }
+                }
+                long f = 0;
+                int count = 0;
+                for (int e = from; e < to; e++) {
+                    final long val = weightedValue(e);
+                    if (val != 0) {
+                        final int diff = maxX - exponents[inIndex[e]];
+                        f += (diff < 63) ? (val >> diff) : 0;
+                        count++;
+                    }
+                }
+                if (ops[g] == OP_OR && count > 0) {
+                    f = f / count;
+                }
+                store(index, f, maxX);
+                return;
+            }
+        }
+    }
+
+    private long weightedValue(int e) {
+        final long value = values[inIndex[e]];
+        if (value == 0) {
+            return 0;   // the input gate has not fired
+        }
+        final long weight = (weights16 != null) ? weights16[e] : weights8[e];
+        long result = (shift >= 0) ? ((value * weight) >> shift) : ((value * weight) << -shift);
+        if (biases != null) {
+            result += biases[e] >> Math.min(62, Math.max(0, exponents[inIndex[e]]));
+        }
+        return result;
+    }
+
+    private static boolean isGreaterOne(long mantissa, int exponent) {
+        if (exponent >= 0) {
+            return exponent >= 31 || (mantissa << exponent) > ONE;
+        } else {
+            return (mantissa >> -exponent) > ONE;
+        }
+    }
+
+    /**
+     * Stores the value mantissa*2^exponent (16.16 fixed-point mantissa) with the mantissa
+     * normalized to at least 15 bits, so the products of high fan-in AND-gates do not underflow.
+     */
+    private void store(int index, long mantissa, int exponent) {
+        if (mantissa == 0) {
+            values[index] = 0;
+            exponents[index] = 0;
+            return;
+        }
+        final int norm = Long.numberOfLeadingZeros(Math.abs(mantissa)) - (63 - FRACTION_BITS);
+        if (norm > 0) {
+            mantissa <<= norm;
+            exponent -= norm;
+        } else if (Math.abs(mantissa) > Integer.MAX_VALUE) {
+            final int shift = 64 - Long.numberOfLeadingZeros(Math.abs(mantissa)) - 31;
+            mantissa >>= shift;
+            exponent += shift;
+        }
+        values[index] = (int) mantissa;
+        exponents[index] = exponent;
+    }
+}
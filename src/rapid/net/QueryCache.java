@@ -0,0 +1,148 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Caches the output values of queries by their input pattern (and the context of the setter function),
+ * the least recently used entry is evicted when the capacity is reached.
+ *
+ * The entries belong to a version of the network (see Network.getVersion()), all of them are dropped
+ * when the version changes, i.e. when gates or edges are inserted, removed or re-weighted.
+ * Like the network, the cache is not thread-safe.
+ *
+ * @author Bernhard
+ */
+public class QueryCache {
+
+    private static final class Key {
+
+        final int[] inputPattern;
+        final Object context;
+        final int hash;
+
+        Key(int[] inputPattern, Object context) {
+            this.inputPattern = inputPattern;
+            this.context = context;
+            this.hash = 31 * Arrays.hashCode(inputPattern) + Objects.hashCode(context);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) other;
+            return hash == key.hash && Arrays.equals(inputPattern, key.inputPattern) && Objects.equals(context, key.context);
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<Key, int[]> entries;
+    private long version = -1;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    public QueryCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity of the cache must be positive");
+        }
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<Key, int[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, int[]> eldest) {
+                if (size() > QueryCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param version the current version of the network, the entries of another version are dropped
+     * @return a copy of the cached output values, null if they are not cached
+     */
+    public int[] get(int[] inputPattern, Object context, long version) {
+        if (version != this.version) {
+            if (!entries.isEmpty()) {
+                entries.clear();
+                invalidations++;
+            }
+            this.version = version;
+        }
+        final int[] outputValues = entries.get(new Key(inputPattern, context));
+        if (outputValues == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return outputValues.clone();
+    }
+
+    /**
+     * Caches the output values for the version passed to the last get().
+     */
+    public void put(int[] inputPattern, Object context, int[] outputValues) {
+        entries.put(new Key(inputPattern.clone(), context), outputValues.clone());
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of entries dropped because the capacity was reached
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of times the entries were dropped because the network was changed
+     */
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * @return the ratio of the hits to all lookups, 0.0 before the first lookup
+     */
+    public double getHitRate() {
+        final long lookups = hits + misses;
+        return (lookups > 0) ? ((double) hits / lookups) : 0.0;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryCache{size=" + entries.size() + "/" + capacity + ", hits=" + hits + ", misses=" + misses
+                + String.format(", hitRate=%.3f", getHitRate()) + ", evictions=" + evictions + ", invalidations=" + invalidations + "}";
+    }
+}
@@ -0,0 +1,296 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import rapid.net.port.Port;
+
+/**
+ * Evaluates the output ports of a network in parallel.
+ *
+ * The gates are partitioned into one shard per output port: the gates of the port and all gates
+ * of its backward cone up to the input gates. A gate feeding several output ports is owned by the
+ * first of them, the other shards evaluate a replica of it; these cross-shard edges are reported
+ * (see getCrossShardEdges()). The input gates are encoded once per query and copied by the shards
+ * into their working storage, each shard runs on its own worker thread and decodes its own port from
+ * a copy of the hit-statistics of the port (see Port.freezeDecoder()).
+ *
+ * The shards hold the gates and edges of the network at the time the evaluator is created, so it has to
+ * be recreated after learning or optimizing. The evaluator does not change the cycles
+ * or the hit-statistics of the network, it may be queried by several threads concurrently.
+ * PortStreams are not supported.
+ *
+ * @author Bernhard
+ */
+public class ShardedEvaluator {
+
+    private static final Logger LOG = LogManager.getLogger(ShardedEvaluator.class);
+
+    /**
+     * The gates of one output port, in topological order, with their own working storage.
+     */
+    private final class Shard {
+
+        final Port port;
+        final Port.Decoder decoder;
+        final int outputIndex;
+        final CompiledGates gates;  // the values of the input gates come first, then the ones of the gates of the shard
+        final int outputOffset;     // the gates of the port are the last ones
+        final int replicatedGates;
+        final ThreadLocal<float[]> values;
+        final ThreadLocal<float[]> gateResults;
+        final ThreadLocal<float[]> gathered;    // the input values of a gate
+
+        Shard(Port port, int outputIndex, List<Gate> cone, IdentityHashMap<Gate, Integer> inputIndex, IdentityHashMap<Gate, Integer> owner) {
+            this.port = port;
+            this.decoder = port.freezeDecoder();
+            this.outputIndex = outputIndex;
+            IdentityHashMap<Gate, Integer> index = new IdentityHashMap<>(inputIndex);
+            int owned = 0;
+            for (Gate gate : cone) {
+                index.put(gate, inputGateCount + index.size() - inputIndex.size());
+                owned += (owner.get(gate) == outputIndex) ? 1 : 0;
+            }
+            gates = new CompiledGates(cone, gate -> index.getOrDefault(gate, -1));
+            outputOffset = cone.size() - port.getGates().size();
+            replicatedGates = cone.size() - owned;
+            values = ThreadLocal.withInitial(() -> new float[inputGateCount + gates.size()]);
+            gateResults = ThreadLocal.withInitial(() -> new float[gates.size() - outputOffset]);
+            gathered = ThreadLocal.withInitial(() -> new float[gates.maxFanIn]);
+        }
+
+        int evaluate(float[] inputValues) {
+            final float[] vals = values.get();
+            final float[] list = gathered.get();
+            System.arraycopy(inputValues, 0, vals, 0, inputGateCount);
+            for (int g = 0; g < gates.size(); g++) {
+                vals[inputGateCount + g] = gates.evaluate(g, vals, list);
+            }
+
+            final float[] results = gateResults.get();
+            System.arraycopy(vals, inputGateCount + outputOffset, results, 0, results.length);
+            return decoder.decode(results, cycle);
+        }
+    }
+
+    private final ExecutorService executor;
+    private final boolean ownExecutor;
+    private final int cycle;
+    private final Port[] inputPorts;
+    private final int[] inputGateOffset;
+    private final int inputGateCount;
+    private final int maxPortGates;
+    private final Shard[] shards;
+    private final int outputSize;
+    private final int crossShardEdges;
+    private final ThreadLocal<float[][]> inputScratch;
+
+    /**
+     * Creates the shards and a pool with one daemon thread per shard (at most one per processor),
+     * which is shut down by shutdown().
+     */
+    public ShardedEvaluator(Network network) {
+        this(network, null);
+    }
+
+    /**
+     * @param network the network to compile
+     * @param executor runs the shards (the first shard runs in the calling thread), null to create an own pool
+     */
+    public ShardedEvaluator(Network network, ExecutorService executor) {
+        if (network.hasStreams()) {
+            throw new UnsupportedOperationException(network.name + ": sharding of networks with PortStreams is not supported");
+        }
+        this.cycle = network.getCycles() + 1;
+        this.outputSize = network.getOutputSize();
+
+        // inputs, shared by all shards
+        inputPorts = network.getInputSlots().clone();
+        inputGateOffset = new int[inputPorts.length];
+        IdentityHashMap<Gate, Integer> inputIndex = new IdentityHashMap<>();
+        int count = 0;
+        int maxGates = 0;
+        for (int i = 0; i < inputPorts.length; i++) {
+            inputGateOffset[i] = count;
+            for (Gate gate : inputPorts[i].getGates()) {
+                inputIndex.put(gate, count++);
+            }
+            maxGates = Math.max(maxGates, inputPorts[i].getGates().size());
+        }
+        inputGateCount = count;
+        maxPortGates = maxGates;
+        inputScratch = ThreadLocal.withInitial(() -> new float[][]{new float[inputGateCount], new float[maxPortGates]});
+
+        // the backward cone of each output port, a gate is owned by the first port which needs it
+        Port[] outputPorts = network.getOutputSlots();
+        IdentityHashMap<Gate, Integer> owner = new IdentityHashMap<>();
+        ArrayList<List<Gate>> cones = new ArrayList<>();
+        int cross = 0;
+        for (int i = 0; i < outputPorts.length; i++) {
+            List<Gate> cone = collectCone(outputPorts[i], inputIndex);
+            for (Gate gate : cone) {
+                if (!owner.containsKey(gate)) {
+                    owner.put(gate, i);
+                }
+            }
+            cones.add(cone);
+        }
+        shards = new Shard[outputPorts.length];
+        for (int i = 0; i < outputPorts.length; i++) {
+            shards[i] = new Shard(outputPorts[i], i, cones.get(i), inputIndex, owner);
+        }
+        for (Gate gate : owner.keySet()) {
+            final int from = owner.get(gate);
+            for (Edge out : gate.getOuts()) {
+                final Integer to = owner.get((Gate) out.getTo());
+                cross += (to != null && to != from) ? 1 : 0;
+            }
+        }
+        crossShardEdges = cross;
+
+        this.ownExecutor = (executor == null);
+        if (executor == null) {
+            final int threads = Math.max(1, Math.min(shards.length - 1, Runtime.getRuntime().availableProcessors()));
+            executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, network.name + "-Shard");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        this.executor = executor;
+        LOG.debug(network.name + ": " + toString());
+    }
+
+    /**
+     * @return the gates of the port and of its backward cone (without the input gates), inputs first
+     */
+    private static List<Gate> collectCone(Port port, IdentityHashMap<Gate, Integer> inputIndex) {
+        IdentityHashMap<Gate, Boolean> visited = new IdentityHashMap<>();
+        ArrayList<Gate> cone = new ArrayList<>();
+        for (Gate gate : port.getGates()) {
+            visited.put(gate, Boolean.TRUE);
+        }
+        ArrayList<Gate> pending = new ArrayList<>(port.getGates());
+        while (!pending.isEmpty()) {
+            final Gate gate = pending.remove(pending.size() - 1);
+            for (Edge in : gate.getIns()) {
+                final Gate from = (Gate) in.getFrom();
+                if (!inputIndex.containsKey(from) && visited.put(from, Boolean.TRUE) == null) {
+                    cone.add(from);
+                    pending.add(from);
+                }
+            }
+        }
+        cone.sort((a, b) -> Integer.compare(a.getLevel(), b.getLevel()));
+        cone.addAll(port.getGates());  // the gates of the port are the last ones
+        return cone;
+    }
+
+    public int getOutputSize() {
+        return outputSize;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @return the number of gates evaluated by the shard (owned and replicated ones, including the gates of its port)
+     */
+    public int getShardGateCount(int shard) {
+        return shards[shard].gates.size();
+    }
+
+    /**
+     * @return the number of gates the shard evaluates although they are owned by another shard
+     */
+    public int getReplicatedGateCount(int shard) {
+        return shards[shard].replicatedGates;
+    }
+
+    /**
+     * @return the number of edges from a gate of one shard to a gate of another shard (not counting the shared input gates)
+     */
+    public int getCrossShardEdges() {
+        return crossShardEdges;
+    }
+
+    public int[] query(int[] inputPattern) {
+        int[] result = new int[outputSize];
+        queryInto(inputPattern, result);
+        return result;
+    }
+
+    /**
+     * Same as Network.queryInto(), the output values are in the same order as Network.getOutputValues() returns them.
+     * @param inputPattern the input-values
+     * @param outputValues receives the output-values
+     */
+    public void queryInto(int[] inputPattern, int[] outputValues) {
+        final float[][] scratch = inputScratch.get();
+        final float[] inputValues = scratch[0];
+        for (int i = 0; i < inputPorts.length; i++) {
+            final int gateCount = inputPorts[i].getGates().size();
+            if (i < inputPattern.length) {
+                inputPorts[i].encodeValue(inputPattern[i], scratch[1]);
+                System.arraycopy(scratch[1], 0, inputValues, inputGateOffset[i], gateCount);
+            } else {
+                Arrays.fill(inputValues, inputGateOffset[i], inputGateOffset[i] + gateCount, 0.0f);
+            }
+        }
+
+        ArrayList<Future<Integer>> futures = new ArrayList<>(shards.length);
+        for (int s = 1; s < shards.length; s++) {
+            final Shard shard = shards[s];
+            futures.add(executor.submit(() -> shard.evaluate(inputValues)));
+        }
+        if (shards.length > 0 && outputValues.length > 0) {
+            outputValues[0] = shards[0].evaluate(inputValues);
+        }
+        try {
+            for (int s = 1; s < shards.length; s++) {
+                final int value = futures.get(s - 1).get();
+                if (s < outputValues.length) {
+                    outputValues[s] = value;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Sharded query was interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Sharded query failed", ex.getCause());
+        }
+    }
+
+    /**
+     * Shuts down the pool, if it was created by this evaluator.
+     */
+    public void shutdown() {
+        if (ownExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("ShardedEvaluator{shards=").append(shards.length).append(", crossShardEdges=").append(crossShardEdges).append(", [");
+        for (int s = 0; s < shards.length; s++) {
+            if (s > 0) {
+                sb.append(", ");
+            }
+            sb.append(shards[s].port.name()).append(": gates=").append(shards[s].gates.size())
+                    .append(" replicated=").append(shards[s].replicatedGates);
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+}
@@ -10,13 +10,14 @@ public class Visitor {
 
     private static final Logger LOG = LogManager.getLogger(Visitor.class);
 
-    private static int s_visitSessionId = 0;
-
     public final int sessionId;
     public final LinkedList<LinkedList<Visitable>> paths;
 
-    public Visitor() {
-        this.sessionId = ++s_visitSessionId;
+    /**
+     * @param sessionId must be unique among the visitors of the nodes, e.g. allocated by Network.nextVisitSessionId()
+     */
+    public Visitor(int sessionId) {
+        this.sessionId = sessionId;
         this.paths = new LinkedList<>();
     }
 
@@ -0,0 +1,304 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import rapid.net.port.Port;
+
+/**
+ * Evaluates a stream of queries with several of them in flight at different depths of the network (wave pipelining).
+ *
+ * The hidden and output gates are grouped by their level (see Gate.getLevel()) into stages, each stage
+ * evaluates its gates on its own thread and hands the wave over to the next stage. Every gate has a slot
+ * for each of the getDepth() waves which may be in flight; submit() blocks while all slots are in use.
+ * The results are delivered in the order of the queries. So the throughput is bounded by the slowest
+ * stage instead of the latency of the whole network.
+ *
+ * The results are the same as the ones of a NetworkSnapshot. The stages are compiled from the network
+ * when the pipeline is created (see CompiledGates), so later learning is not seen by it; the pipeline
+ * does not change the cycles or the hit-statistics of the network. close() stops its threads.
+ * PortStreams are not supported.
+ *
+ * @author Bernhard
+ */
+public class WavePipeline implements AutoCloseable {
+
+    private static final Logger LOG = LogManager.getLogger(WavePipeline.class);
+
+    /**
+     * A query in flight.
+     */
+    private static final class Wave {
+
+        final int slot;
+        final CompletableFuture<int[]> future = new CompletableFuture<>();
+
+        Wave(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    // is passed through the stages by close()
+    private static final Wave STOP = new Wave(-1);
+
+    /**
+     * The gates of a range of levels, in topological order.
+     */
+    private final class Stage implements Runnable {
+
+        final int[] gates;      // the indexes of the gates
+        final CompiledGates compiled;
+        final float[] gathered;
+        final BlockingQueue<Wave> waves = new LinkedBlockingQueue<>();
+        Stage next;
+
+        Stage(List<Gate> stageGates, IdentityHashMap<Gate, Integer> index) {
+            gates = new int[stageGates.size()];
+            for (int g = 0; g < stageGates.size(); g++) {
+                gates[g] = index.get(stageGates.get(g));
+            }
+            compiled = new CompiledGates(stageGates, gate -> index.getOrDefault(gate, -1));
+            gathered = new float[compiled.maxFanIn];
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Wave wave = waves.take();
+                    if (wave != STOP) {
+                        evaluate(values[wave.slot]);
+                    }
+                    if (next != null) {
+                        next.waves.add(wave);
+                    } else if (wave != STOP) {
+                        complete(wave);
+                    }
+                    if (wave == STOP) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void evaluate(float[] vals) {
+            for (int g = 0; g < gates.length; g++) {
+                vals[gates[g]] = compiled.evaluate(g, vals, gathered);
+            }
+        }
+    }
+
+    private final String name;
+    private final int cycle;
+    private final int depth;
+    private final Port[] inputPorts;
+    private final int[] inputGateOffset;
+    private final Port.Decoder[] outputDecoders;
+    private final int[][] outputGates;
+    private final int outputSize;
+    private final float[][] values;     // [slot][gate]
+    private final Stage[] stages;
+    private final Thread[] threads;
+    private final Semaphore freeSlots;
+    private final float[] inputScratch;
+    private final float[][] outputScratch;
+    private long submitted = 0;         // guarded by this
+    private long completed = 0;         // guarded by this
+    private volatile boolean closed = false;
+
+    /**
+     * @param network the network to compile
+     * @param depth the number of waves which may be in flight at once
+     * @param maxStages the maximum number of stages (and threads), the levels are distributed evenly on them
+     */
+    public WavePipeline(Network network, int depth, int maxStages) {
+        if (network.hasStreams()) {
+            throw new UnsupportedOperationException(network.name + ": wave pipelining of networks with PortStreams is not supported");
+        }
+        if (depth <= 0 || maxStages <= 0) {
+            throw new IllegalArgumentException("The depth and the number of stages must be positive");
+        }
+        this.name = network.name;
+        this.cycle = network.getCycles() + 1;
+        this.depth = depth;
+        this.outputSize = network.getOutputSize();
+        this.inputPorts = network.getInputSlots().clone();
+        final Port[] outputPorts = network.getOutputSlots();
+
+        // all gates get an index: the input gates first, then the hidden and output gates by their level
+        IdentityHashMap<Gate, Integer> index = new IdentityHashMap<>();
+        inputGateOffset = new int[inputPorts.length + 1];
+        int maxPortGates = 0;
+        for (int i = 0; i < inputPorts.length; i++) {
+            inputGateOffset[i] = index.size();
+            for (Gate gate : inputPorts[i].getGates()) {
+                index.put(gate, index.size());
+            }
+            maxPortGates = Math.max(maxPortGates, inputPorts[i].getGates().size());
+        }
+        inputGateOffset[inputPorts.length] = index.size();
+        ArrayList<Gate> gates = new ArrayList<>(network.getGates());
+        for (Port port : outputPorts) {
+            gates.addAll(port.getGates());
+        }
+        gates.sort((a, b) -> Integer.compare(a.getLevel(), b.getLevel()));
+        for (Gate gate : gates) {
+            index.put(gate, index.size());
+        }
+        outputDecoders = new Port.Decoder[outputPorts.length];
+        outputGates = new int[outputPorts.length][];
+        outputScratch = new float[outputPorts.length][];
+        for (int i = 0; i < outputPorts.length; i++) {
+            final List<Gate> portGates = outputPorts[i].getGates();
+            outputDecoders[i] = outputPorts[i].freezeDecoder();
+            outputGates[i] = new int[portGates.size()];
+            for (int g = 0; g < portGates.size(); g++) {
+                outputGates[i][g] = index.get(portGates.get(g));
+            }
+            outputScratch[i] = new float[portGates.size()];
+        }
+        inputScratch = new float[maxPortGates];
+        values = new float[depth][index.size()];
+
+        // the levels are distributed on the stages, so each stage has about the same number of levels
+        ArrayList<List<Gate>> levels = new ArrayList<>();
+        int level = Integer.MIN_VALUE;
+        for (Gate gate : gates) {
+            if (gate.getLevel() != level) {
+                levels.add(new ArrayList<>());
+                level = gate.getLevel();
+            }
+            levels.get(levels.size() - 1).add(gate);
+        }
+        final int stageCount = Math.max(1, Math.min(maxStages, levels.size()));
+        stages = new Stage[stageCount];
+        threads = new Thread[stageCount];
+        for (int s = 0; s < stageCount; s++) {
+            ArrayList<Gate> stageGates = new ArrayList<>();
+            for (int l = s * levels.size() / stageCount; l < (s + 1) * levels.size() / stageCount; l++) {
+                stageGates.addAll(levels.get(l));
+            }
+            stages[s] = new Stage(stageGates, index);
+            if (s > 0) {
+                stages[s - 1].next = stages[s];
+            }
+        }
+        freeSlots = new Semaphore(depth);
+        for (int s = 0; s < stageCount; s++) {
+            threads[s] = new Thread(stages[s], network.name + "-Wave" + s);
+            threads[s].setDaemon(true);
+            threads[s].start();
+        }
+        LOG.debug(network.name + ": " + toString());
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getStageCount() {
+        return stages.length;
+    }
+
+    public int getOutputSize() {
+        return outputSize;
+    }
+
+    /**
+     * @return the number of waves which were submitted, but are not completed yet
+     */
+    public synchronized int getWavesInFlight() {
+        return (int) (submitted - completed);
+    }
+
+    /**
+     * Starts a wave for the query, blocks while getDepth() waves are in flight.
+     * The futures are completed in the order the queries were submitted.
+     * @param inputPattern the input-values
+     * @return the output-values in the same order as Network.getOutputValues() returns them
+     */
+    public CompletableFuture<int[]> submit(int[] inputPattern) throws InterruptedException {
+        freeSlots.acquire();
+        final Wave wave;
+        synchronized (this) {
+            if (closed) {
+                freeSlots.release();
+                throw new IllegalStateException(name + ": the pipeline is closed");
+            }
+            wave = new Wave((int) (submitted++ % depth));
+            // the input stage: encode into the slot of the wave
+            final float[] vals = values[wave.slot];
+            for (int i = 0; i < inputPorts.length; i++) {
+                final int offset = inputGateOffset[i];
+                final int gateCount = inputGateOffset[i + 1] - offset;
+                if (i < inputPattern.length) {
+                    inputPorts[i].encodeValue(inputPattern[i], inputScratch);
+                    System.arraycopy(inputScratch, 0, vals, offset, gateCount);
+                } else {
+                    Arrays.fill(vals, offset, offset + gateCount, 0.0f);
+                }
+            }
+            stages[0].waves.add(wave);
+        }
+        return wave.future;
+    }
+
+    public int[] query(int[] inputPattern) throws InterruptedException {
+        return submit(inputPattern).join();
+    }
+
+    private void complete(Wave wave) {
+        final float[] vals = values[wave.slot];
+        final int[] outputValues = new int[outputSize];
+        for (int i = 0; i < outputDecoders.length && i < outputSize; i++) {
+            final int[] gates = outputGates[i];
+            final float[] gateResults = outputScratch[i];
+            for (int g = 0; g < gates.length; g++) {
+                gateResults[g] = vals[gates[g]];
+            }
+            outputValues[i] = outputDecoders[i].decode(gateResults, cycle);
+        }
+        synchronized (this) {
+            completed++;
+        }
+        freeSlots.release();
+        wave.future.complete(outputValues);
+    }
+
+    /**
+     * Completes the waves in flight and stops the threads. If the calling thread is interrupted,
+     * it does not wait for the threads any longer (and keeps its interrupt flag).
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            stages[0].waves.add(STOP);
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "WavePipeline{depth=" + depth + ", stages=" + stages.length + ", gates=" + values[0].length + "}";
+    }
+}
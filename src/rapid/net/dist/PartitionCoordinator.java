@@ -0,0 +1,383 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.dist;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Splits a network into partitions by its output ports and runs each partition on a PartitionWorker,
+ * which is usually a process of its own on the same host.
+ *
+ * Every partition holds all input ports and the output ports assigned to it, so the learned gates
+ * (which connect inputs to one output port) are never shared between the partitions. A query sends
+ * the input values to all partitions first and collects their output values afterwards, so the
+ * partitions evaluate in parallel; a learn sends each partition its slice of the output pattern.
+ *
+ * The replies of all partitions are read before an error of a partition is thrown, so the connections
+ * stay in sync. If a connection fails, the coordinator is broken and rejects all further requests.
+ *
+ * The coordinator is not thread-safe, use one per thread.
+ *
+ * @author Bernhard
+ */
+public class PartitionCoordinator implements AutoCloseable {
+
+    private static final Logger LOG = LogManager.getLogger(PartitionCoordinator.class);
+
+    /**
+     * The connection to one worker and the output values it owns.
+     */
+    private static final class Partition {
+
+        final InetSocketAddress address;
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        final ArrayList<PortSpec> outputs = new ArrayList<>();
+        final ArrayList<Integer> valueOffsets = new ArrayList<>();  // offset in the output pattern of each output port
+        int valueCount = 0;
+
+        Partition(InetSocketAddress address) throws IOException {
+            this.address = address;
+            this.socket = new Socket(address.getAddress(), address.getPort());
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(Protocol.MAGIC);
+            out.writeByte(Protocol.VERSION);
+        }
+
+        /**
+         * @return null if the status is OK, else the error message of the worker (then there is no payload)
+         */
+        String readStatus() throws IOException {
+            return (in.readByte() != Protocol.STATUS_OK) ? in.readUTF() : null;
+        }
+
+        void close() {
+            try {
+                out.writeByte(Protocol.CLOSE);
+                out.flush();
+            } catch (IOException ex) {
+                LOG.debug(address + ": close failed: " + ex.getMessage());
+            }
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                LOG.debug(address + ": close failed: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads the payload of the reply of a partition.
+     */
+    private interface ReplyReader {
+
+        void read(int index, Partition partition) throws IOException;
+    }
+
+    public final String name;
+    private final int inputSize;
+    private final int outputSize;
+    private final Partition[] partitions;
+    private boolean broken = false;
+
+    /**
+     * Assigns output port i to worker i modulo the number of workers.
+     * @see #PartitionCoordinator(java.lang.String, java.util.List, java.util.List, java.util.List, int[])
+     */
+    public PartitionCoordinator(String name, List<PortSpec> inputs, List<PortSpec> outputs, List<InetSocketAddress> workers) throws IOException {
+        this(name, inputs, outputs, workers, null);
+    }
+
+    /**
+     * Connects to the workers and creates the partitions of the network there.
+     * @param name the name of the network, the partitions are named name-0, name-1, ...
+     * @param inputs the input ports, which are created in every partition
+     * @param outputs the output ports
+     * @param workers the addresses of the workers, one partition per worker
+     * @param assignment the index of the worker of each output port, null to distribute them round-robin
+     * @throws IOException if a worker could not be reached
+     */
+    public PartitionCoordinator(String name, List<PortSpec> inputs, List<PortSpec> outputs, List<InetSocketAddress> workers, int[] assignment) throws IOException {
+        if (workers.isEmpty()) {
+            throw new IllegalArgumentException(name + ": at least one worker is needed");
+        }
+        if (assignment != null && assignment.length != outputs.size()) {
+            throw new IllegalArgumentException(name + ": the assignment needs one worker per output port");
+        }
+        this.name = name;
+        int size = 0;
+        for (PortSpec input : inputs) {
+            size += input.getValueCount();
+        }
+        this.inputSize = size;
+
+        partitions = new Partition[workers.size()];
+        try {
+            for (int p = 0; p < partitions.length; p++) {
+                partitions[p] = new Partition(workers.get(p));
+            }
+            size = 0;
+            for (int o = 0; o < outputs.size(); o++) {
+                final int p = (assignment != null) ? assignment[o] : (o % partitions.length);
+                if (p < 0 || p >= partitions.length) {
+                    throw new IllegalArgumentException(name + ": unknown worker " + p + " for output " + outputs.get(o));
+                }
+                partitions[p].outputs.add(outputs.get(o));
+                partitions[p].valueOffsets.add(size);
+                partitions[p].valueCount += outputs.get(o).getValueCount();
+                size += outputs.get(o).getValueCount();
+            }
+            this.outputSize = size;
+
+            for (int p = 0; p < partitions.length; p++) {
+                final Partition partition = partitions[p];
+                if (partition.outputs.isEmpty()) {
+                    throw new IllegalArgumentException(name + ": no output assigned to worker " + partition.address);
+                }
+                partition.out.writeByte(Protocol.CREATE);
+                partition.out.writeUTF(name + "-" + p);
+                writeSpecs(partition.out, inputs);
+                writeSpecs(partition.out, partition.outputs);
+                partition.out.flush();
+            }
+            readReplies("create", (p, partition) -> {
+            });
+        } catch (IOException | RuntimeException ex) {
+            close();
+            throw ex;
+        }
+        LOG.info(toString());
+    }
+
+    private static void writeSpecs(DataOutputStream out, List<PortSpec> specs) throws IOException {
+        Protocol.writeVarInt(out, specs.size());
+        for (PortSpec spec : specs) {
+            spec.write(out);
+        }
+    }
+
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    public int getOutputSize() {
+        return outputSize;
+    }
+
+    public int getPartitionCount() {
+        return partitions.length;
+    }
+
+    /**
+     * @return true if a connection has failed, then all requests are rejected
+     */
+    public boolean isBroken() {
+        return broken;
+    }
+
+    private void checkBroken() {
+        if (broken) {
+            throw new IllegalStateException(name + ": the connection to a partition has failed");
+        }
+    }
+
+    /**
+     * Reads the replies of all partitions, the payload of a partition is only read if its status is OK.
+     * @throws IllegalStateException with the messages of all partitions which have failed
+     */
+    private void readReplies(String request, ReplyReader reader) throws IOException {
+        StringBuilder errors = null;
+        for (int p = 0; p < partitions.length; p++) {
+            final String error = partitions[p].readStatus();
+            if (error == null) {
+                reader.read(p, partitions[p]);
+            } else {
+                errors = (errors == null) ? new StringBuilder(name).append(": ").append(request).append(" failed in ") : errors.append(", ");
+                errors.append(partitions[p].address).append(": ").append(error);
+            }
+        }
+        if (errors != null) {
+            throw new IllegalStateException(errors.toString());
+        }
+    }
+
+    public int[] query(int[] inputPattern) {
+        int[] result = new int[outputSize];
+        queryInto(inputPattern, result);
+        return result;
+    }
+
+    /**
+     * Same as Network.queryInto(), the output values are in the order of the output ports.
+     * @param inputPattern the input-values
+     * @param outputValues receives the output-values
+     */
+    public void queryInto(int[] inputPattern, int[] outputValues) {
+        checkBroken();
+        try {
+            for (Partition partition : partitions) {
+                partition.out.writeByte(Protocol.QUERY);
+                Protocol.writeValues(partition.out, inputPattern, 0, inputPattern.length);
+                partition.out.flush();
+            }
+            readReplies("query", (p, partition) -> readSlices(partition, outputValues));
+        } catch (IOException ex) {
+            broken = true;
+            throw new UncheckedIOException(name + ": query failed", ex);
+        }
+    }
+
+    /**
+     * Learns the pattern, each partition learns the values of its output ports.
+     * @return true if at least one partition has inserted gates
+     */
+    public boolean learn(int[] inputPattern, int[] outputPattern, boolean optimize) {
+        checkBroken();
+        try {
+            int[] slice = new int[0];
+            for (Partition partition : partitions) {
+                if (slice.length != partition.valueCount) {
+                    slice = new int[partition.valueCount];
+                }
+                int index = 0;
+                for (int o = 0; o < partition.outputs.size(); o++) {
+                    final int offset = partition.valueOffsets.get(o);
+                    final int count = partition.outputs.get(o).getValueCount();
+                    for (int i = 0; i < count; i++) {
+                        slice[index++] = (offset + i < outputPattern.length) ? outputPattern[offset + i] : 0;
+                    }
+                }
+                partition.out.writeByte(Protocol.LEARN);
+                Protocol.writeValues(partition.out, inputPattern, 0, inputPattern.length);
+                Protocol.writeValues(partition.out, slice, 0, slice.length);
+                partition.out.writeBoolean(optimize);
+                partition.out.flush();
+            }
+            boolean[] learned = new boolean[1];
+            readReplies("learn", (p, partition) -> learned[0] |= partition.in.readBoolean());
+            return learned[0];
+        } catch (IOException ex) {
+            broken = true;
+            throw new UncheckedIOException(name + ": learn failed", ex);
+        }
+    }
+
+    /**
+     * @return the number of optimized gates of all partitions
+     */
+    public int optimizeAll() {
+        checkBroken();
+        try {
+            for (Partition partition : partitions) {
+                partition.out.writeByte(Protocol.OPTIMIZE);
+                partition.out.flush();
+            }
+            int[] count = new int[1];
+            readReplies("optimize", (p, partition) -> count[0] += Protocol.readVarInt(partition.in));
+            return count[0];
+        } catch (IOException ex) {
+            broken = true;
+            throw new UncheckedIOException(name + ": optimize failed", ex);
+        }
+    }
+
+    /**
+     * @return the number of gates of each partition (including the gates of its ports)
+     */
+    public int[] getGateCounts() {
+        checkBroken();
+        try {
+            for (Partition partition : partitions) {
+                partition.out.writeByte(Protocol.STATS);
+                partition.out.flush();
+            }
+            int[] gates = new int[partitions.length];
+            readReplies("stats", (p, partition) -> {
+                gates[p] = Protocol.readVarInt(partition.in);
+                Protocol.readVarInt(partition.in);     // edges
+                Protocol.readVarInt(partition.in);     // cycles
+            });
+            return gates;
+        } catch (IOException ex) {
+            broken = true;
+            throw new UncheckedIOException(name + ": stats failed", ex);
+        }
+    }
+
+    private static void readSlices(Partition partition, int[] outputValues) throws IOException {
+        final int count = Protocol.readVarInt(partition.in);
+        int o = 0;
+        int i = 0;
+        for (int v = 0; v < count; v++) {
+            final int value = Protocol.readVarInt(partition.in);
+            while (o < partition.outputs.size() && i >= partition.outputs.get(o).getValueCount()) {
+                o++;
+                i = 0;
+            }
+            if (o < partition.outputs.size()) {
+                final int index = partition.valueOffsets.get(o) + i++;
+                if (index < outputValues.length) {
+                    outputValues[index] = value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the connections, the workers keep running and accept the next coordinator.
+     */
+    @Override
+    public void close() {
+        for (Partition partition : partitions) {
+            if (partition != null) {
+                partition.close();
+            }
+        }
+    }
+
+    /**
+     * Closes the connections and stops the workers.
+     */
+    public void shutdownWorkers() {
+        for (Partition partition : partitions) {
+            if (partition != null) {
+                try {
+                    partition.out.writeByte(Protocol.SHUTDOWN);
+                    partition.out.flush();
+                } catch (IOException ex) {
+                    LOG.debug(partition.address + ": shutdown failed: " + ex.getMessage());
+                }
+            }
+        }
+        close();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(name).append("{partitions=").append(partitions.length).append(", [");
+        for (int p = 0; p < partitions.length; p++) {
+            if (p > 0) {
+                sb.append(", ");
+            }
+            if (partitions[p] != null) {
+                sb.append(partitions[p].address).append(": ").append(partitions[p].outputs);
+            }
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+}
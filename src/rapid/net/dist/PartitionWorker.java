@@ -0,0 +1,263 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.dist;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import rapid.net.MemoryFootprint;
+import rapid.net.Network;
+
+/**
+ * Holds one partition of a network (all inputs and some of the outputs) and learns and queries it
+ * on behalf of a PartitionCoordinator, usually in a process of its own:
+ * <pre>
+ *   java -cp ... rapid.net.dist.PartitionWorker [port]
+ * </pre>
+ * The worker listens on the loopback interface and serves one coordinator-connection after the other.
+ * When started with port 0, a free port is chosen, which is printed as "PartitionWorker listening on port n".
+ *
+ * @author Bernhard
+ */
+public class PartitionWorker implements Runnable {
+
+    private static final Logger LOG = LogManager.getLogger(PartitionWorker.class);
+
+    public static final String LISTENING = "PartitionWorker listening on port ";
+
+    /**
+     * A worker started in a process of its own by launch().
+     */
+    public static final class Handle {
+
+        private final Process process;
+        private final InetSocketAddress address;
+
+        private Handle(Process process, InetSocketAddress address) {
+            this.process = process;
+            this.address = address;
+        }
+
+        public Process getProcess() {
+            return process;
+        }
+
+        public InetSocketAddress getAddress() {
+            return address;
+        }
+
+        public void destroy() {
+            process.destroy();
+        }
+    }
+
+    private final ServerSocket serverSocket;
+    private Network network;
+    private volatile boolean running = true;
+
+    public PartitionWorker(int port) throws IOException {
+        this.serverSocket = new ServerSocket(port, 1, InetAddress.getLoopbackAddress());
+    }
+
+    public InetSocketAddress getAddress() {
+        return new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+    }
+
+    public static void main(String[] args) throws IOException {
+        PartitionWorker worker = new PartitionWorker((args.length > 0) ? Integer.parseInt(args[0]) : 0);
+        System.out.println(LISTENING + worker.getAddress().getPort());
+        System.out.flush();
+        worker.run();
+    }
+
+    /**
+     * Starts a worker in a new JVM on this host, with the classpath of this JVM.
+     * @return the handle of the started worker, after it listens
+     * @throws IOException if the worker could not be started
+     */
+    public static Handle launch() throws IOException {
+        final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), PartitionWorker.class.getName(), "0");
+        builder.redirectErrorStream(true);
+        Process process = builder.start();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(LISTENING)) {
+                final int port = Integer.parseInt(line.substring(LISTENING.length()).trim());
+                Thread drain = new Thread(() -> {
+                    try {
+                        while (reader.readLine() != null) {
+                            // the log of the worker is not needed here
+                        }
+                    } catch (IOException ex) {
+                        // the worker has stopped
+                    }
+                }, "PartitionWorker-" + port + "-Output");
+                drain.setDaemon(true);
+                drain.start();
+                return new Handle(process, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            }
+        }
+        process.destroy();
+        throw new IOException("PartitionWorker did not start");
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                try (Socket socket = serverSocket.accept()) {
+                    socket.setTcpNoDelay(true);
+                    serve(socket);
+                } catch (IOException ex) {
+                    if (running) {
+                        LOG.error("PartitionWorker: connection failed: " + ex.getMessage());
+                    }
+                }
+            }
+        } finally {
+            stop();
+        }
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException ex) {
+            LOG.debug("PartitionWorker: close failed: " + ex.getMessage());
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        if (in.readInt() != Protocol.MAGIC || in.readUnsignedByte() != Protocol.VERSION) {
+            throw new IOException("Unknown protocol");
+        }
+        while (true) {
+            final byte message;
+            try {
+                message = in.readByte();
+            } catch (EOFException ex) {
+                return;
+            }
+            try {
+                if (!handle(message, in, out)) {
+                    out.flush();
+                    return;
+                }
+            } catch (RuntimeException ex) {
+                LOG.error("PartitionWorker: " + ex.getMessage(), ex);
+                out.writeByte(Protocol.STATUS_ERROR);
+                out.writeUTF(String.valueOf(ex.getMessage()));
+            }
+            if (in.available() == 0) {
+                out.flush();    // the coordinator pipelines its requests, reply when all of them are processed
+            }
+        }
+    }
+
+    /**
+     * @return false if the connection is to be closed
+     */
+    private boolean handle(byte message, DataInputStream in, DataOutputStream out) throws IOException {
+        switch (message) {
+            case Protocol.CREATE:
+                create(in, out);
+                break;
+            case Protocol.LEARN: {
+                final int[] input = Protocol.readValues(in);
+                final int[] output = Protocol.readValues(in);
+                final boolean optimize = in.readBoolean();
+                if (checkNetwork(out)) {
+                    final boolean learned = network.learn(input, output, null, optimize);
+                    out.writeByte(Protocol.STATUS_OK);
+                    out.writeBoolean(learned);
+                }
+                break;
+            }
+            case Protocol.QUERY: {
+                final int[] input = Protocol.readValues(in);
+                if (checkNetwork(out)) {
+                    final int[] output = network.query(input, null);
+                    out.writeByte(Protocol.STATUS_OK);
+                    Protocol.writeValues(out, output, 0, output.length);
+                }
+                break;
+            }
+            case Protocol.OPTIMIZE:
+                if (checkNetwork(out)) {
+                    final int count = network.optimizeAll();
+                    out.writeByte(Protocol.STATUS_OK);
+                    Protocol.writeVarInt(out, count);
+                }
+                break;
+            case Protocol.STATS:
+                if (checkNetwork(out)) {
+                    final MemoryFootprint footprint = MemoryFootprint.of(network);
+                    out.writeByte(Protocol.STATUS_OK);
+                    Protocol.writeVarInt(out, footprint.getGateCount());
+                    Protocol.writeVarInt(out, footprint.getEdgeCount());
+                    Protocol.writeVarInt(out, network.getCycles());
+                }
+                break;
+            case Protocol.CLOSE:
+                return false;
+            case Protocol.SHUTDOWN:
+                running = false;
+                return false;
+            default:
+                throw new IOException("Unknown message " + message);
+        }
+        return true;
+    }
+
+    private void create(DataInputStream in, DataOutputStream out) throws IOException {
+        final String name = in.readUTF();
+        List<PortSpec> inputs = readSpecs(in);
+        List<PortSpec> outputs = readSpecs(in);
+        network = new Network(name);
+        for (PortSpec spec : inputs) {
+            network.addInput(spec.create(network.getCycles()));
+        }
+        for (PortSpec spec : outputs) {
+            network.addOutput(spec.create(network.getCycles()));
+        }
+        LOG.info("PartitionWorker: created " + network + " inputs=" + inputs + " outputs=" + outputs);
+        out.writeByte(Protocol.STATUS_OK);
+    }
+
+    private static List<PortSpec> readSpecs(DataInputStream in) throws IOException {
+        final int count = Protocol.readVarInt(in);
+        ArrayList<PortSpec> specs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            specs.add(PortSpec.read(in));
+        }
+        return specs;
+    }
+
+    private boolean checkNetwork(DataOutputStream out) throws IOException {
+        if (network == null) {
+            out.writeByte(Protocol.STATUS_ERROR);
+            out.writeUTF("No network created");
+            return false;
+        }
+        return true;
+    }
+}
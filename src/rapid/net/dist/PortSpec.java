@@ -0,0 +1,134 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.dist;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import rapid.net.port.PortFactory;
+import rapid.net.port.Portable;
+
+/**
+ * Description of a port, from which the coordinator and the workers create the same port
+ * by the PortFactory. Only the ports with a fixed structure are supported, not the
+ * MapToOneHotPorts, PortStreams and (user-defined) PortGroups.
+ *
+ * @author Bernhard
+ */
+public final class PortSpec {
+
+    public enum Type {
+        ONE_HOT, FUZZY, VECTOR, MATRIX, BINARY
+    }
+
+    private final Type type;
+    private final String name;
+    private final int[] params;
+
+    private PortSpec(Type type, String name, int... params) {
+        this.type = type;
+        this.name = name;
+        this.params = params;
+    }
+
+    /**
+     * @see PortFactory#createOneHot(java.lang.String, int, int)
+     */
+    public static PortSpec oneHot(String name, int max) {
+        return new PortSpec(Type.ONE_HOT, name, max);
+    }
+
+    /**
+     * @see PortFactory#createFuzzy(java.lang.String, int, int)
+     */
+    public static PortSpec fuzzy(String name, int max) {
+        return new PortSpec(Type.FUZZY, name, max);
+    }
+
+    /**
+     * @see PortFactory#createVector(java.lang.String, int, int, int)
+     */
+    public static PortSpec vector(String name, int size, int max) {
+        return new PortSpec(Type.VECTOR, name, size, max);
+    }
+
+    /**
+     * @see PortFactory#createMatrix(java.lang.String, int, int, int, int)
+     */
+    public static PortSpec matrix(String name, int cols, int rows, int max) {
+        return new PortSpec(Type.MATRIX, name, cols, rows, max);
+    }
+
+    /**
+     * @see PortFactory#createBinary(java.lang.String, int, int)
+     */
+    public static PortSpec binary(String name, int bits) {
+        return new PortSpec(Type.BINARY, name, bits);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of values this port takes in an input- or output-pattern
+     */
+    public int getValueCount() {
+        switch (type) {
+            case VECTOR:
+                return params[0];
+            case MATRIX:
+                return params[0] * params[1];
+            default:
+                return 1;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    public Portable create(int cycle) {
+        switch (type) {
+            case ONE_HOT:
+                return PortFactory.createOneHot(name, params[0], cycle);
+            case FUZZY:
+                return PortFactory.createFuzzy(name, params[0], cycle);
+            case VECTOR:
+                return PortFactory.createVector(name, params[0], params[1], cycle);
+            case MATRIX:
+                return PortFactory.createMatrix(name, params[0], params[1], params[2], cycle);
+            case BINARY:
+                return PortFactory.createBinary(name, params[0], cycle);
+            default:
+                throw new IllegalStateException("Unknown port type " + type);
+        }
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeByte(type.ordinal());
+        out.writeUTF(name);
+        out.writeByte(params.length);
+        for (int param : params) {
+            Protocol.writeVarInt(out, param);
+        }
+    }
+
+    static PortSpec read(DataInput in) throws IOException {
+        final int ordinal = in.readUnsignedByte();
+        if (ordinal >= Type.values().length) {
+            throw new IOException("Unknown port type " + ordinal);
+        }
+        final String name = in.readUTF();
+        int[] params = new int[in.readUnsignedByte()];
+        for (int i = 0; i < params.length; i++) {
+            params[i] = Protocol.readVarInt(in);
+        }
+        return new PortSpec(Type.values()[ordinal], name, params);
+    }
+
+    @Override
+    public String toString() {
+        return type + "(" + name + ")";
+    }
+}
@@ -0,0 +1,78 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.dist;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The binary protocol between the PartitionCoordinator and its PartitionWorkers.
+ *
+ * Every request is one message-byte followed by its arguments, every reply one status-byte
+ * (STATUS_OK, or STATUS_ERROR followed by the message) followed by its results.
+ * The values of the patterns are zig-zag encoded var-ints, so small values (and NO_VALUE) take one byte.
+ *
+ * @author Bernhard
+ */
+final class Protocol {
+
+    static final int MAGIC = 0x52415044;    // "RAPD"
+    static final int VERSION = 1;
+    static final int MAX_VALUE_COUNT = 64 * 1024;   // a pattern has one value per port, limits the allocation for a damaged message
+
+    // requests
+    static final byte CREATE = 1;       // name, input specs, output specs
+    static final byte LEARN = 2;        // input values, output values, optimize --> learned
+    static final byte QUERY = 3;        // input values --> output values
+    static final byte OPTIMIZE = 4;     // --> count
+    static final byte STATS = 5;        // --> gates, edges, cycles
+    static final byte CLOSE = 6;        // closes the connection
+    static final byte SHUTDOWN = 7;     // stops the worker
+
+    // replies
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+
+    private Protocol() {
+    }
+
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        int v = (value << 1) ^ (value >> 31);   // zig-zag
+        while ((v & ~0x7F) != 0) {
+            out.writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final int b = in.readUnsignedByte();
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new IOException("Malformed var-int");
+    }
+
+    static void writeValues(DataOutput out, int[] values, int offset, int count) throws IOException {
+        writeVarInt(out, count);
+        for (int i = 0; i < count; i++) {
+            writeVarInt(out, values[offset + i]);
+        }
+    }
+
+    static int[] readValues(DataInput in) throws IOException {
+        final int count = readVarInt(in);
+        if (count < 0 || count > MAX_VALUE_COUNT) {
+            throw new IOException("Bad value count " + count);
+        }
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = readVarInt(in);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,55 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.flow;
+
+/**
+ * The interfaces of the reactive streams, with the same methods and contracts as java.util.concurrent.Flow
+ * (which is not available on Java 8). On Java 9 or later they can be adapted with method references.
+ *
+ * @author Bernhard
+ */
+public final class Flow {
+
+    private Flow() {
+    }
+
+    public interface Publisher<T> {
+
+        /**
+         * Adds the subscriber, it receives onSubscribe() first (or onError() if it is rejected).
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * The methods of a subscriber are called one after the other, never concurrently.
+     */
+    public interface Subscriber<T> {
+
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Receives the next item, at most as many items as were requested.
+         */
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    public interface Subscription {
+
+        /**
+         * Adds n items to the demand of the subscriber, a non-positive n results in onError().
+         */
+        void request(long n);
+
+        /**
+         * Stops the delivery of items, some may still arrive.
+         */
+        void cancel();
+    }
+
+    public interface Processor<T, R> extends Subscriber<T>, Publisher<R> {
+    }
+}
@@ -0,0 +1,439 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.flow;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import rapid.net.Network;
+import rapid.net.NetworkPool;
+import rapid.util.Utils;
+
+/**
+ * Connects networks to a reactive stream: it receives Samples (an input pattern, with a target output
+ * pattern for online learning) and emits a Result for each of them.
+ *
+ * Each sample has a stream key (e.g. the player of a MapToOneHotPort), the router selects the network for
+ * the key; it may be the same network for all keys or one network per key. The samples are run as jobs
+ * on a NetworkPool, so the samples of one network are processed one after the other and in batches, while
+ * different networks work in parallel. The results of a key are emitted in the order of its samples, the
+ * results of different keys in the order they are finished.
+ *
+ * Backpressure: at most getBufferSize() samples are requested from the upstream publisher, processed
+ * or waiting for the demand of the subscriber; the processor requests more when half of the buffer is free.
+ * There is one subscriber, a failed sample (or a failing router) terminates the stream with onError().
+ *
+ * @author Bernhard
+ */
+public class NetworkProcessor<K> implements Flow.Processor<NetworkProcessor.Sample<K>, NetworkProcessor.Result<K>> {
+
+    private static final Logger LOG = LogManager.getLogger(NetworkProcessor.class);
+
+    /**
+     * An input pattern of a stream, with the output pattern to learn (or null to query only).
+     */
+    public static final class Sample<K> {
+
+        private final K key;
+        private final int[] inputPattern;
+        private final int[] outputPattern;
+
+        private Sample(K key, int[] inputPattern, int[] outputPattern) {
+            if (inputPattern == null) {
+                throw new IllegalArgumentException("The input pattern is missing");
+            }
+            this.key = key;
+            this.inputPattern = inputPattern;
+            this.outputPattern = outputPattern;
+        }
+
+        public static <K> Sample<K> query(K key, int[] inputPattern) {
+            return new Sample<>(key, inputPattern, null);
+        }
+
+        public static <K> Sample<K> learn(K key, int[] inputPattern, int[] outputPattern) {
+            if (outputPattern == null) {
+                throw new IllegalArgumentException("The output pattern to learn is missing");
+            }
+            return new Sample<>(key, inputPattern, outputPattern);
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        public int[] getInputPattern() {
+            return inputPattern;
+        }
+
+        /**
+         * @return the output pattern to learn, null if the sample is queried only
+         */
+        public int[] getOutputPattern() {
+            return outputPattern;
+        }
+
+        public boolean isLearn() {
+            return outputPattern != null;
+        }
+
+        @Override
+        public String toString() {
+            return "Sample{" + key + ": " + Utils.intArrayToString(inputPattern)
+                    + (isLearn() ? " -> " + Utils.intArrayToString(outputPattern) : "") + "}";
+        }
+    }
+
+    /**
+     * The output values of the network for a sample.
+     */
+    public static final class Result<K> {
+
+        private final Sample<K> sample;
+        private final int[] outputValues;
+        private final boolean learned;
+
+        private Result(Sample<K> sample, int[] outputValues, boolean learned) {
+            this.sample = sample;
+            this.outputValues = outputValues;
+            this.learned = learned;
+        }
+
+        public Sample<K> getSample() {
+            return sample;
+        }
+
+        public K getKey() {
+            return sample.key;
+        }
+
+        /**
+         * @return the output values of the query, for a learned sample the ones before it was learned
+         */
+        public int[] getOutputValues() {
+            return outputValues;
+        }
+
+        /**
+         * @return true if gates were inserted to learn the sample
+         */
+        public boolean isLearned() {
+            return learned;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" + sample.key + ": " + Utils.intArrayToString(sample.inputPattern) + " = " + Utils.intArrayToString(outputValues)
+                    + (sample.isLearn() ? (learned ? " learned" : " known") : "") + "}";
+        }
+    }
+
+    private final class Downstream implements Flow.Subscription {
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("The number of requested items must be positive, but is " + n));
+                return;
+            }
+            synchronized (NetworkProcessor.this) {
+                demand = (demand + n < 0) ? Long.MAX_VALUE : (demand + n);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            final Flow.Subscription source;
+            synchronized (NetworkProcessor.this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                ready.clear();
+                source = upstreamDone ? null : upstream;
+            }
+            if (source != null) {
+                source.cancel();
+            }
+        }
+    }
+
+    private final NetworkPool pool;
+    private final Function<? super K, Network> router;
+    private final int bufferSize;
+    private volatile boolean optimize = false;
+    private final AtomicInteger drains = new AtomicInteger();
+
+    // guarded by this
+    private Flow.Subscription upstream;
+    private boolean subscribed = false;
+    private Flow.Subscriber<? super Result<K>> subscriber;
+    private final HashMap<K, ArrayDeque<CompletableFuture<Result<K>>>> lanes = new HashMap<>();
+    private final ArrayDeque<Result<K>> ready = new ArrayDeque<>();
+    private long upstreamPending = 0;   // requested, but not received yet
+    private int inFlight = 0;
+    private long demand = 0;
+    private long emitted = 0;
+    private boolean upstreamDone = false;
+    private boolean cancelled = false;
+    private boolean terminated = false;
+    private Throwable error;
+
+    /**
+     * All samples are processed by the same network, their results are emitted in order.
+     */
+    public NetworkProcessor(NetworkPool pool, Network network, int bufferSize) {
+        this(pool, key -> network, bufferSize);
+    }
+
+    /**
+     * @param pool runs the samples on the networks, the networks must not be used outside of the pool meanwhile
+     * @param router selects the network for the key of a sample
+     * @param bufferSize the maximum number of samples requested from the upstream publisher and not emitted yet
+     */
+    public NetworkProcessor(NetworkPool pool, Function<? super K, Network> router, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("The buffer size must be positive");
+        }
+        this.pool = pool;
+        this.router = router;
+        this.bufferSize = bufferSize;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public boolean isOptimize() {
+        return optimize;
+    }
+
+    /**
+     * @param optimize passed to Network.learn() for the learned samples
+     */
+    public void setOptimize(boolean optimize) {
+        this.optimize = optimize;
+    }
+
+    /**
+     * @return the number of samples which are processed or wait for the demand of the subscriber
+     */
+    public synchronized int getBuffered() {
+        return inFlight + ready.size();
+    }
+
+    public synchronized long getEmitted() {
+        return emitted;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Result<K>> subscriber) {
+        final boolean rejected;
+        synchronized (this) {
+            rejected = subscribed;
+            subscribed = true;
+        }
+        if (rejected) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("The processor supports only one subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new Downstream());
+        synchronized (this) {
+            this.subscriber = subscriber;
+        }
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        final boolean rejected;
+        synchronized (this) {
+            rejected = (upstream != null) || cancelled;
+            if (!rejected) {
+                upstream = subscription;
+            }
+        }
+        if (rejected) {
+            subscription.cancel();
+            return;
+        }
+        drain();
+    }
+
+    @Override
+    public void onNext(Sample<K> sample) {
+        final CompletableFuture<Result<K>> job;
+        try {
+            final Network network = router.apply(sample.key);
+            synchronized (this) {
+                if (cancelled || terminated || error != null) {
+                    return;
+                }
+                upstreamPending--;
+                inFlight++;
+                job = pool.submit(network, n -> process(n, sample));
+                lanes.computeIfAbsent(sample.key, key -> new ArrayDeque<>()).add(job);
+            }
+        } catch (RuntimeException ex) {
+            fail(ex);
+            return;
+        }
+        job.whenComplete((result, ex) -> {
+            if (ex != null) {
+                fail(ex);
+            } else {
+                collect(sample.key);
+            }
+        });
+    }
+
+    private Result<K> process(Network network, Sample<K> sample) {
+        final int[] outputValues = network.queryCached(sample.inputPattern, null, null);
+        if (!sample.isLearn()) {
+            return new Result<>(sample, outputValues, false);
+        }
+        return new Result<>(sample, outputValues, network.learn(sample.inputPattern, sample.outputPattern, null, optimize));
+    }
+
+    /**
+     * Moves the finished results at the head of the lane of the key to the ready ones, so they keep their order.
+     */
+    private void collect(K key) {
+        synchronized (this) {
+            final ArrayDeque<CompletableFuture<Result<K>>> lane = lanes.get(key);
+            while (lane != null && !lane.isEmpty() && lane.peek().isDone() && !lane.peek().isCompletedExceptionally()) {
+                inFlight--;
+                if (!cancelled) {
+                    ready.add(lane.poll().join());
+                } else {
+                    lane.poll();
+                }
+            }
+            if (lane != null && lane.isEmpty()) {
+                lanes.remove(key);
+            }
+        }
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        synchronized (this) {
+            upstreamDone = true;
+            if (error == null) {
+                error = throwable;
+            }
+        }
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (this) {
+            upstreamDone = true;
+        }
+        drain();
+    }
+
+    private void fail(Throwable throwable) {
+        LOG.warn("The stream failed", throwable);
+        final Flow.Subscription source;
+        synchronized (this) {
+            if (error == null) {
+                error = throwable;
+            }
+            source = upstreamDone ? null : upstream;
+            upstreamDone = true;
+        }
+        if (source != null) {
+            source.cancel();
+        }
+        drain();
+    }
+
+    /**
+     * Emits the ready results, terminates the stream and requests more samples, only one thread at a time.
+     */
+    private void drain() {
+        if (drains.getAndIncrement() != 0) {
+            return;     // the draining thread drains again
+        }
+        int missed = 1;
+        while (true) {
+            Flow.Subscriber<? super Result<K>> target;
+            while (true) {
+                final Result<K> result;
+                synchronized (this) {
+                    target = subscriber;
+                    if (target == null || cancelled || terminated || error != null || demand == 0 || ready.isEmpty()) {
+                        break;
+                    }
+                    result = ready.poll();
+                    demand--;
+                    emitted++;
+                }
+                target.onNext(result);
+            }
+
+            Throwable failure = null;
+            boolean complete = false;
+            long request = 0;
+            final Flow.Subscription source;
+            synchronized (this) {
+                target = subscriber;
+                source = upstream;
+                if (target != null && !cancelled && !terminated) {
+                    if (error != null) {
+                        terminated = true;
+                        failure = error;
+                        ready.clear();
+                    } else if (upstreamDone && inFlight == 0 && ready.isEmpty()) {
+                        terminated = true;
+                        complete = true;
+                    }
+                }
+                if (source != null && !upstreamDone && !cancelled) {
+                    // in batches, not item by item
+                    final long free = bufferSize - upstreamPending - inFlight - ready.size();
+                    if (free >= Math.max(1, bufferSize / 2)) {
+                        upstreamPending += free;
+                        request = free;
+                    }
+                }
+            }
+            if (failure != null) {
+                target.onError(failure);
+            } else if (complete) {
+                LOG.debug(toString());
+                target.onComplete();
+            }
+            if (request > 0) {
+                source.request(request);
+            }
+
+            missed = drains.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "NetworkProcessor{buffer=" + bufferSize + ", inFlight=" + inFlight + ", ready=" + ready.size() + ", emitted=" + emitted
+                + ", keys=" + lanes.size() + "}";
+    }
+}
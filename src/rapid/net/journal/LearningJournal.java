@@ -0,0 +1,797 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.journal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import rapid.net.Gate;
+import rapid.net.LearningListener;
+import rapid.net.Network;
+import rapid.net.NetworkCheckpoint;
+import rapid.net.port.MapToOneHotPort;
+import rapid.net.port.Port;
+import rapid.net.port.PortStream;
+import rapid.net.port.Portable;
+
+/**
+ * Write-ahead journal of everything a network learns, so an online-learning network survives a crash.
+ *
+ * Every learn(), learnSparse(), optimization, weight correction and MapToOneHotPort.createItem() is appended
+ * as a CRC32-checked record to the current journal segment in the directory. The records are written and
+ * forced to disk by a background thread in groups (group commit), at the latest after the group-commit
+ * interval, so the learning thread does not wait for the disk; sync() waits until all records are on disk.
+ * A checkpoint (see NetworkCheckpoint) writes the whole network and starts a new segment, the older
+ * segments are deleted; checkpoints are written every checkpoint-interval records or by checkpoint().
+ *
+ * open() recovers the network: it reads the latest checkpoint into the network (which has its ports but has not
+ * learned anything yet), replays the following segments and cuts off a torn record at their end. The weight
+ * corrections are not applied on replay (the replayed learn does them again), they are compared instead,
+ * see getDivergences(). Queries are not journaled, so the hits they counted since the last checkpoint are lost.
+ * The values set by the setter-functions of learn() can not be journaled, so such learns are rejected
+ * while the journal is attached. PortStreams are not supported.
+ *
+ * The journal must be used by the thread which learns.
+ *
+ * @author Bernhard
+ */
+public class LearningJournal implements LearningListener, AutoCloseable {
+
+    private static final Logger LOG = LogManager.getLogger(LearningJournal.class);
+
+    public static final String CHECKPOINT_FILE = "checkpoint.bin";
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int CHECKPOINT_MAGIC = 0x524a4350;    // "RJCP"
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+    private static final int FLUSH_THRESHOLD = 256 * 1024;
+
+    // record types
+    private static final byte LEARN = 1;
+    private static final byte LEARN_SPARSE = 2;
+    private static final byte OPTIMIZE_ALL = 3;
+    private static final byte OPTIMIZE_GATES = 4;
+    private static final byte CORRECTION = 5;
+    private static final byte CREATE_ITEM = 6;
+
+    private static final class Correction {
+
+        final int slot;
+        final int value;
+        final float factor;
+
+        Correction(int slot, int value, float factor) {
+            this.slot = slot;
+            this.value = value;
+            this.factor = factor;
+        }
+    }
+
+    private final Network network;
+    private final File directory;
+    private int checkpointInterval = 10000;
+    private long groupCommitNanos = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private Port[] inputSlots;
+    private Port[] outputSlots;
+    private final IdentityHashMap<Port, Integer> slotIndex = new IdentityHashMap<>();
+    private final ArrayList<MapToOneHotPort<?>> mapPorts = new ArrayList<>();
+
+    // written by the learning thread only
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final CRC32 crc = new CRC32();
+    private long segment = 0;
+    private int recordsSinceCheckpoint = 0;
+    private boolean replaying = false;
+    private final ArrayDeque<Correction> replayedCorrections = new ArrayDeque<>();
+
+    // shared with the flusher, guarded by lock
+    private final Object lock = new Object();
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private ByteArrayOutputStream spare = new ByteArrayOutputStream();
+    private long appendedRecords = 0;
+    private long durableRecords = 0;
+    private long groupCommits = 0;
+    private boolean syncRequested = false;
+    private IOException failure;
+    private boolean open = false;
+    private FileChannel channel;    // guarded by writeLock while writing
+    private final Object writeLock = new Object();
+    private Thread flusher;
+
+    // statistics of the recovery and of the checkpoints
+    private long replayedRecords = 0;
+    private long truncatedBytes = 0;
+    private int divergences = 0;
+    private int checkpoints = 0;
+
+    /**
+     * @param network the network with all its ports (e.g. created by the PortFactory), which has not learned anything yet
+     * @param directory the directory of the checkpoint and of the journal segments, is created if necessary
+     */
+    public LearningJournal(Network network, File directory) {
+        this.network = network;
+        this.directory = directory;
+    }
+
+    /**
+     * @param records the number of records after which a checkpoint is written, 0 for checkpoints by checkpoint() only
+     */
+    public void setCheckpointInterval(int records) {
+        if (records < 0) {
+            throw new IllegalArgumentException("The checkpoint interval must not be negative");
+        }
+        this.checkpointInterval = records;
+    }
+
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * @param millis the longest time a record waits to be written to disk, 0 to write each record at once
+     */
+    public void setGroupCommitMillis(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("The group-commit interval must not be negative");
+        }
+        this.groupCommitNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    public long getGroupCommitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(groupCommitNanos);
+    }
+
+    /**
+     * Recovers the network from the directory (if there is anything) and starts journaling.
+     * @throws IOException if the checkpoint is damaged or the directory is not writable
+     */
+    public void open() throws IOException {
+        if (open) {
+            throw new IllegalStateException(network.name + ": journal is already open");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the journal directory " + directory);
+        }
+        collectSlots();
+        network.setLearningListener(this);
+        replaying = true;   // the recovered changes are not journaled again
+        try {
+            final File checkpointFile = new File(directory, CHECKPOINT_FILE);
+            if (checkpointFile.exists()) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)))) {
+                    if (in.readInt() != CHECKPOINT_MAGIC) {
+                        throw new IOException(checkpointFile + " is not a journal checkpoint");
+                    }
+                    segment = in.readLong();
+                    NetworkCheckpoint.read(network, in);
+                }
+            }
+
+            List<Long> segments = listSegments();
+            for (Long number : segments) {
+                if (number < segment) {
+                    Files.deleteIfExists(segmentFile(number).toPath());  // left over by an interrupted checkpoint
+                }
+            }
+            for (Long number : segments) {
+                if (number >= segment) {
+                    segment = number;
+                    if (!replay(number)) {
+                        break;  // torn or damaged, continue appending here
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            detach();
+            throw ex;
+        } finally {
+            replaying = false;
+        }
+        for (Long number : listSegments()) {
+            if (number > segment) {
+                LOG.warn(network.name + ": journal segment " + number + " after a damaged segment is deleted");
+                Files.deleteIfExists(segmentFile(number).toPath());
+            }
+        }
+
+        channel = FileChannel.open(segmentFile(segment).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        open = true;
+        flusher = new Thread(this::runFlusher, network.name + "-JournalFlusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        LOG.info(network.name + ": journal opened in " + directory + ", replayed " + replayedRecords + " records"
+                + (truncatedBytes > 0 ? ", cut off " + truncatedBytes + " bytes" : "")
+                + (divergences > 0 ? ", " + divergences + " diverging corrections" : ""));
+    }
+
+    /**
+     * Waits until all appended records are on disk.
+     */
+    public void sync() {
+        synchronized (lock) {
+            final long target = appendedRecords;
+            syncRequested = true;
+            lock.notifyAll();
+            while (durableRecords < target && failure == null && open) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            checkFailure();
+        }
+    }
+
+    /**
+     * Writes the network into a new checkpoint and starts a new journal segment, the older segments are deleted.
+     * Must be called by the thread which learns, but not while it learns.
+     */
+    public void checkpoint() {
+        if (!open) {
+            throw new IllegalStateException(network.name + ": journal is not open");
+        }
+        sync();
+        final long next = segment + 1;
+        final File tmp = new File(directory, CHECKPOINT_FILE + ".tmp");
+        try {
+            try (FileOutputStream file = new FileOutputStream(tmp)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+                out.writeInt(CHECKPOINT_MAGIC);
+                out.writeLong(next);
+                NetworkCheckpoint.write(network, out);
+                out.flush();
+                file.getFD().sync();
+            }
+            synchronized (writeLock) {
+                channel.close();
+                channel = FileChannel.open(segmentFile(next).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            Files.move(tmp.toPath(), new File(directory, CHECKPOINT_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(segmentFile(segment).toPath());
+            segment = next;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(network.name + ": checkpoint failed", ex);
+        }
+        recordsSinceCheckpoint = 0;
+        checkpoints++;
+        LOG.debug(network.name + ": checkpoint written, journal segment " + segment);
+    }
+
+    /**
+     * Writes the remaining records and stops journaling, the network keeps its state.
+     */
+    @Override
+    public void close() {
+        if (!open) {
+            return;
+        }
+        try {
+            sync();
+        } finally {
+            synchronized (lock) {
+                open = false;
+                lock.notifyAll();
+            }
+            try {
+                flusher.join();
+                channel.close();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (IOException ex) {
+                LOG.warn(network.name + ": closing the journal failed: " + ex.getMessage());
+            }
+            detach();
+        }
+    }
+
+    private void detach() {
+        if (network.getLearningListener() == this) {
+            network.setLearningListener(null);
+        }
+        for (MapToOneHotPort<?> port : mapPorts) {
+            port.setItemListener(null);
+        }
+    }
+
+    public long getAppendedRecords() {
+        synchronized (lock) {
+            return appendedRecords;
+        }
+    }
+
+    public long getGroupCommits() {
+        synchronized (lock) {
+            return groupCommits;
+        }
+    }
+
+    public int getCheckpoints() {
+        return checkpoints;
+    }
+
+    /**
+     * @return the number of records replayed by open()
+     */
+    public long getReplayedRecords() {
+        return replayedRecords;
+    }
+
+    /**
+     * @return the number of bytes of torn or damaged records cut off by open()
+     */
+    public long getTruncatedBytes() {
+        return truncatedBytes;
+    }
+
+    /**
+     * @return the number of journaled weight corrections which were not done the same way on replay
+     */
+    public int getDivergences() {
+        return divergences;
+    }
+
+    @Override
+    public String toString() {
+        return "LearningJournal{" + directory + ", segment=" + segment + ", appended=" + getAppendedRecords() + ", groupCommits=" + getGroupCommits()
+                + ", checkpoints=" + checkpoints + ", replayed=" + replayedRecords + "}";
+    }
+
+    //
+    // interface LearningListener:
+    //
+    @Override
+    public boolean isSetterFuncSupported() {
+        return false;
+    }
+
+    @Override
+    public void onLearn(int[] inputPattern, int[] outputPattern, boolean optimize) {
+        if (replaying) {
+            return;
+        }
+        checkpointIfDue();
+        try {
+            beginRecord(LEARN);
+            writeValues(inputPattern);
+            writeValues(outputPattern);
+            recordOut.writeBoolean(optimize);
+            endRecord();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public void onLearnSparse(int[] activeSlots, int[] activeValues, int[] outputPattern, boolean optimize) {
+        if (replaying) {
+            return;
+        }
+        checkpointIfDue();
+        try {
+            beginRecord(LEARN_SPARSE);
+            writeValues(activeSlots);
+            writeValues(activeValues);
+            writeValues(outputPattern);
+            recordOut.writeBoolean(optimize);
+            endRecord();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public void onOptimizeAll() {
+        if (replaying) {
+            return;
+        }
+        try {
+            beginRecord(OPTIMIZE_ALL);
+            endRecord();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        checkpointIfDue();
+    }
+
+    @Override
+    public void onOptimizeGates(List<Gate> gates) {
+        if (replaying || gates.isEmpty()) {
+            return;
+        }
+        try {
+            beginRecord(OPTIMIZE_GATES);
+            recordOut.writeInt(gates.size());
+            for (Gate gate : gates) {
+                final Integer slot = slotIndex.get((Port) gate.parent);
+                if (slot == null || slot < inputSlots.length) {
+                    throw new IllegalStateException(network.name + ": " + gate.name() + " is not an output gate");
+                }
+                recordOut.writeInt(slot - inputSlots.length);
+                recordOut.writeInt(gate.parent.getGates().indexOf(gate));
+            }
+            endRecord();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        checkpointIfDue();
+    }
+
+    @Override
+    public void onCorrection(Port output, int value, float factor) {
+        final Integer slot = slotIndex.get(output);
+        if (slot == null) {
+            return;     // not one of the flattened ports, e.g. of a stream
+        }
+        if (replaying) {
+            replayedCorrections.add(new Correction(slot, value, factor));
+            return;
+        }
+        try {
+            beginRecord(CORRECTION);
+            recordOut.writeInt(slot);
+            recordOut.writeInt(value);
+            recordOut.writeFloat(factor);
+            endRecord();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void onCreateItem(Port port, Object key, int index) {
+        if (replaying) {
+            return;
+        }
+        try {
+            beginRecord(CREATE_ITEM);
+            recordOut.writeInt(slotIndex.get(port));
+            recordOut.writeInt(index);
+            NetworkCheckpoint.writeKey(recordOut, key);
+            endRecord();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void checkpointIfDue() {
+        if (checkpointInterval > 0 && recordsSinceCheckpoint >= checkpointInterval) {
+            checkpoint();
+        }
+    }
+
+    //
+    // writing:
+    //
+    private void beginRecord(byte type) throws IOException {
+        record.reset();
+        recordOut.writeInt(0);  // length, set by endRecord()
+        recordOut.writeByte(type);
+    }
+
+    private void writeValues(int[] values) throws IOException {
+        recordOut.writeInt(values.length);
+        for (int value : values) {
+            recordOut.writeInt(value);
+        }
+    }
+
+    /**
+     * Frames the record as [length][type, payload][CRC32 of type and payload] and appends it to the pending group.
+     */
+    private void endRecord() throws IOException {
+        final int length = record.size() - 4;
+        crc.reset();
+        crc.update(record.toByteArray(), 4, length);
+        recordOut.writeInt((int) crc.getValue());
+        final byte[] bytes = record.toByteArray();
+        bytes[0] = (byte) (length >>> 24);
+        bytes[1] = (byte) (length >>> 16);
+        bytes[2] = (byte) (length >>> 8);
+        bytes[3] = (byte) length;
+
+        synchronized (lock) {
+            checkFailure();
+            if (!open) {
+                throw new IllegalStateException(network.name + ": journal is closed");
+            }
+            pending.write(bytes, 0, bytes.length);
+            appendedRecords++;
+            if (groupCommitNanos == 0 || pending.size() >= FLUSH_THRESHOLD) {
+                lock.notifyAll();
+            }
+        }
+        recordsSinceCheckpoint++;
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new UncheckedIOException(network.name + ": journal write failed", failure);
+        }
+    }
+
+    /**
+     * Writes the pending records in groups: waits for the first record of a group, then up to the group-commit
+     * interval for more (unless sync() is waiting), and forces them to disk together.
+     */
+    private void runFlusher() {
+        while (true) {
+            final ByteArrayOutputStream group;
+            final long groupRecords;
+            synchronized (lock) {
+                try {
+                    while (open && pending.size() == 0) {
+                        lock.wait();
+                    }
+                    final long deadline = System.nanoTime() + groupCommitNanos;
+                    long remaining;
+                    while (open && !syncRequested && pending.size() < FLUSH_THRESHOLD && (remaining = deadline - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                    }
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                syncRequested = false;
+                group = pending;
+                groupRecords = appendedRecords;
+                pending = spare;
+                spare = group;
+                if (group.size() == 0) {
+                    return;     // closed
+                }
+            }
+            IOException error = null;
+            try {
+                synchronized (writeLock) {
+                    final ByteBuffer buffer = ByteBuffer.wrap(group.toByteArray());
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(false);
+                }
+            } catch (IOException ex) {
+                error = ex;
+            }
+            synchronized (lock) {
+                spare.reset();
+                lock.notifyAll();
+                if (error != null) {
+                    failure = error;
+                    LOG.error(network.name + ": journal write failed: " + error.getMessage());
+                    return;
+                }
+                durableRecords = groupRecords;
+                groupCommits++;
+            }
+        }
+    }
+
+    //
+    // recovery:
+    //
+    private void collectSlots() {
+        ArrayList<Port> inputs = new ArrayList<>();
+        for (Portable input : network.getInputs()) {
+            collectSlots(input, inputs);
+        }
+        ArrayList<Port> outputs = new ArrayList<>();
+        for (Portable output : network.getOutputs()) {
+            collectSlots(output, outputs);
+        }
+        inputSlots = inputs.toArray(new Port[inputs.size()]);
+        outputSlots = outputs.toArray(new Port[outputs.size()]);
+        slotIndex.clear();
+        mapPorts.clear();
+        for (int i = 0; i < inputSlots.length + outputSlots.length; i++) {
+            final Port port = (i < inputSlots.length) ? inputSlots[i] : outputSlots[i - inputSlots.length];
+            slotIndex.put(port, i);
+            if (port instanceof MapToOneHotPort) {
+                @SuppressWarnings("unchecked")
+                final MapToOneHotPort<Object> map = (MapToOneHotPort<Object>) port;
+                map.setItemListener((key, index) -> onCreateItem(map, key, index));
+                mapPorts.add(map);
+            }
+        }
+    }
+
+    private void collectSlots(Portable port, List<Port> slots) {
+        if (port instanceof PortStream) {
+            throw new UnsupportedOperationException(network.name + ": journaling of networks with PortStreams is not supported");
+        }
+        if (port instanceof Port) {
+            slots.add((Port) port);
+        }
+        if (port.getChildren() != null) {
+            for (Portable child : port.getChildren()) {
+                collectSlots(child, slots);
+            }
+        }
+    }
+
+    private Port slotAt(int index) throws IOException {
+        if (index < 0 || index >= inputSlots.length + outputSlots.length) {
+            throw new IOException("Unknown port " + index);
+        }
+        return (index < inputSlots.length) ? inputSlots[index] : outputSlots[index - inputSlots.length];
+    }
+
+    private List<Long> listSegments() {
+        ArrayList<Long> segments = new ArrayList<>();
+        final String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException ex) {
+                        LOG.debug("Ignoring " + name);
+                    }
+                }
+            }
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    private File segmentFile(long number) {
+        return new File(directory, String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Replays the records of the segment.
+     * @return true if the whole segment was valid, false if a torn or damaged record was cut off
+     */
+    private boolean replay(long number) throws IOException {
+        final File file = segmentFile(number);
+        long valid = 0;
+        boolean complete = true;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                final int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException ex) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_SIZE) {
+                    complete = false;
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                final int checksum;
+                try {
+                    in.readFully(bytes);
+                    checksum = in.readInt();
+                } catch (EOFException ex) {
+                    complete = false;
+                    break;
+                }
+                crc.reset();
+                crc.update(bytes, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    complete = false;
+                    break;
+                }
+                apply(bytes);
+                valid += 4 + length + 4;
+                replayedRecords++;
+            }
+        }
+        if (!complete) {
+            truncatedBytes += file.length() - valid;
+            LOG.warn(network.name + ": journal segment " + file.getName() + " has a torn or damaged record at " + valid + ", cut off "
+                    + (file.length() - valid) + " bytes");
+            try (FileChannel truncate = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                truncate.truncate(valid);
+                truncate.force(false);
+            }
+        }
+        return complete;
+    }
+
+    private void apply(byte[] bytes) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        final byte type = in.readByte();
+        switch (type) {
+            case LEARN: {
+                final int[] input = readValues(in);
+                final int[] output = readValues(in);
+                replayedCorrections.clear();
+                network.learn(input, output, null, in.readBoolean());
+                break;
+            }
+            case LEARN_SPARSE: {
+                final int[] activeSlots = readValues(in);
+                final int[] activeValues = readValues(in);
+                final int[] output = readValues(in);
+                replayedCorrections.clear();
+                network.learnSparse(activeSlots, activeValues, output, null, in.readBoolean());
+                break;
+            }
+            case OPTIMIZE_ALL:
+                network.optimizeAll();
+                break;
+            case OPTIMIZE_GATES: {
+                final int count = in.readInt();
+                ArrayList<Gate> gates = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    final Port port = slotAt(inputSlots.length + in.readInt());
+                    final int index = in.readInt();
+                    if (index < 0 || index >= port.getGates().size()) {
+                        throw new IOException("Unknown gate " + index + " of " + port.name());
+                    }
+                    gates.add(port.getGates().get(index));
+                }
+                network.optimizeGates(gates);
+                break;
+            }
+            case CORRECTION: {
+                final Correction journaled = new Correction(in.readInt(), in.readInt(), in.readFloat());
+                final Correction replayed = replayedCorrections.poll();
+                if (replayed == null || replayed.slot != journaled.slot || replayed.value != journaled.value
+                        || Float.compare(replayed.factor, journaled.factor) != 0) {
+                    divergences++;
+                    LOG.warn(network.name + ": journaled correction of " + slotAt(journaled.slot).name() + " to " + journaled.value
+                            + " by " + journaled.factor + " was " + ((replayed != null) ? "done by " + replayed.factor : "not done") + " on replay");
+                }
+                break;
+            }
+            case CREATE_ITEM: {
+                final Port port = slotAt(in.readInt());
+                final int index = in.readInt();
+                final Object key = NetworkCheckpoint.readKey(in);
+                if (!(port instanceof MapToOneHotPort)) {
+                    throw new IOException(port.name() + " is no MapToOneHotPort");
+                }
+                @SuppressWarnings("unchecked")
+                final MapToOneHotPort<Object> map = (MapToOneHotPort<Object>) port;
+                int existing = map.getIndex(key);
+                if (existing == Portable.NO_VALUE) {
+                    existing = map.createItem(key, network.getCycles());
+                }
+                if (existing != index) {
+                    throw new IllegalStateException(network.name + ": item " + key + " of " + port.name() + " has the index " + existing + " instead of " + index);
+                }
+                network.invalidatePorts();
+                break;
+            }
+            default:
+                throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    private static int[] readValues(DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        if (count < 0 || count > MAX_RECORD_SIZE / 4) {
+            throw new IOException("Bad value count " + count);
+        }
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+}
@@ -20,11 +20,11 @@ public class BinaryPort extends Port {
 
         // normal bits
         for (int i = 0; i < bits; i++) {
-            gates.add(Gate.createOrGate(this, this.name + "." + i, cycle));
+            gates.add(Gate.createOrGate(this, i, cycle));
         }
 
         // used for 0-value
-        gates.add(Gate.createOrGate(this, this.name + ".Null", cycle));
+        gates.add(Gate.createOrGate(this, bits, cycle));
     }
 
     public BinaryPort(String name, BinaryPort prototype, int cycle) {
@@ -33,20 +33,31 @@ public class BinaryPort extends Port {
 
         // normal bits
         for (int i = 0; i < bits; i++) {
-            gates.add(Gate.createOrGate(this, this.name + "." + i, cycle));
+            gates.add(Gate.createOrGate(this, i, cycle));
         }
 
         // used for 0-value
-        gates.add(Gate.createOrGate(this, this.name + ".Null", cycle));
+        gates.add(Gate.createOrGate(this, bits, cycle));
+    }
+
+    @Override
+    public String gateName(int index) {
+        return (index == bits) ? (name + ".Null") : super.gateName(index);
     }
 
     @Override
     public void clearValue(boolean recursive) {
-        setValue(-1, null, 0);
+        for (Gate gate : gates) {
+            gate.setStartValue(0.0f);
+        }
     }
 
     @Override
     public boolean setValue(int value, Queue<Gate> bfp, int cycle) {
+        if (value == NO_VALUE) {
+            clearValue(false);
+            return true;
+        }
         int mask = 1;
         for (int i = 0; i < bits; i++) {
             Gate gate = this.gates.get(i);
@@ -111,6 +122,71 @@ public class BinaryPort extends Port {
         return resultValue;
     }
 
+    @Override
+    public void encodeValue(int value, float[] gateValues) {
+        encodeValue(bits, value, gateValues);
+    }
+
+    private static void encodeValue(int bits, int value, float[] gateValues) {
+        int mask = 1;
+        for (int i = 0; i < bits; i++) {
+            gateValues[i] = ((value & mask) == mask) ? 1.0f : 0.0f;
+            mask = mask << 1;
+        }
+        gateValues[bits] = (value == 0) ? 1.0f : 0.0f;
+    }
+
+    @Override
+    @Deprecated // only for testing-purposes, see getValue()
+    public int decodeValue(float[] gateResults, int cycle) {
+        return decodeValue(bits, gateResults);
+    }
+
+    private static int decodeValue(int bits, float[] gateResults) {
+        if (gateResults[bits] != 0.0f) {
+            return 0;
+        }
+        float maxValue = 0.0f;
+        for (float f : gateResults) {
+            if (f > maxValue) {
+                maxValue = f;
+            }
+        }
+        if (maxValue == 0.0f) {
+            return -1;  // no answer existing
+        }
+        float triggerValue = maxValue / 2.0f;
+
+        int mask = 1;
+        int resultValue = 0;
+        for (int i = 0; i < bits; i++) {
+            if (gateResults[i] > triggerValue) {
+                resultValue |= mask;
+            }
+            mask = mask << 1;
+        }
+        if (resultValue == 0) {
+            return -1;  // no answer existing
+        }
+        return resultValue;
+    }
+
+    @Override
+    public Encoder freezeEncoder() {
+        final int count = bits;
+        return (value, gateValues) -> encodeValue(count, value, gateValues);
+    }
+
+    @Override
+    public Decoder freezeDecoder() {
+        final int count = bits;
+        final int estimate = estimateValue();
+        return (gateResults, cycle) -> {
+            final int value = decodeValue(count, gateResults);
+            return (value != NO_VALUE) ? value : estimate;
+        };
+    }
+
     @Override
     public int estimateValue() {
         return 0;  // not supported yet. TODO implementation
@@ -25,7 +25,7 @@ public class FuzzyPort extends Port {
 
         this.max = max;
 
-        this.gate = Gate.createAddGate(this, name, cycle);  // TODO: check createOrGate()
+        this.gate = Gate.createAddGate(this, 0, cycle);  // TODO: check createOrGate()
         gates.add(gate);
     }
 
@@ -33,10 +33,15 @@ public class FuzzyPort extends Port {
         super(name, new ArrayList<Gate>());
         this.max = prototype.max;
 
-        this.gate = Gate.createAddGate(this, name, cycle);
+        this.gate = Gate.createAddGate(this, 0, cycle);
         gates.add(gate);
     }
 
+    @Override
+    public String gateName(int index) {
+        return name;
+    }
+
     @Override
     public void clearValue(boolean recursive) {
         if (value != NO_VALUE) {
@@ -61,6 +66,28 @@ public class FuzzyPort extends Port {
         return calcValueFromFuzzy(gate.getResult(cycle));
     }
 
+    @Override
+    public void encodeValue(int value, float[] gateValues) {
+        gateValues[0] = calcFuzzyFromValue(value);
+    }
+
+    @Override
+    public int decodeValue(float[] gateResults, int cycle) {
+        return calcValueFromFuzzy(gateResults[0]);
+    }
+
+    @Override
+    public Encoder freezeEncoder() {
+        final int m = max;
+        return (value, gateValues) -> gateValues[0] = calcFuzzyFromValue(value, m);
+    }
+
+    @Override
+    public Decoder freezeDecoder() {
+        final int m = max;
+        return (gateResults, cycle) -> calcValueFromFuzzy(gateResults[0], m);   // estimateValue() is NO_VALUE anyway
+    }
+
     @Override
     public int estimateValue() {
         return NO_VALUE;    // TODO - not supported yet (is this needed?)
@@ -89,10 +116,18 @@ public class FuzzyPort extends Port {
     }
 
     public float calcFuzzyFromValue(int value) {
-        return (float) value / max;
+        return calcFuzzyFromValue(value, max);
     }
 
     public int calcValueFromFuzzy(float fuzzyValue) {
+        return calcValueFromFuzzy(fuzzyValue, max);
+    }
+
+    private static float calcFuzzyFromValue(int value, int max) {
+        return (float) value / max;
+    }
+
+    private static int calcValueFromFuzzy(float fuzzyValue, int max) {
         return (int) (fuzzyValue * max + 0.5f);
     }
 }
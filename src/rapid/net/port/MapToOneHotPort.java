@@ -3,6 +3,7 @@ package rapid.net.port;
 
 import java.util.HashMap;
 import java.util.Queue;
+import java.util.function.ObjIntConsumer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import rapid.net.Gate;
@@ -13,6 +14,7 @@ public class MapToOneHotPort<K> extends OneHotPort {
 
     private final HashMap<K, Integer> mapKey2Index;
     private final HashMap<Integer, K> mapIndex2Key;
+    private ObjIntConsumer<K> itemListener;
 
     public MapToOneHotPort(String name) {
         super(name);
@@ -44,12 +46,42 @@ public class MapToOneHotPort<K> extends OneHotPort {
 
     public int createItem(K key, int cycle) {
         int index = gates.size();
-        gates.add(Gate.createOrGate(this, name + "." + key, cycle));
+        gates.add(Gate.createOrGate(this, index, cycle));
         mapKey2Index.put(key, index);
         mapIndex2Key.put(index, key);
+        if (itemListener != null) {
+            itemListener.accept(key, index);
+        }
         return index;
     }
 
+    /**
+     * @param itemListener is called with the key and the index of each item created from now on, null for none
+     */
+    public void setItemListener(ObjIntConsumer<K> itemListener) {
+        this.itemListener = itemListener;
+    }
+
+    /**
+     * @return the index of the item, NO_VALUE if there is no such item
+     */
+    public int getIndex(K key) {
+        Integer index = mapKey2Index.get(key);
+        return (index != null) ? index : NO_VALUE;
+    }
+
+    /**
+     * @return the item with the index, null if there is no such item
+     */
+    public K getKey(int index) {
+        return mapIndex2Key.get(index);
+    }
+
+    @Override
+    public String gateName(int index) {
+        return name + "." + getKey(index);
+    }
+
     public K getItem(int cycle) {
         int index = super.getValue(cycle);
         if (mapIndex2Key.containsKey(index)) {
@@ -2,6 +2,7 @@
 package rapid.net.port;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Queue;
 import org.apache.logging.log4j.LogManager;
@@ -18,7 +19,7 @@ public class OneHotPort extends Port {
         super(name, new ArrayList<Gate>());
 
         for (int i = 0; i <= max; i++) {
-            gates.add(Gate.createOrGate(this, name + "." + i, cycle));
+            gates.add(Gate.createOrGate(this, i, cycle));
         }
     }
 
@@ -26,7 +27,7 @@ public class OneHotPort extends Port {
         super(name, new ArrayList<Gate>());
 
         for (int i = 0; i <= prototype.gates.size(); i++) {
-            gates.add(Gate.createOrGate(this, name + "." + i, cycle));
+            gates.add(Gate.createOrGate(this, i, cycle));
         }
     }
 
@@ -62,26 +63,26 @@ public class OneHotPort extends Port {
 
     @Override
     public int getValue(int cycle) {
-        ArrayList<Integer> resultIndex = new ArrayList<>();
+        int resultIndex = NO_VALUE;
+        int resultCount = 0;
         float resultValue = 0.0f;
         for (int i = 0; i < gates.size(); i++) {
             float f = gates.get(i).getResult(cycle);
             if (f != 0.0f) {
                 if (f > resultValue) {
-                    resultIndex.clear();
-                    resultIndex.add(i);
+                    resultIndex = i;
+                    resultCount = 1;
                     resultValue = f;
                 } else if (f == resultValue) {
-                    resultIndex.add(i);
+                    resultCount++;
                 }
             }
         }
-        switch (resultIndex.size()) {
+        switch (resultCount) {
             case 1: {
                 // exatly one result --> return it
-                int index = resultIndex.get(0);
-                gates.get(index).incHits();
-                return index;
+                gates.get(resultIndex).incHits();
+                return resultIndex;
             }
             case 0:
                 // no result found 
@@ -93,8 +94,11 @@ public class OneHotPort extends Port {
                 double dMin = 0.0;
                 StringBuilder sb = new StringBuilder();
                 sb.append("multiple outputs: [ ");
-                for (Integer i : resultIndex) {
+                for (int i = resultIndex; i < gates.size(); i++) {
                     Gate g = gates.get(i);
+                    if (g.getResult(cycle) != resultValue) {
+                        continue;
+                    }
                     double d = (double) g.getHits() / (double) (cycle - g.getCreationCycle());
                     if (dMin == 0.0 || d < dMin) {
                         dMin = d;
@@ -115,6 +119,100 @@ public class OneHotPort extends Port {
         }
     }
 
+    @Override
+    public void encodeValue(int value, float[] gateValues) {
+        encodeValue(name, gates.size(), value, gateValues);
+    }
+
+    /**
+     * @param count the number of gates of the port
+     */
+    private static void encodeValue(String name, int count, int value, float[] gateValues) {
+        // gates created after the compilation of an evaluator are not known to its gateValues
+        Arrays.fill(gateValues, 0, Math.min(count, gateValues.length), 0.0f);
+        if (value == NO_VALUE) {
+            return;
+        }
+        if (value < 0 || value >= count) {
+            throw new IndexOutOfBoundsException(name + ": value " + value + " is out of 0.." + (count - 1));
+        }
+        if (value < gateValues.length) {
+            gateValues[value] = 1.0f;
+        }
+    }
+
+    @Override
+    public Encoder freezeEncoder() {
+        final String portName = name;
+        final int count = gates.size();
+        return (value, gateValues) -> encodeValue(portName, count, value, gateValues);
+    }
+
+    @Override
+    public int decodeValue(float[] gateResults, int cycle) {
+        return decodeValue(gateResults, gateResults.length, cycle, gates, null, null);
+    }
+
+    /**
+     * @param count the number of gate-results to decode
+     * @param gates the gates to take the hits and creation-cycles from, if these are not passed
+     * @param hits the hits of the gates, null to take them from the gates
+     * @param creationCycles the creation-cycles of the gates, null to take them from the gates
+     */
+    private static int decodeValue(float[] gateResults, int count, int cycle, List<Gate> gates, int[] hits, int[] creationCycles) {
+        float resultValue = 0.0f;
+        int resultCount = 0;
+        int index = NO_VALUE;
+        for (int i = 0; i < count; i++) {
+            float f = gateResults[i];
+            if (f != 0.0f) {
+                if (f > resultValue) {
+                    resultValue = f;
+                    resultCount = 1;
+                    index = i;
+                } else if (f == resultValue) {
+                    resultCount++;
+                }
+            }
+        }
+        if (resultCount <= 1) {
+            return index;
+        }
+
+        // multiple results --> balance between the possible results like getValue() does
+        index = NO_VALUE;
+        double dMin = 0.0;
+        for (int i = 0; i < count; i++) {
+            if (gateResults[i] == resultValue) {
+                final int gateHits = (hits != null) ? hits[i] : gates.get(i).getHits();
+                final int gateCycle = (creationCycles != null) ? creationCycles[i] : gates.get(i).getCreationCycle();
+                double d = (double) gateHits / (double) (cycle - gateCycle);
+                if (dMin == 0.0 || d < dMin) {
+                    dMin = d;
+                    index = i;
+                }
+            }
+        }
+        return index;
+    }
+
+    @Override
+    public Decoder freezeDecoder() {
+        final int count = gates.size();
+        final int[] hits = new int[count];
+        final int[] creationCycles = new int[count];
+        for (int i = 0; i < count; i++) {
+            hits[i] = gates.get(i).getHits();
+            creationCycles[i] = gates.get(i).getCreationCycle();
+        }
+        final int estimate = estimateValue();
+        return (gateResults, cycle) -> {
+            // gates created after the freeze are not known to the decoder
+            final int value = decodeValue(gateResults, Math.min(gateResults.length, count), cycle, null, hits, creationCycles);
+            return (value != NO_VALUE) ? value : estimate;
+        };
+    }
+
     @Override
     public int estimateValue() {
         // return the most likely result
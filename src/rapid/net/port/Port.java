@@ -44,6 +44,66 @@ public abstract class Port extends Layer implements Portable {
         return null;    // no children supported
     }
 
+    // Value handling without touching the gates (used by the compiled evaluators)
+    /**
+     * Writes the start-values which setValue(value,..) would assign to the gates of this port.
+     * @param value the value to encode
+     * @param gateValues receives one start-value per gate (index = gate index), inactive gates are 0.0f
+     */
+    public abstract void encodeValue(int value, float[] gateValues);
+
+    /**
+     * Returns the value which getValue(cycle) would return for the given gate-results,
+     * but does not count any hits on the gates.
+     * @param gateResults one result per gate (index = gate index)
+     * @param cycle the current cycle, used to balance between multiple results
+     * @return the decoded value or NO_VALUE
+     */
+    public abstract int decodeValue(float[] gateResults, int cycle);
+
+    /**
+     * Encodes the values of a port from a copy of its state, see freezeEncoder().
+     */
+    public interface Encoder {
+
+        /**
+         * Same as encodeValue().
+         */
+        void encode(int value, float[] gateValues);
+    }
+
+    /**
+     * Copies the state which encodeValue() depends on. The default encoder refers to this port (and so to
+     * all of its gates), ports override this to return an encoder which keeps only what it needs.
+     */
+    public Encoder freezeEncoder() {
+        return this::encodeValue;
+    }
+
+    /**
+     * Decodes the gate-results of a port from a copy of its state, see freezeDecoder().
+     */
+    public interface Decoder {
+
+        /**
+         * @return the value decodeValue() returns, or estimateValue() if that is NO_VALUE
+         */
+        int decode(float[] gateResults, int cycle);
+    }
+
+    /**
+     * Copies the state which decodeValue() and estimateValue() depend on, so the returned decoder can be used
+     * by other threads while the network keeps on learning. Ports with a mutable state have to override this.
+     * As the default encoder, the default decoder refers to this port.
+     */
+    public Decoder freezeDecoder() {
+        final int estimate = estimateValue();
+        return (gateResults, cycle) -> {
+            final int value = decodeValue(gateResults, cycle);
+            return (value != NO_VALUE) ? value : estimate;
+        };
+    }
+
     // Gate handling
     public abstract List<Gate> getGatesByValue(int value);
 
@@ -0,0 +1,446 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import rapid.net.Network;
+import rapid.util.Utils;
+
+/**
+ * A lightweight HTTP server (JDK HttpServer) for a network, which is built beforehand by the
+ * PortFactory the same way as in the tests. The endpoints take their parameters form-encoded in the
+ * URL or in the body of a POST, the values are comma-separated:
+ * <pre>
+ *   /query?input=1,2                          --> 3,2
+ *   /learn?input=1,2&amp;output=3,2[&amp;optimize=true] --> true|false (gates were inserted)
+ *   /stats                                    --> the statistics as JSON
+ * </pre>
+ *
+ * The network is not thread-safe, so all requests (including the ones for the statistics) are queued
+ * and processed by one batcher thread: it takes the waiting requests (up to maxBatchSize) within the
+ * batch window after the first one and processes them in their order, identical queries of a batch
+ * (without a learn in between) are evaluated once. When the queue is full or the server is stopped,
+ * the request is rejected with 503 (Service Unavailable).
+ *
+ * @author Bernhard
+ */
+public class InferenceServer {
+
+    private static final Logger LOG = LogManager.getLogger(InferenceServer.class);
+
+    private static final int STATUS_OK = 200;
+    private static final int STATUS_BAD_REQUEST = 400;
+    private static final int STATUS_NOT_ALLOWED = 405;
+    private static final int STATUS_UNAVAILABLE = 503;
+
+    private enum Kind {
+        QUERY, LEARN, STATS
+    }
+
+    private static final class Request {
+
+        final Kind kind;
+        final int[] input;
+        final int[] output;
+        final boolean optimize;
+        final long enqueued = System.nanoTime();
+        final CompletableFuture<String> result = new CompletableFuture<>();
+
+        Request(Kind kind, int[] input, int[] output, boolean optimize) {
+            this.kind = kind;
+            this.input = input;
+            this.output = output;
+            this.optimize = optimize;
+        }
+    }
+
+    /**
+     * The key of an input pattern in the query results of a batch.
+     */
+    private static final class Pattern {
+
+        final int[] values;
+
+        Pattern(int[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return (obj instanceof Pattern) && Arrays.equals(values, ((Pattern) obj).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+    }
+
+    private final Network network;
+    private final int port;
+    private long batchWindowNanos = TimeUnit.MILLISECONDS.toNanos(2);
+    private int maxBatchSize = 64;
+    private int queueCapacity = 1024;
+    private int handlerThreads = 16;
+
+    private HttpServer server;
+    private ExecutorService handlers;
+    private Thread batcher;
+    private ArrayBlockingQueue<Request> queue;
+    private volatile boolean running = false;
+
+    private final LatencyStats latency = new LatencyStats(4096);
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong learns = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchedRequests = new AtomicLong();
+    private final AtomicLong sharedQueries = new AtomicLong();
+
+    /**
+     * @param network the network to serve, it must not be used by others while the server runs
+     * @param port the port on the loopback interface, 0 to choose a free one (see getAddress())
+     */
+    public InferenceServer(Network network, int port) {
+        this.network = network;
+        this.port = port;
+    }
+
+    /**
+     * @param millis how long the batcher waits for more requests after the first one of a batch, 0 to not wait
+     */
+    public void setBatchWindowMillis(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("The batch window must not be negative");
+        }
+        this.batchWindowNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    public long getBatchWindowMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(batchWindowNanos);
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("The batch size must be positive");
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @param queueCapacity the number of waiting requests, further ones are rejected; effective on start()
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("The queue capacity must be positive");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * @param handlerThreads the number of threads receiving the HTTP requests; effective on start()
+     */
+    public void setHandlerThreads(int handlerThreads) {
+        if (handlerThreads <= 0) {
+            throw new IllegalArgumentException("The number of handler threads must be positive");
+        }
+        this.handlerThreads = handlerThreads;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            throw new IllegalStateException(network.name + ": server is already running");
+        }
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/query", exchange -> handle(exchange, Kind.QUERY));
+        server.createContext("/learn", exchange -> handle(exchange, Kind.LEARN));
+        server.createContext("/stats", exchange -> handle(exchange, Kind.STATS));
+        handlers = Executors.newFixedThreadPool(handlerThreads, runnable -> {
+            Thread thread = new Thread(runnable, network.name + "-Handler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(handlers);
+        running = true;
+        batcher = new Thread(this::runBatcher, network.name + "-Batcher");
+        batcher.setDaemon(true);
+        batcher.start();
+        server.start();
+        LOG.info(network.name + ": InferenceServer listening on " + getAddress());
+    }
+
+    /**
+     * Stops the server, the waiting requests are rejected.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        server.stop(0);
+        batcher.interrupt();
+        try {
+            batcher.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        Request request;
+        while ((request = queue.poll()) != null) {
+            request.result.completeExceptionally(new IllegalStateException("Server stopped"));
+        }
+        handlers.shutdown();
+        LOG.info(network.name + ": InferenceServer stopped " + getStats());
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    public LatencyStats getLatency() {
+        return latency;
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private void handle(HttpExchange exchange, Kind kind) throws IOException {
+        try {
+            final String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"POST".equals(method)) {
+                send(exchange, STATUS_NOT_ALLOWED, "Use GET or POST");
+                return;
+            }
+            final Request request;
+            if (kind == Kind.STATS) {
+                request = new Request(kind, null, null, false);
+            } else {
+                try {
+                    // URLDecoder throws an IllegalArgumentException on a malformed escape, too
+                    final Map<String, String> params = parseParams(exchange);
+                    final int[] input = parseValues(params.get("input"), "input");
+                    request = (kind == Kind.QUERY)
+                            ? new Request(kind, input, null, false)
+                            : new Request(kind, input, parseValues(params.get("output"), "output"), Boolean.parseBoolean(params.get("optimize")));
+                } catch (IllegalArgumentException ex) {
+                    send(exchange, STATUS_BAD_REQUEST, ex.getMessage());
+                    return;
+                }
+            }
+            if (!enqueue(request)) {
+                rejected.incrementAndGet();
+                send(exchange, STATUS_UNAVAILABLE, running ? "Too many requests" : "Server stopped");
+                return;
+            }
+            try {
+                send(exchange, STATUS_OK, request.result.get());
+            } catch (ExecutionException ex) {
+                final Throwable cause = ex.getCause();
+                send(exchange, (cause instanceof IllegalArgumentException) ? STATUS_BAD_REQUEST : STATUS_UNAVAILABLE, String.valueOf(cause.getMessage()));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                send(exchange, STATUS_UNAVAILABLE, "Interrupted");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return false if the request was rejected, because the queue is full or the server is stopped
+     */
+    private boolean enqueue(Request request) {
+        if (!running || !queue.offer(request)) {
+            return false;
+        }
+        // stopped meanwhile: either stop() has rejected the request already, or it is still queued and taken back here
+        return running || !queue.remove(request);
+    }
+
+    private void runBatcher() {
+        final ArrayList<Request> batch = new ArrayList<>(maxBatchSize);
+        final HashMap<Pattern, String> queryResults = new HashMap<>();
+        while (running) {
+            try {
+                batch.add(queue.take());
+                final long deadline = System.nanoTime() + batchWindowNanos;
+                while (batch.size() < maxBatchSize) {
+                    final long remaining = deadline - System.nanoTime();
+                    final Request request = (remaining > 0) ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (request == null) {
+                        break;
+                    }
+                    batch.add(request);
+                }
+            } catch (InterruptedException ex) {
+                if (batch.isEmpty()) {
+                    continue;   // stop() rejects the waiting requests
+                }
+            }
+
+            queryResults.clear();
+            for (Request request : batch) {
+                try {
+                    final String result;
+                    if (request.kind == Kind.QUERY) {
+                        final Pattern key = new Pattern(request.input);
+                        String cached = queryResults.get(key);
+                        if (cached == null) {
+                            cached = Utils.intArrayToString(network.queryCached(request.input, null, null));
+                            queryResults.put(key, cached);
+                        } else {
+                            sharedQueries.incrementAndGet();
+                        }
+                        result = cached;
+                        queries.incrementAndGet();
+                    } else if (request.kind == Kind.STATS) {
+                        result = getStats(network.toString());
+                    } else {
+                        queryResults.clear();   // the learned gates may change the results
+                        result = String.valueOf(network.learn(request.input, request.output, null, request.optimize));
+                        learns.incrementAndGet();
+                    }
+                    if (request.kind != Kind.STATS) {
+                        latency.record(System.nanoTime() - request.enqueued);
+                    }
+                    request.result.complete(result);
+                } catch (RuntimeException ex) {
+                    LOG.error(network.name + ": InferenceServer request failed: " + ex.getMessage(), ex);
+                    request.result.completeExceptionally(ex);
+                }
+            }
+            batches.incrementAndGet();
+            batchedRequests.addAndGet(batch.size());
+            batch.clear();
+        }
+    }
+
+    /**
+     * @return the statistics of the server and the network as JSON, while the server runs they are
+     * taken by the batcher thread
+     * @throws IllegalStateException if the request for the statistics is rejected
+     */
+    public String getStats() {
+        final Request request = new Request(Kind.STATS, null, null, false);
+        if (!enqueue(request)) {
+            synchronized (this) {
+                if (!running) {
+                    // stop() has finished, so the batcher thread does not use the network any longer
+                    return getStats(network.toString());
+                }
+            }
+            throw new IllegalStateException(network.name + ": the request for the statistics was rejected");
+        }
+        try {
+            return request.result.get();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(network.name + ": " + ex.getCause().getMessage(), ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(network.name + ": interrupted", ex);
+        }
+    }
+
+    private String getStats(String networkInfo) {
+        final long batchCount = batches.get();
+        return "{\"network\":\"" + networkInfo.replace("\"", "'") + "\""
+                + ",\"queries\":" + queries.get()
+                + ",\"learns\":" + learns.get()
+                + ",\"rejected\":" + rejected.get()
+                + ",\"sharedQueries\":" + sharedQueries.get()
+                + ",\"batches\":" + batchCount
+                + ",\"meanBatchSize\":" + ((batchCount > 0) ? ((float) batchedRequests.get() / batchCount) : 0.0f)
+                + ",\"queued\":" + ((queue != null) ? queue.size() : 0)
+                + ",\"latencyMeanMicros\":" + latency.getMeanNanos() / 1000
+                + ",\"latencyP50Micros\":" + latency.getPercentileNanos(50) / 1000
+                + ",\"latencyP99Micros\":" + latency.getPercentileNanos(99) / 1000
+                + "}";
+    }
+
+    private static Map<String, String> parseParams(HttpExchange exchange) throws IOException {
+        HashMap<String, String> params = new HashMap<>();
+        parseParams(exchange.getRequestURI().getRawQuery(), params);
+        if ("POST".equals(exchange.getRequestMethod())) {
+            parseParams(readBody(exchange.getRequestBody()), params);
+        }
+        return params;
+    }
+
+    private static void parseParams(String text, Map<String, String> params) throws UnsupportedEncodingException {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        for (String pair : text.split("&")) {
+            final int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            body.write(buffer, 0, read);
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8).trim();
+    }
+
+    private static int[] parseValues(String text, String name) {
+        if (text == null || text.trim().isEmpty()) {
+            throw new IllegalArgumentException("Parameter " + name + " is missing");
+        }
+        final String[] items = text.split(",");
+        int[] values = new int[items.length];
+        for (int i = 0; i < items.length; i++) {
+            try {
+                values[i] = Integer.parseInt(items[i].trim());
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Parameter " + name + " has no number at " + i + ": " + items[i]);
+            }
+        }
+        return values;
+    }
+
+    private static void send(HttpExchange exchange, int status, String text) throws IOException {
+        final byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", text.startsWith("{") ? "application/json" : "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.server;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the latencies of the most recent requests to report their percentiles.
+ *
+ * @author Bernhard
+ */
+public class LatencyStats {
+
+    private final long[] samples;
+    private long count = 0;
+    private long totalNanos = 0;
+
+    /**
+     * @param capacity the number of recent latencies the percentiles are computed from
+     */
+    public LatencyStats(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive");
+        }
+        this.samples = new long[capacity];
+    }
+
+    public synchronized void record(long nanos) {
+        samples[(int) (count % samples.length)] = nanos;
+        count++;
+        totalNanos += nanos;
+    }
+
+    /**
+     * @return the number of recorded latencies since the start
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the mean latency since the start in nanoseconds
+     */
+    public synchronized long getMeanNanos() {
+        return (count > 0) ? (totalNanos / count) : 0;
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return the latency in nanoseconds below which the percentile of the recent requests is, 0 if there were none
+     */
+    public long getPercentileNanos(double percentile) {
+        final long[] sorted;
+        synchronized (this) {
+            sorted = Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+        }
+        if (sorted.length == 0) {
+            return 0;
+        }
+        Arrays.sort(sorted);
+        final int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyStats{count=" + getCount() + ", mean=" + getMeanNanos() / 1000 + "us, p50=" + getPercentileNanos(50) / 1000
+                + "us, p99=" + getPercentileNanos(99) / 1000 + "us}";
+    }
+}
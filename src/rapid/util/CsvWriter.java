@@ -61,6 +61,15 @@ public class CsvWriter {
         pw.print(i);
     }
 
+    public void print(long l) {
+        if (!isFirstColumn) {
+            pw.print(SEPARATOR);
+        } else {
+            isFirstColumn = false;
+        }
+        pw.print(l);
+    }
+
     public void print(float f) {
         if (!isFirstColumn) {
             pw.print(SEPARATOR);
@@ -0,0 +1,62 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import rapid.net.vector.VectorTest;
+import rapid.util.Utils;
+
+public class ActivationThresholdTest {
+
+    private static final Logger LOG = LogManager.getLogger(ActivationThresholdTest.class);
+
+    public static final float THRESHOLD = 0.01f;
+
+    @Test
+    public void vectorParityTest() {
+        VectorTest test = new VectorTest();
+        test.setUp();
+        test.lineTest10();
+        Network network = test.network;
+
+        final int sectors = 10;
+        int[][] inputPattern = new int[sectors + 3][VectorTest.MAX_SIZE];
+        for (int i = 0; i <= sectors; i++) {
+            for (int j = 0; j < VectorTest.MAX_SIZE; j++) {
+                inputPattern[i][j] = VectorTest.MAX_VALUE / sectors * i;
+            }
+        }
+        for (int j = 0; j < VectorTest.MAX_SIZE; j++) {
+            inputPattern[sectors + 1][j] = j * VectorTest.MAX_VALUE / VectorTest.MAX_SIZE;
+            inputPattern[sectors + 2][j] = (VectorTest.MAX_SIZE - j) * VectorTest.MAX_VALUE / VectorTest.MAX_SIZE;
+        }
+
+        for (Network.Propagation propagation : Network.Propagation.values()) {
+            network.setPropagation(propagation);
+            int propagatedGates = 0;
+            int skippedGates = 0;
+            int skippedEdges = 0;
+            int fullGates = 0;
+            for (int[] input : inputPattern) {
+                network.setActivationThreshold(0.0f);
+                String expected = Utils.intArrayToString(network.query(input, null));
+                fullGates += network.getPropagatedGates();
+                assertEquals(0, network.getSkippedEdges());
+
+                network.setActivationThreshold(THRESHOLD);
+                String actual = Utils.intArrayToString(network.query(input, null));
+                propagatedGates += network.getPropagatedGates();
+                skippedGates += network.getSkippedGates();
+                skippedEdges += network.getSkippedEdges();
+                assertEquals(propagation + ": input is " + Utils.intArrayToString(input), expected, actual);
+            }
+            LOG.info(propagation + ": threshold " + THRESHOLD + " propagated " + propagatedGates + " of " + fullGates
+                    + " gates, skipped gates=" + skippedGates + " edges=" + skippedEdges);
+            assertTrue(skippedEdges > 0);
+            assertEquals(fullGates, propagatedGates + skippedGates);
+        }
+    }
+}
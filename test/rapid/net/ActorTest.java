@@ -0,0 +1,101 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import rapid.util.Utils;
+
+public class ActorTest extends TestBase {
+
+    private static final Logger LOG = LogManager.getLogger(ActorTest.class);
+
+    public static final int MAX = 7;
+    public static final int ROUNDS = 20;
+
+    public ActorTest() {
+        super("Actor");
+    }
+
+    @Test
+    public void parityTest() throws Exception {
+        name = "ActorSumMax";
+        final int[][] inputPattern = runSumMaxTest(MAX);
+        final String[] expected = querySnapshot(inputPattern);
+        ActorEvaluator actors = new ActorEvaluator(network);
+        assertEquals(network.getGates().size() + 2 * MAX + 1 + MAX + 1, actors.getActorCount());
+        for (int i = 0; i < inputPattern.length; i++) {
+            assertEquals("Input is " + Utils.intArrayToString(inputPattern[i]), expected[i], Utils.intArrayToString(actors.query(inputPattern[i])));
+        }
+        // all waves in flight at once
+        List<CompletableFuture<int[]>> futures = new ArrayList<>();
+        for (int[] input : inputPattern) {
+            futures.add(actors.queryAsync(input));
+        }
+        for (int i = 0; i < inputPattern.length; i++) {
+            assertEquals(expected[i], Utils.intArrayToString(futures.get(i).get()));
+        }
+        LOG.info(name + ": " + actors);
+
+        // another executor, with a small batch size
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        ActorEvaluator other = new ActorEvaluator(network, executor);
+        other.setBatchSize(1);
+        for (int i = 0; i < inputPattern.length; i++) {
+            assertEquals(expected[i], Utils.intArrayToString(other.query(inputPattern[i])));
+        }
+        executor.shutdown();
+
+        compare(actors, inputPattern);
+    }
+
+    /**
+     * Compares the latency (one query after the other) and the throughput (all queries in flight)
+     * of the actors with the ones of the propagateBFS() of the network.
+     */
+    private void compare(ActorEvaluator actors, int[][] inputPattern) throws Exception {
+        final int queries = ROUNDS * inputPattern.length;
+        long bfsNanos = 0;
+        long latencyNanos = 0;
+        long throughputNanos = 0;
+        for (int round = 0; round < 2; round++) {   // the first round warms up
+            long start = System.nanoTime();
+            for (int r = 0; r < ROUNDS; r++) {
+                for (int[] input : inputPattern) {
+                    network.query(input, null);
+                }
+            }
+            bfsNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int r = 0; r < ROUNDS; r++) {
+                for (int[] input : inputPattern) {
+                    actors.query(input);
+                }
+            }
+            latencyNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            List<CompletableFuture<int[]>> futures = new ArrayList<>(queries);
+            for (int r = 0; r < ROUNDS; r++) {
+                for (int[] input : inputPattern) {
+                    futures.add(actors.queryAsync(input));
+                }
+            }
+            for (CompletableFuture<int[]> future : futures) {
+                future.get();
+            }
+            throughputNanos = System.nanoTime() - start;
+        }
+        LOG.info(name + ": propagateBFS " + bfsNanos / queries + "ns/query, actors " + latencyNanos / queries + "ns/query one after the other, "
+                + throughputNanos / queries + "ns/query in flight, " + actors.getMessageCount() / actors.getActorCount() + " messages/actor");
+        assertTrue(actors.getMessageCount() > 0);
+    }
+}
@@ -10,12 +10,39 @@ import org.junit.runners.Suite;
     rapid.net.skalar.BitCountersTest.class,
     rapid.net.BoxingGameTest.class,
     rapid.net.skalar.FuzzyTest.class,
+    rapid.net.skalar.BitParallelTest.class,
+    rapid.net.skalar.SparseInputTest.class,
+    rapid.net.skalar.IncrementalOptimizeTest.class,
+    rapid.net.skalar.PruningTest.class,
+    rapid.net.skalar.MemoryBudgetTest.class,
+    rapid.net.skalar.GateNameTest.class,
+    rapid.net.skalar.SweepPropagationTest.class,
+    rapid.net.skalar.ConeVerificationTest.class,
+    rapid.net.skalar.QueryCacheTest.class,
+    rapid.net.skalar.LearnedFilterTest.class,
+    rapid.net.skalar.LearnStatsTest.class,
     
     // Vector tests (see also rapid.net.vector.VetorTestSuite)
     rapid.net.vector.VectorTest.class,
     
     // Matrix tests (see also rapid.net.matrix.MatrixTestSuite)
     rapid.net.matrix.Numbers123Test.class,
+
+    // Evaluator and snapshot tests
+    rapid.net.QuantizedTest.class,
+    rapid.net.SnapshotTest.class,
+    rapid.net.ActivationThresholdTest.class,
+    rapid.net.ShardingTest.class,
+    rapid.net.NetworkPoolTest.class,
+    rapid.net.GateKernelTest.class,
+    rapid.net.ActorTest.class,
+    rapid.net.WavePipelineTest.class,
+    // Distributed, server, journal and stream tests
+    rapid.net.dist.PartitionTest.class,
+    rapid.net.server.InferenceServerTest.class,
+    rapid.net.journal.LearningJournalTest.class,
+    rapid.net.flow.NetworkProcessorTest.class,
+    // the scaling tests run for long, see rapid.net.scaling.ScalingTestSuite
 })
 public class AllTestsSuite {
     
@@ -0,0 +1,144 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+import rapid.util.CsvWriter;
+
+public class GateKernelTest extends TestBase {
+
+    private static final Logger LOG = LogManager.getLogger(GateKernelTest.class);
+
+    public static final int MAX_FAN_IN = 4096;
+
+    public GateKernelTest() {
+        super("GateKernel");
+    }
+
+    /**
+     * The reductions as they were done on the boxed values before the kernels.
+     */
+    private static float reference(Gate.Operation operation, List<Float> values) {
+        float f = (operation == Gate.Operation.AND || operation == Gate.Operation.MUL) ? 1.0f : 0.0f;
+        int count = 0;
+        for (float val : values) {
+            switch (operation) {
+                case AND:
+                    if (val > 1.0f) {
+                        val = 1.0f / val;
+                    }
+                    if (val != 0.0f) {
+                        f = f * val;
+                        count++;
+                    }
+                    break;
+                case MUL:
+                    f = f * val;
+                    break;
+                case OR:
+                    if (val != 0.0f) {
+                        f = f + val;
+                        count++;
+                    }
+                    break;
+                default:
+                    f = f + val;
+                    break;
+            }
+        }
+        if (operation == Gate.Operation.AND) {
+            return f * ((float) count / (float) values.size());
+        } else if (operation == Gate.Operation.OR) {
+            return (count > 0) ? (f / count) : 0.0f;
+        }
+        return f;
+    }
+
+    private static float[] randomValues(Random random, int length) {
+        float[] values = new float[length];
+        for (int i = 0; i < length; i++) {
+            final int kind = random.nextInt(4);
+            // zeros (not fired), values around 1 and above 1 (inverted by AND)
+            values[i] = (kind == 0) ? 0.0f : (kind == 1) ? (1.0f + random.nextFloat() * 0.001f) : (0.999f + random.nextFloat() * 0.002f);
+        }
+        return values;
+    }
+
+    private static List<Float> box(float[] values) {
+        ArrayList<Float> list = new ArrayList<>(values.length);
+        for (float value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    @Test
+    public void parityTest() {
+        LOG.info(name + ": " + GateKernel.get());
+        Random random = new Random(42);
+        for (int length = 1; length <= MAX_FAN_IN; length = (length < 64) ? (length + 1) : (length * 2)) {
+            float[] values = randomValues(random, length + 3);  // the values behind the length are ignored
+            List<Float> boxed = box(values).subList(0, length);
+            for (Gate.Operation operation : Gate.Operation.values()) {
+                final float expected = reference(operation, boxed);
+                // the scalar kernel keeps the order of the inputs and so the exact results
+                assertEquals(operation + " of " + length, expected, GateKernel.scalar().apply(operation, values, length), 0.0f);
+                assertEquals(operation + " of " + length, expected, operation.apply(boxed), Math.abs(expected) * 1e-4f);
+                assertEquals(operation + " of " + length, expected, operation.apply(values, length), Math.abs(expected) * 1e-4f);
+            }
+        }
+    }
+
+    @Test
+    public void benchmarkTest() {
+        CsvWriter bench = new CsvWriter("logs/GateKernelBenchmark.csv");
+        if (bench.open(true)) {
+            bench.print("Kernel");
+            bench.print("Operation");
+            bench.print("FanIn");
+            bench.print("Boxed[ns]");
+            bench.print("Kernel[ns]");
+            bench.println();
+        }
+        Random random = new Random(7);
+        float sink = 0.0f;
+        for (int length = 2; length <= MAX_FAN_IN; length *= 2) {
+            final float[] values = randomValues(random, length);
+            final List<Float> boxed = box(values);
+            final int repeats = Math.max(20, 200000 / length);
+            for (Gate.Operation operation : Gate.Operation.values()) {
+                // the first rounds warm up, the last is measured
+                long boxedNanos = 0;
+                long kernelNanos = 0;
+                for (int round = 0; round < 4; round++) {
+                    long start = System.nanoTime();
+                    for (int r = 0; r < repeats; r++) {
+                        sink += reference(operation, boxed);
+                    }
+                    boxedNanos = (System.nanoTime() - start) / repeats;
+                    start = System.nanoTime();
+                    for (int r = 0; r < repeats; r++) {
+                        sink += operation.apply(values, length);
+                    }
+                    kernelNanos = (System.nanoTime() - start) / repeats;
+                }
+                bench.print(GateKernel.get().getName());
+                bench.print(operation.toString());
+                bench.print(length);
+                bench.print((int) boxedNanos);
+                bench.print((int) kernelNanos);
+                bench.println();
+                if (length == 2 || length == MAX_FAN_IN) {
+                    LOG.info(name + ": " + GateKernel.get().getName() + " " + operation + " fan-in=" + length + " boxed=" + boxedNanos + "ns kernel=" + kernelNanos + "ns");
+                }
+            }
+        }
+        bench.close();
+        LOG.debug(name + ": " + sink);
+    }
+}
@@ -0,0 +1,150 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class NetworkPoolTest extends TestBase {
+
+    private static final Logger LOG = LogManager.getLogger(NetworkPoolTest.class);
+
+    public static final int MAX = 5;
+    public static final int NETWORKS = 6;
+
+    public NetworkPoolTest() {
+        super("NetworkPool");
+    }
+
+    @Test
+    public void parallelTest() throws Exception {
+        name = "NetworkPoolSum";
+        int[][] inputPattern = generatePairPattern(MAX);
+        int[][] outputPattern = generateSumPattern(MAX);
+        // the reference, learned by this thread
+        addSumPorts(network, MAX);
+        runTest_Start();
+        runTest_Learn(inputPattern, outputPattern);
+        runTest_Verify(inputPattern, outputPattern, true);
+        runTest_Stop();
+
+        NetworkPool pool = new NetworkPool(3);
+        pool.setBatchSize(4);
+        ArrayList<Network> networks = new ArrayList<>();
+        for (int n = 0; n < NETWORKS; n++) {
+            Network other = new Network("Pool" + n);
+            addSumPorts(other, MAX);
+            pool.register(other);
+            networks.add(other);
+        }
+        // interleaved, so the networks learn at the same time
+        for (int i = 0; i < inputPattern.length; i++) {
+            for (Network other : networks) {
+                pool.submitLearn(other, inputPattern[i], outputPattern[i], false);
+            }
+        }
+        List<CompletableFuture<Integer>> gateCounts = new ArrayList<>();
+        for (Network other : networks) {
+            gateCounts.add(pool.submit(other, n -> n.getGates().size()));
+        }
+        List<List<CompletableFuture<int[]>>> results = new ArrayList<>();
+        for (Network other : networks) {
+            List<CompletableFuture<int[]>> queries = new ArrayList<>();
+            for (int[] input : inputPattern) {
+                queries.add(pool.submitQuery(other, input));
+            }
+            results.add(queries);
+        }
+        assertTrue(pool.shutdown(60, TimeUnit.SECONDS));
+
+        for (int n = 0; n < NETWORKS; n++) {
+            final Network other = networks.get(n);
+            assertEquals(other.name, network.getGates().size(), (int) gateCounts.get(n).get());
+            for (int i = 0; i < inputPattern.length; i++) {
+                assertArrayEquals(other.name + ": " + inputPattern[i][0] + "+" + inputPattern[i][1], outputPattern[i], results.get(n).get(i).get());
+            }
+            // the same patterns in the same order learn the same structure, even in parallel
+            assertEquals(other.name, network.dumpNetworkToString(false), other.dumpNetworkToString(false));
+
+            NetworkPool.Stats stats = pool.getStats(other);
+            LOG.info(stats);
+            assertEquals(inputPattern.length, stats.getLearns());
+            assertEquals(inputPattern.length, stats.getQueries());
+            assertEquals(2 * inputPattern.length + 1, stats.getJobs());
+            assertEquals(0, stats.getFailures());
+            assertTrue(stats.getJobsPerSecond() > 0.0);
+        }
+        assertEquals(NETWORKS, pool.getAllStats().size());
+        assertEquals("Pool0", pool.getAllStats().get(0).getName());
+    }
+
+    @Test
+    public void failureTest() throws Exception {
+        name = "NetworkPoolFailure";
+        addSumPorts(network, MAX);
+        NetworkPool pool = new NetworkPool(1);
+        CompletableFuture<Object> failed = pool.submit(network, n -> {
+            throw new IllegalStateException(n.name + ": failure");
+        });
+        CompletableFuture<int[]> result = pool.submitQuery(network, new int[]{1, 2});
+        assertTrue(pool.shutdown(10, TimeUnit.SECONDS));
+        assertTrue(failed.isCompletedExceptionally());
+        assertTrue(result.isDone() && !result.isCompletedExceptionally());
+        assertEquals(1, pool.getStats(network).getFailures());
+        assertEquals(1, pool.getStats(network).getQueries());
+        assertEquals(2, pool.getStats(network).getJobs());
+    }
+
+    @Test
+    public void unregisterTest() throws Exception {
+        addSumPorts(network, MAX);
+        NetworkPool pool = new NetworkPool(4);
+        pool.setBatchSize(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        List<CompletableFuture<Object>> futures = new ArrayList<>();
+        for (int round = 0; round < 4; round++) {
+            for (int i = 0; i < 8; i++) {
+                futures.add(pool.submit(network, n -> {
+                    if (running.incrementAndGet() > 1) {
+                        overlaps.incrementAndGet();
+                    }
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    return null;
+                }));
+            }
+            // the queued jobs are still run, the jobs submitted afterwards do not run beside them
+            assertNotNull(pool.unregister(network));
+            assertNull(pool.getStats(network));
+        }
+        for (CompletableFuture<Object> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(0, overlaps.get());
+        assertTrue(pool.shutdown(10, TimeUnit.SECONDS));
+
+        // a job submitted after the shutdown is rejected and not left pending
+        try {
+            pool.submitQuery(network, new int[]{1, 2});
+            fail("The pool is shut down.");
+        } catch (IllegalStateException ex) {
+            LOG.info(ex.getMessage());
+        }
+    }
+}
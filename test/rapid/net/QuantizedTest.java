@@ -0,0 +1,160 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import java.lang.ref.WeakReference;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import rapid.net.matrix.Numbers123Test;
+import rapid.net.skalar.BitCountersTest;
+import rapid.net.skalar.FuzzyTest;
+import rapid.net.vector.VectorTest;
+import rapid.util.Utils;
+
+/**
+ * Accuracy parity of the QuantizedEvaluator with Network.query() on the networks
+ * which are learned by the skalar-, vector- and matrix-tests.
+ */
+public class QuantizedTest {
+
+    private static final Logger LOG = LogManager.getLogger(QuantizedTest.class);
+
+    @Test
+    public void bitCounterTest() {
+        BitCountersTest test = new BitCountersTest();
+        test.setUp();
+        test.test8BitCounting();
+
+        int[][] inputPattern = new int[256][1];
+        for (int i = 0; i < inputPattern.length; i++) {
+            inputPattern[i][0] = i;
+        }
+        assertParity("BitCounter8", test.network, 16, inputPattern);
+        assertParity("BitCounter8", test.network, 8, inputPattern);
+    }
+
+    @Test
+    public void fuzzyToOneHotTest() {
+        FuzzyTest test = new FuzzyTest();
+        test.setUp();
+        test.fuzzy_to_oneHot10Test();
+        assertParity("Fuzzy_to_OneHot10", test.network, 16, linearPattern(1, FuzzyTest.MAX_VALUE));
+    }
+
+    @Test
+    public void fuzzyAssignTest() {
+        FuzzyTest test = new FuzzyTest();
+        test.setUp();
+        test.assignTest0_5();
+        assertParity("FuzzyAssign", test.network, 16, linearPattern(1, FuzzyTest.MAX_VALUE));
+    }
+
+    @Test
+    public void fuzzyAddTest() {
+        FuzzyTest test = new FuzzyTest();
+        test.setUp();
+        test.addTestAplusInvA();
+        assertParity("FuzzyAdd", test.network, 16, linearPattern(2, FuzzyTest.MAX_VALUE));
+    }
+
+    @Test
+    public void vectorTest() {
+        VectorTest test = new VectorTest();
+        test.setUp();
+        test.lineTest10();
+
+        int[][] inputPattern = new int[VectorTest.MAX_VALUE + 3][VectorTest.MAX_SIZE];
+        for (int i = 0; i <= VectorTest.MAX_VALUE; i++) {
+            for (int j = 0; j < VectorTest.MAX_SIZE; j++) {
+                inputPattern[i][j] = i;
+            }
+        }
+        for (int j = 0; j < VectorTest.MAX_SIZE; j++) {
+            inputPattern[VectorTest.MAX_VALUE + 1][j] = j * VectorTest.MAX_VALUE / VectorTest.MAX_SIZE;
+            inputPattern[VectorTest.MAX_VALUE + 2][j] = (VectorTest.MAX_SIZE - j) * VectorTest.MAX_VALUE / VectorTest.MAX_SIZE;
+        }
+        assertParity("Vector_to_OneHot10", test.network, 16, inputPattern);
+    }
+
+    @Test
+    public void matrixTest() {
+        Numbers123Test test = new Numbers123Test();
+        test.setUp();
+        test.numbers123LearnAll();
+
+        // all bitmaps with up to two pixels flipped from a diagonal
+        int[][] inputPattern = new int[20 * 20][20];
+        for (int i = 0; i < 20; i++) {
+            for (int j = 0; j < 20; j++) {
+                int[] pattern = inputPattern[i * 20 + j];
+                for (int k = 0; k < 20; k++) {
+                    pattern[k] = (k % 5 == k / 4) ? 1 : 0;
+                }
+                pattern[i] ^= 1;
+                pattern[j] ^= 1;
+            }
+        }
+        assertParity("Numbers123", test.network, 16, inputPattern);
+    }
+
+    @Test
+    public void droppedNetworkTest() throws InterruptedException {
+        BitCountersTest test = new BitCountersTest();
+        test.setUp();
+        test.test8BitCounting();
+
+        // the evaluator decodes with the hit-statistics of the compilation, as a snapshot of that time
+        NetworkSnapshot snapshot = test.network.publish();
+        QuantizedEvaluator evaluator = new QuantizedEvaluator(test.network, 8);
+        int[][] expected = new int[256][];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = snapshot.query(new int[]{i});
+        }
+        WeakReference<Network> reference = new WeakReference<>(test.network);
+        test.network = null;
+        snapshot = null;
+
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(reference.get());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("input is " + i, Utils.intArrayToString(expected[i]), Utils.intArrayToString(evaluator.query(new int[]{i})));
+        }
+    }
+
+    private static int[][] linearPattern(int dimensions, int max) {
+        int[][] pattern = new int[max + 1][dimensions];
+        for (int i = 0; i <= max; i++) {
+            for (int d = 0; d < dimensions; d++) {
+                pattern[i][d] = (d % 2 == 0) ? i : max - i;
+            }
+        }
+        return pattern;
+    }
+
+    private void assertParity(String name, Network network, int weightBits, int[][] inputPattern) {
+        assertTrue(QuantizedEvaluator.isApplicable(network));
+        QuantizedEvaluator evaluator = new QuantizedEvaluator(network, weightBits);
+
+        int[] quantized = new int[evaluator.getOutputSize()];
+        int[] expected = new int[network.getOutputSize()];
+        for (int[] input : inputPattern) {
+            evaluator.queryInto(input, quantized);
+            network.queryInto(input, expected);
+            assertEquals(name + ": input is " + Utils.intArrayToString(input), Utils.intArrayToString(expected), Utils.intArrayToString(quantized));
+        }
+        LOG.info(name + ": " + weightBits + " bit weights (" + evaluator.getWeightBytes() + " bytes), all " + inputPattern.length + " outputs are equal.");
+
+        // the evaluator replaces the float network
+        final long floatBytes = network.measureMemory().getTotalBytes();
+        final long quantizedBytes = evaluator.getMemoryBytes();
+        LOG.info(name + ": float network " + floatBytes + " bytes, quantized evaluator " + quantizedBytes + " bytes ("
+                + String.format("%.1f", 100.0 * quantizedBytes / floatBytes) + "%).");
+        assertTrue(name + ": the evaluator needs more memory than the network", 0 < quantizedBytes && quantizedBytes < floatBytes);
+    }
+}
@@ -0,0 +1,56 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+import rapid.net.port.Port;
+import rapid.util.Utils;
+
+public class ShardingTest extends TestBase {
+
+    private static final Logger LOG = LogManager.getLogger(ShardingTest.class);
+
+    public static final int MAX = 7;
+
+    public ShardingTest() {
+        super("Sharding");
+    }
+
+    @Test
+    public void parityTest() {
+        name = "ShardingSumMax";
+        final int[][] inputPattern = runSumMaxTest(MAX);
+        final Port outSum = network.getOutputSlots()[0];
+        final Port outMax = network.getOutputSlots()[1];
+
+        ShardedEvaluator evaluator = new ShardedEvaluator(network);
+        LOG.info(name + ": " + evaluator);
+        assertEquals(2, evaluator.getShardCount());
+        assertEquals("The cones of the output ports are disjoint.", 0, evaluator.getCrossShardEdges());
+        assertParity(evaluator, inputPattern);
+        evaluator.shutdown();
+
+        // a gate of the sum-cone which also feeds the max-port is replicated into the max-shard
+        Gate shared = (Gate) outSum.getGates().get(2 * MAX).getFirstIn().getFrom();
+        Edge edge = shared.createOut(outMax.getGates().get(MAX));
+        outMax.getGates().get(MAX).addIn(edge);
+        evaluator = new ShardedEvaluator(network);
+        LOG.info(name + ": " + evaluator);
+        assertEquals(1, evaluator.getCrossShardEdges());
+        assertEquals(0, evaluator.getReplicatedGateCount(0));
+        assertEquals(1, evaluator.getReplicatedGateCount(1));
+        assertParity(evaluator, inputPattern);
+        evaluator.shutdown();
+    }
+
+    private void assertParity(ShardedEvaluator evaluator, int[][] inputPattern) {
+        final String[] expected = querySnapshot(inputPattern);
+        int[] output = new int[evaluator.getOutputSize()];
+        for (int i = 0; i < inputPattern.length; i++) {
+            evaluator.queryInto(inputPattern[i], output);
+            assertEquals("Input is " + Utils.intArrayToString(inputPattern[i]), expected[i], Utils.intArrayToString(output));
+        }
+    }
+}
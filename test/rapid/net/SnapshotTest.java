@@ -0,0 +1,179 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import rapid.net.port.OneHotPort;
+import rapid.net.port.Port;
+import rapid.net.port.PortFactory;
+import rapid.util.Utils;
+
+public class SnapshotTest extends TestBase {
+
+    private static final Logger LOG = LogManager.getLogger(SnapshotTest.class);
+
+    public static final int BITS = 8;
+    public static final int READERS = 4;
+
+    public SnapshotTest() {
+        super("Snapshot");
+    }
+
+    @Test
+    public void parityTest() {
+        name = "SnapshotParity";
+        createBitCounter();
+        int[][] inputPattern = createInputPattern();
+        runTest_Start();
+        runTest_Learn(inputPattern, createOutputPattern());
+
+        NetworkSnapshot snapshot = network.publish();
+        for (int[] input : inputPattern) {
+            int[] expected = network.query(input, null);
+            assertEquals("Input is " + Utils.intArrayToString(input), Utils.intArrayToString(expected), Utils.intArrayToString(snapshot.query(input)));
+        }
+        runTest_Stop();
+    }
+
+    @Test
+    public void structuralSharingTest() {
+        createBitCounter();
+        int[][] inputPattern = createInputPattern();
+        int[][] outputPattern = createOutputPattern();
+        for (int i = 0; i < inputPattern.length - 1; i++) {
+            network.learn(inputPattern[i], outputPattern[i], null, false);
+        }
+        NetworkSnapshot first = network.publish();
+        network.learn(inputPattern[inputPattern.length - 1], outputPattern[inputPattern.length - 1], null, false);
+        NetworkSnapshot second = network.publish();
+
+        // only the new AND-gate and the output gate it feeds are new
+        int gates = second.getGateCount() + (BITS + 1);
+        int shared = second.countSharedGates(first);
+        LOG.info("Snapshot " + second.getVersion() + " shares " + shared + " of " + gates + " gates with snapshot " + first.getVersion());
+        assertEquals(first.getGateCount() + 1, second.getGateCount());
+        assertEquals(gates - 2, shared);
+    }
+
+    @Test
+    public void concurrentReadersTest() throws InterruptedException {
+        name = "SnapshotConcurrentReaders";
+        createBitCounter();
+        network.setAutoPublish(true);
+        assertNull(network.getSnapshot());
+        network.publish();
+
+        final AtomicBoolean learning = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicLong queries = new AtomicLong();
+        ArrayList<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            final Random random = new Random(r);
+            Thread reader = new Thread(() -> {
+                try {
+                    int[] input = new int[1];
+                    int[] output = new int[1];
+                    while (learning.get()) {
+                        NetworkSnapshot snapshot = network.getSnapshot();
+                        input[0] = random.nextInt(1 << BITS);
+                        snapshot.queryInto(input, output);
+                        assertTrue(output[0] >= 0 && output[0] <= BITS);
+                        queries.incrementAndGet();
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }, "SnapshotReader" + r);
+            readers.add(reader);
+            reader.start();
+        }
+
+        int[][] inputPattern = createInputPattern();
+        int[][] outputPattern = createOutputPattern();
+        runTest_Start();
+        runTest_Learn(inputPattern, outputPattern);
+        runTest_Optimize();
+        learning.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull("Reader failed: " + failure.get(), failure.get());
+        LOG.info(name + ": " + queries.get() + " concurrent queries on " + network.getSnapshot().getVersion() + " snapshots");
+
+        // the last published snapshot contains everything learned
+        NetworkSnapshot snapshot = network.getSnapshot();
+        for (int i = 0; i < inputPattern.length; i++) {
+            assertEquals("Input is " + Utils.intArrayToString(inputPattern[i]), outputPattern[i][0], snapshot.query(inputPattern[i])[0]);
+        }
+        runTest_Stop();
+    }
+
+    @Test
+    public void supersededSnapshotTest() throws InterruptedException {
+        createBitCounter();
+        runTest_Learn(createInputPattern(), createOutputPattern());
+        NetworkSnapshot first = network.publish();
+        first.query(new int[]{3});
+        WeakReference<NetworkSnapshot> reference = new WeakReference<>(first);
+        first = null;
+        network.publish();
+
+        // the working storage of this thread does not keep the superseded snapshot
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(reference.get());
+    }
+
+    @Test
+    public void frozenDecoderTest() {
+        OneHotPort port = PortFactory.createOneHot("Out", 2, 0);
+        port.getGates().get(1).incHits();
+        port.getGates().get(2).incHits();
+        port.getGates().get(2).incHits();
+        final float[] tie = new float[]{0.0f, 1.0f, 1.0f};
+        Port.Decoder decoder = port.freezeDecoder();
+        assertEquals(1, port.decodeValue(tie, 10));
+        assertEquals(1, decoder.decode(tie, 10));
+
+        // the hits counted after the freeze do not change the decoder
+        for (int i = 0; i < 4; i++) {
+            port.getGates().get(1).incHits();
+        }
+        assertEquals(2, port.decodeValue(tie, 10));
+        assertEquals(1, decoder.decode(tie, 10));
+        assertEquals(port.estimateValue(), decoder.decode(new float[3], 10));
+    }
+
+    private void createBitCounter() {
+        network.addInput(PortFactory.createOneHot("In", (1 << BITS) - 1, network.getCycles()));
+        network.addOutput(PortFactory.createOneHot("Out", BITS, network.getCycles()));
+    }
+
+    private static int[][] createInputPattern() {
+        int[][] pattern = new int[1 << BITS][1];
+        for (int i = 0; i < pattern.length; i++) {
+            pattern[i][0] = i;
+        }
+        return pattern;
+    }
+
+    private static int[][] createOutputPattern() {
+        int[][] pattern = new int[1 << BITS][1];
+        for (int i = 0; i < pattern.length; i++) {
+            pattern[i][0] = Integer.bitCount(i);
+        }
+        return pattern;
+    }
+}
@@ -13,6 +13,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import rapid.net.port.PortFactory;
 import rapid.util.CsvWriter;
 import rapid.util.Utils;
 
@@ -20,14 +21,21 @@ public abstract class TestBase {
 
     private static final Logger LOG = LogManager.getLogger(TestBase.class);
 
+    // the learn stats of the network are written after every LEARN_STATS_INTERVAL learns and at the end of a test
+    public static final int LEARN_STATS_INTERVAL = 1000;
+
     protected String name;
     protected CsvWriter csvWriter;
+    protected CsvWriter learnStatsCsvWriter;
 
     protected Network network;
 
     private long startMillis;
     private int successCount = 0;
     private int failCount = 0;
+    private long propagatedGates = 0;
+    private long skippedGates = 0;
+    private long skippedEdges = 0;
 
     protected TestBase(String name) {
         this.name = name;
@@ -45,11 +53,16 @@ public abstract class TestBase {
             csvWriter.print("#Gates");
             csvWriter.println();
         }
+        learnStatsCsvWriter = new CsvWriter("logs/" + name + "-LearnStats.csv");
+        if (learnStatsCsvWriter.open(true)) {
+            LearnStats.writeHeader(learnStatsCsvWriter);
+        }
     }
 
     @Override
     protected void finalize() throws Throwable {
         csvWriter.close();
+        learnStatsCsvWriter.close();
         super.finalize();
     }
 
@@ -64,6 +77,9 @@ public abstract class TestBase {
     @Before
     public void setUp() {
         network = new Network(this.getClass().getSimpleName());
+        // run the tests with an activation threshold (e.g. -Drapid.activationThreshold=0.001) to check the output parity
+        network.setActivationThreshold(Float.parseFloat(System.getProperty("rapid.activationThreshold", "0")));
+        network.setLearnStatsCsv(learnStatsCsvWriter, LEARN_STATS_INTERVAL);
     }
 
     @After
@@ -100,6 +116,34 @@ public abstract class TestBase {
         return runTest_Stop();
     }
 
+    /**
+     * Learns and verifies the sum and the maximum of two values ("SumMax"), the network is created by addSumMaxPorts().
+     * @return the input patterns, see generatePairPattern()
+     */
+    protected int[][] runSumMaxTest(int max) {
+        addSumMaxPorts(network, max);
+        final int[][] inputPattern = generatePairPattern(max);
+        runTest_Start();
+        runTest_Learn(inputPattern, generateSumMaxPattern(max));
+        runTest_Verify(inputPattern, generateSumMaxPattern(max), true);
+        runTest_Stop();
+        return inputPattern;
+    }
+
+    /**
+     * Publishes a snapshot of the network and queries it. An evaluator compiled at the same time has to return
+     * the same results, since both balance the ties by the hits at the time of the compilation.
+     * @return the output patterns of the snapshot as strings
+     */
+    protected String[] querySnapshot(int[][] inputPattern) {
+        final NetworkSnapshot snapshot = network.publish();
+        String[] outputs = new String[inputPattern.length];
+        for (int i = 0; i < inputPattern.length; i++) {
+            outputs[i] = Utils.intArrayToString(snapshot.query(inputPattern[i]));
+        }
+        return outputs;
+    }
+
     protected void runTest_Start() {
         startMillis = System.currentTimeMillis();
     }
@@ -116,7 +160,9 @@ public abstract class TestBase {
         boolean resultOk = true;
         LOG.debug("---------- PHASE " + (assertIfFailed ? "4" : "2") + ": Verification ---------- ");
         for (int i = 0; i < inputPattern.length; i++) {
-            if (network.verify(inputPattern[i], outputPattern[i], null)) {
+            boolean verified = network.verify(inputPattern[i], outputPattern[i], null);
+            countPropagation();
+            if (verified) {
                 successCount++;
             } else {
                 failCount++;
@@ -134,7 +180,9 @@ public abstract class TestBase {
         boolean resultOk = true;
         LOG.debug("---------- PHASE " + (assertIfFailed ? "4" : "2") + ": Verification ---------- ");
         for (int i = 0; i < inputPattern.length; i++) {
-            if (network.verify(inputPattern[i], null, verifyFunc)) {
+            boolean verified = network.verify(inputPattern[i], null, verifyFunc);
+            countPropagation();
+            if (verified) {
                 successCount++;
             } else {
                 failCount++;
@@ -148,6 +196,12 @@ public abstract class TestBase {
         return resultOk;
     }
 
+    private void countPropagation() {
+        propagatedGates += network.getPropagatedGates();
+        skippedGates += network.getSkippedGates();
+        skippedEdges += network.getSkippedEdges();
+    }
+
     protected int runTest_Optimize() {
         LOG.debug("---------- PHASE 3: Optimizing ---------- ");
         int count = network.optimizeAll();
@@ -159,6 +213,10 @@ public abstract class TestBase {
         long stopMillis = System.currentTimeMillis();
         LOG.info(network.toString());
         LOG.info(name + ": Test " + ((0 == failCount) ? "OK" : "FAILED") + " succeeded=" + successCount + " failed=" + failCount + " duration=" + (stopMillis - startMillis) + " msec.");
+        if (network.getActivationThreshold() > 0.0f) {
+            LOG.info(name + ": activation threshold " + network.getActivationThreshold() + " on verification: propagated gates=" + propagatedGates
+                    + " skipped gates=" + skippedGates + " skipped edges=" + skippedEdges);
+        }
         csvWriter.print(name);
         csvWriter.print((0 == failCount) ? "OK" : "FAILED");
         DateTimeFormatter ftDate = DateTimeFormatter.ofPattern("yyyy-MM-dd", Locale.ENGLISH);
@@ -171,10 +229,63 @@ public abstract class TestBase {
         csvWriter.print(network.getCycles());
         csvWriter.print(network.gates.size());
         csvWriter.println();
+        network.getLearnStats().write(learnStatsCsvWriter, name);
         assertEquals(name + ": Tests succeeded=" + successCount + " failed=" + failCount + " duration=" + (stopMillis - startMillis) + " msec.", 0, failCount);
         return failCount == 0;
     }
 
+    /**
+     * Adds the input ports InA and InB (0..max) and the output port OutSum (0..2*max).
+     */
+    public static void addSumPorts(Network network, int max) {
+        network.addInput(PortFactory.createOneHot("InA", max, network.getCycles()));
+        network.addInput(PortFactory.createOneHot("InB", max, network.getCycles()));
+        network.addOutput(PortFactory.createOneHot("OutSum", 2 * max, network.getCycles()));
+    }
+
+    /**
+     * Adds the ports of addSumPorts() and the output port OutMax (0..max).
+     */
+    public static void addSumMaxPorts(Network network, int max) {
+        addSumPorts(network, max);
+        network.addOutput(PortFactory.createOneHot("OutMax", max, network.getCycles()));
+    }
+
+    /**
+     * @return the patterns {a, b} of all a and b in 0..max
+     */
+    public static int[][] generatePairPattern(int max) {
+        int[][] pattern = new int[(max + 1) * (max + 1)][];
+        for (int a = 0; a <= max; a++) {
+            for (int b = 0; b <= max; b++) {
+                pattern[a * (max + 1) + b] = new int[]{a, b};
+            }
+        }
+        return pattern;
+    }
+
+    /**
+     * @return the patterns {a + b} of generatePairPattern()
+     */
+    public static int[][] generateSumPattern(int max) {
+        int[][] pattern = generatePairPattern(max);
+        for (int i = 0; i < pattern.length; i++) {
+            pattern[i] = new int[]{pattern[i][0] + pattern[i][1]};
+        }
+        return pattern;
+    }
+
+    /**
+     * @return the patterns {a + b, max(a, b)} of generatePairPattern()
+     */
+    public static int[][] generateSumMaxPattern(int max) {
+        int[][] pattern = generatePairPattern(max);
+        for (int i = 0; i < pattern.length; i++) {
+            pattern[i] = new int[]{pattern[i][0] + pattern[i][1], Math.max(pattern[i][0], pattern[i][1])};
+        }
+        return pattern;
+    }
+
     public static int[][] generateConstantPattern(int from, int to, int value) {
         int[][] pattern = new int[to - from + 1][1];
         generateConstantPattern(pattern, from, to, value, 0);
@@ -0,0 +1,67 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import rapid.util.Utils;
+
+public class WavePipelineTest extends TestBase {
+
+    private static final Logger LOG = LogManager.getLogger(WavePipelineTest.class);
+
+    public static final int MAX = 7;
+    public static final int ROUNDS = 50;
+
+    public WavePipelineTest() {
+        super("WavePipeline");
+    }
+
+    @Test
+    public void pipelineTest() throws Exception {
+        name = "WavePipelineSumMax";
+        final int[][] inputPattern = runSumMaxTest(MAX);
+        final String[] expected = querySnapshot(inputPattern);
+        WavePipeline pipeline = new WavePipeline(network, 4, 8);
+        LOG.info(name + ": " + pipeline);
+        assertEquals(2, pipeline.getStageCount());
+        for (int i = 0; i < inputPattern.length; i++) {
+            assertEquals("Input is " + Utils.intArrayToString(inputPattern[i]), expected[i], Utils.intArrayToString(pipeline.query(inputPattern[i])));
+        }
+
+        // a stream of queries, the results arrive in order
+        long latencyNanos = 0;
+        long streamNanos = 0;
+        final int queries = ROUNDS * inputPattern.length;
+        for (int round = 0; round < 2; round++) {   // the first round warms up
+            long start = System.nanoTime();
+            for (int r = 0; r < ROUNDS; r++) {
+                for (int[] input : inputPattern) {
+                    pipeline.query(input);
+                }
+            }
+            latencyNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            List<CompletableFuture<int[]>> futures = new ArrayList<>(queries);
+            for (int r = 0; r < ROUNDS; r++) {
+                for (int[] input : inputPattern) {
+                    futures.add(pipeline.submit(input));
+                    assertTrue(pipeline.getWavesInFlight() <= pipeline.getDepth());
+                }
+            }
+            for (int q = 0; q < queries; q++) {
+                assertEquals(expected[q % inputPattern.length], Utils.intArrayToString(futures.get(q).get()));
+            }
+            streamNanos = System.nanoTime() - start;
+        }
+        LOG.info(name + ": latency " + latencyNanos / queries + "ns/query, streamed " + streamNanos / queries + "ns/query");
+        pipeline.close();
+        assertEquals(0, pipeline.getWavesInFlight());
+    }
+}
@@ -0,0 +1,122 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.dist;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import rapid.net.TestBase;
+import rapid.util.Utils;
+
+public class PartitionTest extends TestBase {
+
+    private static final Logger LOG = LogManager.getLogger(PartitionTest.class);
+
+    public static final int MAX = 7;
+
+    public PartitionTest() {
+        super("Partition");
+    }
+
+    @Test
+    public void twoProcessTest() throws Exception {
+        List<PortSpec> inputs = Arrays.asList(PortSpec.oneHot("InA", MAX), PortSpec.oneHot("InB", MAX));
+        List<PortSpec> outputs = Arrays.asList(PortSpec.oneHot("OutSum", 2 * MAX), PortSpec.oneHot("OutMax", MAX));
+        List<PartitionWorker.Handle> handles = new ArrayList<>();
+        try {
+            List<InetSocketAddress> workers = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                handles.add(PartitionWorker.launch());
+                workers.add(handles.get(i).getAddress());
+            }
+            try (PartitionCoordinator coordinator = new PartitionCoordinator("PartitionSumMax", inputs, outputs, workers)) {
+                assertEquals(2, coordinator.getInputSize());
+                assertEquals(2, coordinator.getOutputSize());
+                final int[][] inputPattern = generatePairPattern(MAX);
+                final int[][] outputPattern = generateSumMaxPattern(MAX);
+                for (int i = 0; i < inputPattern.length; i++) {
+                    coordinator.learn(inputPattern[i], outputPattern[i], false);
+                }
+                int[] gates = coordinator.getGateCounts();
+                LOG.info(coordinator + " gates=" + Utils.intArrayToString(gates));
+                assertTrue(gates[0] > 0 && gates[1] > 0);
+
+                int[] output = new int[coordinator.getOutputSize()];
+                for (int i = 0; i < inputPattern.length; i++) {
+                    coordinator.queryInto(inputPattern[i], output);
+                    assertEquals("Input is " + Utils.intArrayToString(inputPattern[i]), Utils.intArrayToString(outputPattern[i]), Utils.intArrayToString(output));
+                }
+            }
+        } finally {
+            for (PartitionWorker.Handle handle : handles) {
+                handle.destroy();
+            }
+        }
+    }
+
+    @Test
+    public void errorTest() throws Exception {
+        List<PortSpec> inputs = Arrays.asList(PortSpec.oneHot("InA", MAX), PortSpec.oneHot("InB", MAX));
+        List<PortSpec> outputs = Arrays.asList(PortSpec.oneHot("OutSum", 2 * MAX), PortSpec.oneHot("OutMax", MAX));
+        List<PartitionWorker.Handle> handles = new ArrayList<>();
+        try {
+            List<InetSocketAddress> workers = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                handles.add(PartitionWorker.launch());
+                workers.add(handles.get(i).getAddress());
+            }
+            try (PartitionCoordinator coordinator = new PartitionCoordinator("PartitionError", inputs, outputs, workers)) {
+                coordinator.learn(new int[]{1, 2}, new int[]{3, 2}, false);
+
+                // all partitions fail, the error replies of all of them must be read
+                try {
+                    coordinator.learn(new int[]{100, 2}, new int[]{102, 100}, false);
+                    fail("The invalid input value is rejected.");
+                } catch (IllegalStateException ex) {
+                    LOG.info(coordinator.name + ": " + ex.getMessage());
+                    assertTrue(ex.getMessage().contains(workers.get(0).toString()));
+                    assertTrue(ex.getMessage().contains(workers.get(1).toString()));
+                }
+                assertFalse(coordinator.isBroken());
+                assertEquals("3,2", Utils.intArrayToString(coordinator.query(new int[]{1, 2})));
+                assertEquals(2, coordinator.getGateCounts().length);
+            }
+        } finally {
+            for (PartitionWorker.Handle handle : handles) {
+                handle.destroy();
+            }
+        }
+    }
+
+    @Test
+    public void valueCountTest() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Protocol.writeValues(out, new int[]{1, -1, 300}, 0, 3);
+        Protocol.writeVarInt(out, Integer.MAX_VALUE);
+        Protocol.writeVarInt(out, -1);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals("1,-1,300", Utils.intArrayToString(Protocol.readValues(in)));
+        for (int i = 0; i < 2; i++) {
+            try {
+                Protocol.readValues(in);
+                fail("The value count of a damaged message is rejected.");
+            } catch (IOException ex) {
+                LOG.info(ex.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.flow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import rapid.net.Network;
+import rapid.net.NetworkPool;
+import rapid.net.TestBase;
+import rapid.util.Utils;
+
+public class NetworkProcessorTest extends TestBase {
+
+    private static final Logger LOG = LogManager.getLogger(NetworkProcessorTest.class);
+
+    public static final int MAX = 5;
+    public static final int BUFFER_SIZE = 8;
+
+    public NetworkProcessorTest() {
+        super("NetworkProcessor");
+    }
+
+    /**
+     * Publishes the items of a list, as many as were requested.
+     */
+    private static final class ListPublisher<T> implements Flow.Publisher<T> {
+
+        final List<T> items;
+        long requested = 0;
+        int next = 0;
+        boolean emitting = false;
+        boolean cancelled = false;
+
+        ListPublisher(List<T> items) {
+            this.items = items;
+        }
+
+        synchronized long getRequested() {
+            return requested;
+        }
+
+        synchronized int getDelivered() {
+            return next;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super T> subscriber) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    synchronized (ListPublisher.this) {
+                        requested += n;
+                        if (emitting) {
+                            return;
+                        }
+                        emitting = true;
+                    }
+                    while (true) {
+                        final T item;
+                        synchronized (ListPublisher.this) {
+                            if (cancelled || next >= requested || next >= items.size()) {
+                                emitting = false;
+                                if (cancelled || next < items.size()) {
+                                    return;
+                                }
+                                cancelled = true;   // completed
+                                item = null;
+                            } else {
+                                item = items.get(next++);
+                            }
+                        }
+                        if (item == null) {
+                            subscriber.onComplete();
+                            return;
+                        }
+                        subscriber.onNext(item);
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    synchronized (ListPublisher.this) {
+                        cancelled = true;
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Collects the results, it requests them one by one once it is started.
+     */
+    private static final class Collector<T> implements Flow.Subscriber<T> {
+
+        final List<T> items = new ArrayList<>();
+        final CompletableFuture<List<T>> done = new CompletableFuture<>();
+        volatile Flow.Subscription subscription;
+
+        void start(long n) {
+            subscription.request(n);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(T item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(items);
+        }
+    }
+
+    private static Network createNetwork(String name) {
+        Network network = new Network(name);
+        addSumPorts(network, MAX);
+        return network;
+    }
+
+    private static List<NetworkProcessor.Sample<String>> samples(String key, boolean learn) {
+        final int[][] inputPattern = generatePairPattern(MAX);
+        final int[][] outputPattern = generateSumPattern(MAX);
+        List<NetworkProcessor.Sample<String>> samples = new ArrayList<>();
+        for (int i = 0; i < inputPattern.length; i++) {
+            samples.add(learn ? NetworkProcessor.Sample.learn(key, inputPattern[i], outputPattern[i])
+                    : NetworkProcessor.Sample.query(key, inputPattern[i]));
+        }
+        return samples;
+    }
+
+    @Test
+    public void learnAndQueryTest() throws Exception {
+        NetworkPool pool = new NetworkPool(2);
+        Network sum = createNetwork("FlowSum");
+        NetworkProcessor<String> processor = new NetworkProcessor<>(pool, sum, BUFFER_SIZE);
+        List<NetworkProcessor.Sample<String>> samples = samples("sum", true);
+        samples.addAll(samples("sum", false));
+        ListPublisher<NetworkProcessor.Sample<String>> publisher = new ListPublisher<>(samples);
+        Collector<NetworkProcessor.Result<String>> collector = new Collector<>();
+        processor.subscribe(collector);
+        publisher.subscribe(processor);
+
+        // backpressure: without demand of the subscriber only the buffer is filled
+        while (processor.getBuffered() < BUFFER_SIZE) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(20);
+        assertEquals(BUFFER_SIZE, publisher.getRequested());
+        assertEquals(BUFFER_SIZE, publisher.getDelivered());
+        assertEquals(0, processor.getEmitted());
+
+        collector.start(Long.MAX_VALUE);
+        List<NetworkProcessor.Result<String>> results = collector.done.get(10, TimeUnit.SECONDS);
+        assertEquals(samples.size(), results.size());
+        int learned = 0;
+        for (int i = 0; i < samples.size(); i++) {
+            final NetworkProcessor.Result<String> result = results.get(i);
+            assertTrue(samples.get(i) == result.getSample());
+            if (result.getSample().isLearn()) {
+                learned += result.isLearned() ? 1 : 0;
+            } else {
+                final int[] input = result.getSample().getInputPattern();
+                assertEquals(result.toString(), input[0] + input[1], result.getOutputValues()[0]);
+            }
+        }
+        assertTrue(learned > 0);
+        assertTrue(publisher.getRequested() <= samples.size() + BUFFER_SIZE);
+        LOG.info(name + ": " + processor + ", " + pool.getStats(sum));
+        pool.shutdown(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void keyedOrderTest() throws Exception {
+        NetworkPool pool = new NetworkPool(3);
+        pool.setBatchSize(2);
+        Network networkA = createNetwork("FlowA");
+        Network networkB = createNetwork("FlowB");
+        NetworkProcessor<String> processor = new NetworkProcessor<>(pool, key -> "A".equals(key) ? networkA : networkB, BUFFER_SIZE);
+        processor.setOptimize(true);
+        // the samples of the keys are interleaved
+        List<NetworkProcessor.Sample<String>> samplesA = samples("A", true);
+        List<NetworkProcessor.Sample<String>> samplesB = samples("B", true);
+        List<NetworkProcessor.Sample<String>> samples = new ArrayList<>();
+        for (int i = 0; i < samplesA.size(); i++) {
+            samples.add(samplesA.get(i));
+            samples.add(samplesB.get(i));
+        }
+        ListPublisher<NetworkProcessor.Sample<String>> publisher = new ListPublisher<>(samples);
+        Collector<NetworkProcessor.Result<String>> collector = new Collector<>();
+        processor.subscribe(collector);
+        collector.start(Long.MAX_VALUE);
+        publisher.subscribe(processor);
+        List<NetworkProcessor.Result<String>> results = collector.done.get(10, TimeUnit.SECONDS);
+        assertEquals(samples.size(), results.size());
+
+        // the results of a key keep the order of its samples
+        int nextA = 0;
+        int nextB = 0;
+        for (NetworkProcessor.Result<String> result : results) {
+            if ("A".equals(result.getKey())) {
+                assertTrue(samplesA.get(nextA++) == result.getSample());
+            } else {
+                assertTrue(samplesB.get(nextB++) == result.getSample());
+            }
+        }
+        for (NetworkProcessor.Sample<String> sample : samplesA) {
+            assertEquals(Utils.intArrayToString(sample.getOutputPattern()), Utils.intArrayToString(networkA.query(sample.getInputPattern(), null)));
+        }
+        assertEquals(networkA.getGates().size(), networkB.getGates().size());
+        pool.shutdown(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void failureTest() throws Exception {
+        NetworkPool pool = new NetworkPool(1);
+        Network sum = createNetwork("FlowFailure");
+        NetworkProcessor<String> processor = new NetworkProcessor<>(pool, key -> {
+            if ("unknown".equals(key)) {
+                throw new IllegalArgumentException("No network for " + key);
+            }
+            return sum;
+        }, BUFFER_SIZE);
+        List<NetworkProcessor.Sample<String>> samples = samples("sum", false);
+        samples.add(3, NetworkProcessor.Sample.query("unknown", new int[]{1, 1}));
+        ListPublisher<NetworkProcessor.Sample<String>> publisher = new ListPublisher<>(samples);
+        Collector<NetworkProcessor.Result<String>> collector = new Collector<>();
+        processor.subscribe(collector);
+        collector.start(Long.MAX_VALUE);
+        publisher.subscribe(processor);
+        try {
+            collector.done.get(10, TimeUnit.SECONDS);
+            assertTrue("The stream did not fail", false);
+        } catch (java.util.concurrent.ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IllegalArgumentException);
+        }
+        assertTrue(publisher.cancelled);
+        assertTrue(publisher.getDelivered() < samples.size());
+
+        // a second subscriber is rejected
+        Collector<NetworkProcessor.Result<String>> second = new Collector<>();
+        processor.subscribe(second);
+        assertTrue(second.done.isCompletedExceptionally());
+        pool.shutdown(1, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,217 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Test;
+import rapid.net.Network;
+import rapid.net.NetworkCheckpoint;
+import rapid.net.TestBase;
+import rapid.net.port.MapToOneHotPort;
+import rapid.net.port.PortFactory;
+import rapid.net.port.Portable;
+import rapid.util.Utils;
+
+public class LearningJournalTest extends TestBase {
+
+    private static final Logger LOG = LogManager.getLogger(LearningJournalTest.class);
+
+    public static final int MAX = 5;
+
+    private File directory;
+
+    public LearningJournalTest() {
+        super("LearningJournal");
+    }
+
+    @After
+    @Override
+    public void tearDown() {
+        if (directory != null) {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MapToOneHotPort<String> createPorts(Network network) {
+        addSumPorts(network, MAX);
+        return network.addOutput(PortFactory.createMapToOneHot("OutParity"));
+    }
+
+    private static void learn(Network network, int fromA, int toA) {
+        for (int a = fromA; a <= toA; a++) {
+            for (int b = 0; b <= MAX; b++) {
+                network.learn(new int[]{a, b}, new int[]{a + b, (a + b) % 2}, null, false);
+            }
+        }
+    }
+
+    private static void assertSameStructure(Network expected, Network actual) {
+        assertEquals(expected.getCycles(), actual.getCycles());
+        assertEquals(expected.getGates().size(), actual.getGates().size());
+        assertEquals(expected.dumpNetworkToString(false), actual.dumpNetworkToString(false));
+    }
+
+    private static void assertSameNetwork(Network expected, Network actual) {
+        assertSameStructure(expected, actual);
+        for (int[] input : generatePairPattern(MAX)) {
+            assertEquals("Input is " + Utils.intArrayToString(input), Utils.intArrayToString(expected.query(input, null)), Utils.intArrayToString(actual.query(input, null)));
+        }
+    }
+
+    @Test
+    public void recoveryTest() throws IOException {
+        directory = Files.createTempDirectory("rapid-journal").toFile();
+        MapToOneHotPort<String> parity = createPorts(network);
+        LearningJournal journal = new LearningJournal(network, directory);
+        journal.setCheckpointInterval(0);
+        journal.open();
+        parity.createItem("even", network.getCycles());
+        parity.createItem("odd", network.getCycles());
+        learn(network, 0, MAX / 2);
+        journal.checkpoint();
+        learn(network, MAX / 2 + 1, MAX);
+        network.optimizeIncremental(Long.MAX_VALUE);
+        journal.sync();
+        LOG.info(name + ": " + journal);
+        assertEquals(1, journal.getCheckpoints());
+        assertTrue(journal.getGroupCommits() > 0);
+
+        // recover into a new network with the same ports, as after a crash
+        Network recovered = new Network("Recovered");
+        createPorts(recovered);
+        LearningJournal recovery = new LearningJournal(recovered, directory);
+        recovery.open();
+        LOG.info(name + ": " + recovery);
+        assertTrue(recovery.getReplayedRecords() > 0);
+        assertEquals(0, recovery.getTruncatedBytes());
+        assertEquals(0, recovery.getDivergences());
+        assertSameNetwork(network, recovered);
+        recovery.close();
+        journal.close();
+    }
+
+    @Test
+    public void portGroupTest() throws IOException {
+        directory = Files.createTempDirectory("rapid-journal").toFile();
+        createGroupPorts(network);
+        LearningJournal journal = new LearningJournal(network, directory);
+        journal.open();
+        runTest_Learn(generatePairPattern(MAX), generateSumMaxPattern(MAX));
+        // the optimization of the gates of the child ports is journaled
+        final int optimized = network.optimizeAll(network.getOutputs().get(0));
+        LOG.info(name + ": optimized " + optimized);
+        assertTrue(optimized > 0);
+
+        // a learn with a setter function can not be journaled
+        try {
+            network.learn(new int[]{0, 0}, new int[]{1, 1}, (bfp, cycle) -> { }, false);
+            fail("The setter function is not journaled.");
+        } catch (IllegalStateException ex) {
+            LOG.info(ex.getMessage());
+        }
+        journal.close();
+
+        Network recovered = new Network("Recovered");
+        createGroupPorts(recovered);
+        LearningJournal recovery = new LearningJournal(recovered, directory);
+        recovery.open();
+        assertEquals(0, recovery.getDivergences());
+        assertSameStructure(network, recovered);
+        recovery.close();
+    }
+
+    private static void createGroupPorts(Network network) {
+        network.addInput(PortFactory.createOneHot("InA", MAX, network.getCycles()));
+        network.addInput(PortFactory.createOneHot("InB", MAX, network.getCycles()));
+        network.addOutput(PortFactory.createGroup("Out", new Portable[]{
+            PortFactory.createOneHot("OutSum", 2 * MAX, network.getCycles()),
+            PortFactory.createOneHot("OutMax", MAX, network.getCycles())}));
+    }
+
+    @Test
+    public void damagedCheckpointTest() throws IOException {
+        MapToOneHotPort<String> parity = createPorts(network);
+        parity.createItem("even", network.getCycles());
+        parity.createItem("odd", network.getCycles());
+        learn(network, 0, MAX);
+        ByteArrayOutputStream image = new ByteArrayOutputStream();
+        NetworkCheckpoint.write(network, image);
+        byte[] damaged = image.toByteArray();
+        damaged[damaged.length - 1] ^= 1;   // the checksum
+
+        // the network is not changed before the whole image is verified
+        Network target = new Network("Damaged");
+        MapToOneHotPort<String> targetParity = createPorts(target);
+        final String empty = target.dumpNetworkToString(false);
+        try {
+            NetworkCheckpoint.read(target, new ByteArrayInputStream(damaged));
+            fail("The checksum is wrong.");
+        } catch (IOException ex) {
+            LOG.info(ex.getMessage());
+        }
+        assertTrue(target.getGates().isEmpty());
+        assertTrue(targetParity.getGates().isEmpty());
+        assertEquals(empty, target.dumpNetworkToString(false));
+
+        NetworkCheckpoint.read(target, new ByteArrayInputStream(image.toByteArray()));
+        assertSameNetwork(network, target);
+    }
+
+    @Test
+    public void tornTailTest() throws IOException {
+        directory = Files.createTempDirectory("rapid-journal").toFile();
+        MapToOneHotPort<String> parity = createPorts(network);
+        LearningJournal journal = new LearningJournal(network, directory);
+        journal.setCheckpointInterval(20);
+        journal.open();
+        parity.createItem("even", network.getCycles());
+        parity.createItem("odd", network.getCycles());
+        learn(network, 0, MAX);
+        journal.close();
+        assertTrue(journal.getCheckpoints() > 0);
+
+        // a record which was not completely written when the process died
+        File[] segments = directory.listFiles((dir, file) -> file.endsWith(".log"));
+        assertEquals(1, segments.length);
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(segments[0], true))) {
+            out.writeInt(100);
+            out.write(new byte[10]);
+        }
+
+        Network recovered = new Network("Recovered");
+        createPorts(recovered);
+        LearningJournal recovery = new LearningJournal(recovered, directory);
+        recovery.open();
+        assertEquals(14, recovery.getTruncatedBytes());
+        assertSameStructure(network, recovered);
+
+        // the journal continues behind the last complete record (queries are not journaled, so none before)
+        recovered.learn(new int[]{MAX, MAX}, new int[]{0, 1}, null, false);
+        recovery.close();
+        Network again = new Network("RecoveredAgain");
+        createPorts(again);
+        LearningJournal second = new LearningJournal(again, directory);
+        second.open();
+        assertEquals(0, second.getTruncatedBytes());
+        assertSameNetwork(recovered, again);
+        second.close();
+    }
+}
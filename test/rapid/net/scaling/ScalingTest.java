@@ -0,0 +1,239 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.scaling;
+
+import java.util.Arrays;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import rapid.net.MemoryFootprint;
+import rapid.net.Network;
+import rapid.net.TestBase;
+import rapid.net.port.PortFactory;
+import rapid.util.CsvWriter;
+
+/**
+ * Learns and queries counting, parity and majority tasks over growing input spaces and records
+ * how the learn time, the query latency, the gates, the edges and the heap grow (logs/ScalingResults.csv).
+ * A test fails if the learn time or the number of gates grows faster than (patterns)^maxExponent,
+ * or if a one-hot network does not reproduce all of its learned patterns.
+ *
+ * The sizes are configured by system properties, the defaults keep the suite short:
+ * <pre>
+ *   -Drapid.scaling.minBits=10 -Drapid.scaling.maxBits=20 -Drapid.scaling.maxExponent=3.0
+ * </pre>
+ *
+ * @author Bernhard
+ */
+public class ScalingTest extends TestBase {
+
+    private static final Logger LOG = LogManager.getLogger(ScalingTest.class);
+
+    public static final int MIN_BITS = Integer.getInteger("rapid.scaling.minBits", 10);
+    public static final int MAX_BITS = Integer.getInteger("rapid.scaling.maxBits", 12);
+    public static final double MAX_EXPONENT = Double.parseDouble(System.getProperty("rapid.scaling.maxExponent", "3.0"));
+
+    private enum Input {
+        ONEHOT, BINARY, VECTOR
+    }
+
+    private enum Task {
+        COUNTING, PARITY, MAJORITY
+    }
+
+    private static CsvWriter results;
+
+    public ScalingTest() {
+        super("Scaling");
+    }
+
+    private static synchronized CsvWriter getResults() {
+        if (results == null) {
+            results = new CsvWriter("logs/ScalingResults.csv");
+            if (results.open(true)) {
+                results.print("Input");
+                results.print("Task");
+                results.print("Bits");
+                results.print("#Patterns");
+                results.print("Learn[ms]");
+                results.print("QueryP50[ns]");
+                results.print("QueryP99[ns]");
+                results.print("#Gates");
+                results.print("#Edges");
+                results.print("Heap[bytes]");
+                results.print("#Failed");
+                results.println();
+            }
+        }
+        return results;
+    }
+
+    @Test
+    public void oneHotCountingTest() {
+        scalingTest(Input.ONEHOT, Task.COUNTING);
+    }
+
+    @Test
+    public void oneHotParityTest() {
+        scalingTest(Input.ONEHOT, Task.PARITY);
+    }
+
+    @Test
+    public void oneHotMajorityTest() {
+        scalingTest(Input.ONEHOT, Task.MAJORITY);
+    }
+
+    @Test
+    public void binaryCountingTest() {
+        scalingTest(Input.BINARY, Task.COUNTING);
+    }
+
+    @Test
+    public void binaryParityTest() {
+        scalingTest(Input.BINARY, Task.PARITY);
+    }
+
+    @Test
+    public void binaryMajorityTest() {
+        scalingTest(Input.BINARY, Task.MAJORITY);
+    }
+
+    @Test
+    public void vectorCountingTest() {
+        scalingTest(Input.VECTOR, Task.COUNTING);
+    }
+
+    @Test
+    public void vectorParityTest() {
+        scalingTest(Input.VECTOR, Task.PARITY);
+    }
+
+    @Test
+    public void vectorMajorityTest() {
+        scalingTest(Input.VECTOR, Task.MAJORITY);
+    }
+
+    private static int expected(Task task, int bits, int value) {
+        final int count = Integer.bitCount(value);
+        switch (task) {
+            case COUNTING:
+                return count;
+            case PARITY:
+                return count % 2;
+            default:
+                return (2 * count > bits) ? 1 : 0;
+        }
+    }
+
+    private void scalingTest(Input input, Task task) {
+        final int sizes = MAX_BITS - MIN_BITS + 1;
+        double[] patterns = new double[sizes];
+        double[] learnNanos = new double[sizes];
+        double[] gates = new double[sizes];
+        for (int bits = MIN_BITS; bits <= MAX_BITS; bits++) {
+            name = "Scaling" + input + task + bits;
+            LOG.info("========== Started: " + name + " ==========");
+            final int values = 1 << bits;
+            network = new Network(name);
+            final int cycle = network.getCycles();
+            switch (input) {
+                case ONEHOT:
+                    network.addInput(PortFactory.createOneHot("In", values - 1, cycle));
+                    break;
+                case BINARY:
+                    network.addInput(PortFactory.createBinary("In", bits, cycle));
+                    break;
+                default:
+                    network.addInput(PortFactory.createVector("In", bits, 1, cycle));
+                    break;
+            }
+            network.addOutput(PortFactory.createOneHot("Out", (task == Task.COUNTING) ? bits : 1, cycle));
+
+            int[][] inputPattern = new int[values][];
+            int[][] outputPattern = new int[values][];
+            for (int i = 0; i < values; i++) {
+                if (input == Input.VECTOR) {
+                    inputPattern[i] = new int[bits];
+                    for (int b = 0; b < bits; b++) {
+                        inputPattern[i][b] = (i >> b) & 1;
+                    }
+                } else {
+                    inputPattern[i] = new int[]{i};
+                }
+                outputPattern[i] = new int[]{expected(task, bits, i)};
+            }
+
+            runTest_Start();
+            long start = System.nanoTime();
+            for (int i = 0; i < values; i++) {
+                network.learn(inputPattern[i], outputPattern[i], null, false);
+            }
+            final long learned = System.nanoTime() - start;
+
+            long[] queryNanos = new long[values];
+            int failed = 0;
+            for (int i = 0; i < values; i++) {
+                start = System.nanoTime();
+                final int[] outputValues = network.query(inputPattern[i], null);
+                queryNanos[i] = System.nanoTime() - start;
+                failed += (outputValues[0] != outputPattern[i][0]) ? 1 : 0;
+            }
+            Arrays.sort(queryNanos);
+            final MemoryFootprint footprint = network.measureMemory();
+
+            final CsvWriter csv = getResults();
+            csv.print(input.toString());
+            csv.print(task.toString());
+            csv.print(bits);
+            csv.print(values);
+            csv.print(learned / 1000000);
+            csv.print(queryNanos[values / 2]);
+            csv.print(queryNanos[values * 99 / 100]);
+            csv.print(footprint.getGateCount());
+            csv.print(footprint.getEdgeCount());
+            csv.print(footprint.getTotalBytes());
+            csv.print(failed);
+            csv.println();
+            LOG.info(name + ": learned " + values + " patterns in " + learned / 1000000 + "ms, query p50=" + queryNanos[values / 2]
+                    + "ns p99=" + queryNanos[values * 99 / 100] + "ns, " + footprint + ", failed=" + failed);
+
+            if (input == Input.ONEHOT) {
+                // each input value has its own gate, so every learned pattern must be reproduced
+                assertEquals(name + ": failed queries", 0, failed);
+            }
+
+            patterns[bits - MIN_BITS] = values;
+            learnNanos[bits - MIN_BITS] = learned;
+            gates[bits - MIN_BITS] = footprint.getGateCount();
+        }
+        if (sizes >= 2) {
+            final double learnExponent = growthExponent(patterns, learnNanos);
+            final double gatesExponent = growthExponent(patterns, gates);
+            LOG.info("Scaling" + input + task + ": growth exponents learn=" + String.format("%.2f", learnExponent)
+                    + " gates=" + String.format("%.2f", gatesExponent) + " (bound " + MAX_EXPONENT + ")");
+            assertTrue(input + " " + task + ": the learn time grows with exponent " + learnExponent, learnExponent <= MAX_EXPONENT);
+            assertTrue(input + " " + task + ": the gates grow with exponent " + gatesExponent, gatesExponent <= MAX_EXPONENT);
+        }
+    }
+
+    /**
+     * @return the slope of the least-squares line through (log x, log y), i.e. k of y ~ x^k
+     */
+    static double growthExponent(double[] x, double[] y) {
+        double sumX = 0;
+        double sumY = 0;
+        double sumXX = 0;
+        double sumXY = 0;
+        final int n = x.length;
+        for (int i = 0; i < n; i++) {
+            final double lx = Math.log(x[i]);
+            final double ly = Math.log(Math.max(1.0, y[i]));
+            sumX += lx;
+            sumY += ly;
+            sumXX += lx * lx;
+            sumXY += lx * ly;
+        }
+        return (n * sumXY - sumX * sumY) / (n * sumXX - sumX * sumX);
+    }
+}
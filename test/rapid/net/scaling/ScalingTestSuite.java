@@ -0,0 +1,13 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.scaling;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+@RunWith(Suite.class)
+@Suite.SuiteClasses({
+    rapid.net.scaling.ScalingTest.class,
+})
+public class ScalingTestSuite {
+    
+}
@@ -0,0 +1,124 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import rapid.net.TestBase;
+import rapid.net.port.PortFactory;
+import rapid.util.Utils;
+
+public class InferenceServerTest extends TestBase {
+
+    private static final Logger LOG = LogManager.getLogger(InferenceServerTest.class);
+
+    public static final int MAX = 5;
+
+    public InferenceServerTest() {
+        super("InferenceServer");
+    }
+
+    @Test
+    public void learnAndQueryTest() throws Exception {
+        addSumPorts(network, MAX);
+        final int[][] inputPattern = generatePairPattern(MAX);
+        final int[][] outputPattern = generateSumPattern(MAX);
+        InferenceServer server = new InferenceServer(network, 0);
+        server.setBatchWindowMillis(5);
+        server.start();
+        try {
+            final InetSocketAddress address = server.getAddress();
+            for (int i = 0; i < inputPattern.length; i++) {
+                final String form = "input=" + Utils.intArrayToString(inputPattern[i]) + "&output=" + outputPattern[i][0];
+                assertEquals(200, request(address, "/learn", form).status);
+            }
+
+            // concurrent queries are collected into batches
+            ExecutorService clients = Executors.newFixedThreadPool(8);
+            List<Future<Response>> responses = new ArrayList<>();
+            for (int[] input : inputPattern) {
+                responses.add(clients.submit(() -> request(address, "/query?input=" + Utils.intArrayToString(input), null)));
+            }
+            for (int i = 0; i < inputPattern.length; i++) {
+                Response response = responses.get(i).get();
+                assertEquals(200, response.status);
+                assertEquals("Input is " + Utils.intArrayToString(inputPattern[i]), String.valueOf(outputPattern[i][0]), response.body);
+            }
+            clients.shutdown();
+
+            assertEquals(400, request(address, "/query?input=x", null).status);
+            assertEquals("A malformed escape is a bad request.", 400, request(address, "/learn", "input=%zz&output=1").status);
+            Response stats = request(address, "/stats", null);
+            LOG.info(name + ": " + stats.body);
+            assertEquals(200, stats.status);
+            assertTrue(stats.body.contains("\"queries\":" + responses.size()));
+            assertTrue(stats.body.contains("\"learns\":" + inputPattern.length));
+            assertEquals(responses.size() + inputPattern.length, server.getLatency().getCount());
+            assertTrue(server.getLatency().getPercentileNanos(50) <= server.getLatency().getPercentileNanos(99));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void statsTest() throws Exception {
+        network.addInput(PortFactory.createOneHot("InA", MAX, network.getCycles()));
+        network.addOutput(PortFactory.createOneHot("Out", MAX, network.getCycles()));
+        InferenceServer server = new InferenceServer(network, 0);
+        server.start();
+        assertEquals(200, request(server.getAddress(), "/learn", "input=1&output=2").status);
+        // while the server runs, the statistics are taken by the batcher thread, in the order of the requests
+        assertTrue(server.getStats().contains("\"learns\":1"));
+        server.stop();
+        assertTrue(server.getStats().contains("\"learns\":1"));
+        assertEquals("The statistics are not counted as requests.", 1, server.getLatency().getCount());
+    }
+
+    private static final class Response {
+
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private static Response request(InetSocketAddress address, String path, String form) throws IOException {
+        URL url = new URL("http", address.getHostString(), address.getPort(), path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if (form != null) {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(form.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        final int status = connection.getResponseCode();
+        try (InputStream in = (status < 400) ? connection.getInputStream() : connection.getErrorStream()) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            int read;
+            while (in != null && (read = in.read(buffer)) >= 0) {
+                body.write(buffer, 0, read);
+            }
+            return new Response(status, new String(body.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+}
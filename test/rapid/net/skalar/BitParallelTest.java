@@ -0,0 +1,119 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.skalar;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import rapid.net.BitParallelEvaluator;
+import rapid.net.TestBase;
+import rapid.net.port.PortFactory;
+import rapid.util.Utils;
+
+public class BitParallelTest extends TestBase {
+
+    private static final Logger LOG = LogManager.getLogger(BitParallelTest.class);
+
+    public BitParallelTest() {
+        super("BitParallel");
+    }
+
+    @Test
+    public void bitCounter8Test() {
+        bitCounterTest(8);
+    }
+
+    @Test
+    public void bitCounter10Test() {
+        bitCounterTest(10);
+    }
+
+    @Test
+    public void twoInputsTest() {
+        name = "BitParallelTwoInputs";
+        LOG.info("========== Started: " + name + " ==========");
+
+        int cycle = network.getCycles();
+        network.addInput(PortFactory.createOneHot("InPos", 2, cycle));
+        network.addInput(PortFactory.createOneHot("InAct", 1, cycle));
+        network.addOutput(PortFactory.createOneHot("OutPos", 2, cycle));
+        network.addOutput(PortFactory.createOneHot("OutAct", 1, cycle));
+
+        // the (unambiguous) rules of the BoxingGame
+        int[][] inputPattern = new int[][]{
+            {0, 0}, {0, 1}, {1, 0}, {1, 1}, {2, 0}, {2, 1}
+        };
+        int[][] outputPattern = new int[][]{
+            {1, 1}, {0, 0}, {0, 1}, {1, 0}, {0, 1}, {2, 0}
+        };
+        runTest_Learn(inputPattern, outputPattern);
+
+        assertParity(inputPattern);
+
+        // a value out of range is rejected as by Network.query()
+        BitParallelEvaluator evaluator = new BitParallelEvaluator(network);
+        for (int[] input : new int[][]{{3, 0}, {0, 2}}) {
+            try {
+                network.query(input, null);
+                fail("The network accepts " + Utils.intArrayToString(input));
+            } catch (IndexOutOfBoundsException ex) {
+                LOG.debug(ex.getMessage());
+            }
+            try {
+                evaluator.query(new int[][]{input});
+                fail("The evaluator accepts " + Utils.intArrayToString(input));
+            } catch (IndexOutOfBoundsException ex) {
+                LOG.debug(ex.getMessage());
+            }
+        }
+        LOG.debug("========== Finished: " + name + " ==========");
+    }
+
+    @Test
+    public void notApplicableTest() {
+        int cycle = network.getCycles();
+        network.addInput(PortFactory.createFuzzy("In", 100, cycle));
+        network.addOutput(PortFactory.createOneHot("Out", 1, cycle));
+        assertFalse("FuzzyPort inputs are not binary.", BitParallelEvaluator.isApplicable(network));
+    }
+
+    private void bitCounterTest(int bits) {
+        name = "BitParallel" + bits + "BitCounter";
+        LOG.info("========== Started: " + name + " ==========");
+
+        int values = 1 << bits;
+        network.addInput(PortFactory.createOneHot("In", values - 1, network.getCycles()));
+        network.addOutput(PortFactory.createOneHot("Out", bits, network.getCycles()));
+
+        int[][] inputPattern = new int[values][1];
+        int[][] outputPattern = new int[values][1];
+        for (int i = 0; i < values; i++) {
+            inputPattern[i][0] = i;
+            outputPattern[i][0] = Integer.bitCount(i);
+        }
+        runTest(inputPattern, outputPattern);
+
+        assertParity(inputPattern);
+        LOG.debug("========== Finished: " + name + " ==========");
+    }
+
+    private void assertParity(int[][] inputPattern) {
+        assertTrue(BitParallelEvaluator.isApplicable(network));
+        BitParallelEvaluator evaluator = new BitParallelEvaluator(network);
+
+        long startNanos = System.nanoTime();
+        int[][] bitResults = evaluator.query(inputPattern);
+        long bitNanos = System.nanoTime() - startNanos;
+
+        startNanos = System.nanoTime();
+        for (int i = 0; i < inputPattern.length; i++) {
+            int[] results = network.query(inputPattern[i], null);
+            assertEquals("Input is " + Utils.intArrayToString(inputPattern[i]), Utils.intArrayToString(results), Utils.intArrayToString(bitResults[i]));
+        }
+        long queryNanos = System.nanoTime() - startNanos;
+        LOG.info(name + ": " + inputPattern.length + " patterns bit-parallel=" + (bitNanos / 1000) + " usec, query=" + (queryNanos / 1000) + " usec.");
+    }
+}
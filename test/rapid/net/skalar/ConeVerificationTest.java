@@ -0,0 +1,95 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.skalar;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import rapid.net.Gate;
+import rapid.net.Network;
+import rapid.net.TestBase;
+import rapid.net.port.Port;
+import rapid.net.port.PortFactory;
+
+public class ConeVerificationTest extends TestBase {
+
+    private static final Logger LOG = LogManager.getLogger(ConeVerificationTest.class);
+
+    public static final int BITS = 8;
+
+    public ConeVerificationTest() {
+        super("ConeVerification");
+    }
+
+    @Test
+    public void learnTest() {
+        name = "ConeVerification" + BITS + "BitCounter";
+        LOG.info("========== Started: " + name + " ==========");
+
+        int values = 1 << BITS;
+        network.addInput(PortFactory.createOneHot("In", values - 1, network.getCycles()));
+        network.addOutput(PortFactory.createOneHot("Out", BITS, network.getCycles()));
+        int[][] inputPattern = new int[values][1];
+        int[][] outputPattern = new int[values][1];
+        for (int i = 0; i < values; i++) {
+            inputPattern[i][0] = i;
+            outputPattern[i][0] = Integer.bitCount(i);
+        }
+
+        runTest_Start();
+        for (int i = 0; i < values; i++) {
+            int gates = network.getGates().size();
+            assertTrue(network.learn(inputPattern[i], outputPattern[i], null, false));
+            assertEquals("The verification needs no query of its own.", i + 1, network.getCycles());
+
+            // the new gate was evaluated once by the verification of its own cone
+            Gate andGate = network.getGates().get(gates);
+            assertEquals(1, andGate.getHits());
+            assertTrue(andGate.isPropagated(network.getCycles()));
+            assertEquals(outputPattern[i][0], network.getOutputValues()[0]);
+        }
+        runTest_Verify(inputPattern, outputPattern, true);
+        runTest_Stop();
+        LOG.debug("========== Finished: " + name + " ==========");
+    }
+
+    @Test
+    public void requeryHitsTest() {
+        name = "ConeVerificationRequeryHits";
+        LOG.info("========== Started: " + name + " ==========");
+
+        // the same patterns learned with a complete re-query (an activation-threshold which drops nothing)
+        Network reference = new Network(name + "Reference");
+        reference.setActivationThreshold(Float.MIN_VALUE);
+        for (Network net : new Network[]{network, reference}) {
+            net.addInput(PortFactory.createOneHot("A", 3, net.getCycles()));
+            net.addInput(PortFactory.createOneHot("B", 3, net.getCycles()));
+            net.addOutput(PortFactory.createOneHot("Sum", 6, net.getCycles()));
+        }
+        runTest_Start();
+        for (int round = 0; round < 2; round++) {
+            for (int a = 0; a <= 3; a++) {
+                for (int b = 0; b <= 3; b++) {
+                    final int[] inputPattern = new int[]{a, b};
+                    final int[] outputPattern = new int[]{a + b};
+                    assertEquals(reference.learn(inputPattern, outputPattern, null, false),
+                            network.learn(inputPattern, outputPattern, null, false));
+                }
+            }
+        }
+
+        // the hidden gates outside of the cone count the hit of the re-query too, so the Pruner rates them the same
+        assertEquals(reference.getGates().size(), network.getGates().size());
+        for (int i = 0; i < network.getGates().size(); i++) {
+            assertEquals("hidden gate " + i, reference.getGates().get(i).getHits(), network.getGates().get(i).getHits());
+        }
+        final Port output = (Port) network.getOutputs().get(0);
+        final Port referenceOutput = (Port) reference.getOutputs().get(0);
+        for (int i = 0; i < output.getGates().size(); i++) {
+            assertEquals("output gate " + i, referenceOutput.getGates().get(i).getHits(), output.getGates().get(i).getHits());
+        }
+        runTest_Stop();
+        LOG.debug("========== Finished: " + name + " ==========");
+    }
+}
@@ -0,0 +1,46 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.skalar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import rapid.net.Gate;
+import rapid.net.TestBase;
+import rapid.net.port.BinaryPort;
+import rapid.net.port.MapToOneHotPort;
+import rapid.net.port.OneHotPort;
+import rapid.net.port.PortFactory;
+
+public class GateNameTest extends TestBase {
+
+    public static final int BITS = 6;
+
+    public GateNameTest() {
+        super("GateName");
+    }
+
+    @Test
+    public void hiddenGateTest() {
+        network.addInput(PortFactory.createOneHot("In", (1 << BITS) - 1, network.getCycles()));
+        network.addOutput(PortFactory.createOneHot("Out", BITS, network.getCycles()));
+        for (int i = 0; i < (1 << BITS); i++) {
+            network.learn(new int[]{i}, new int[]{Integer.bitCount(i)}, null, false);
+        }
+
+        // the names are derived when they are needed, none is kept by the gates
+        Gate hidden = network.getGates().get(0);
+        assertEquals("AndGate" + hidden.getIndex(), hidden.name());
+        assertTrue(hidden.toString().startsWith(hidden.name() + " (In."));
+        assertEquals("In.5", ((OneHotPort) network.getInputs().get(0)).getGates().get(5).name());
+    }
+
+    @Test
+    public void portGateTest() {
+        BinaryPort binary = PortFactory.createBinary("Bin", 2, network.getCycles());
+        assertEquals(binary.name + ".1", binary.getGates().get(1).name());
+        assertEquals(binary.name + ".Null", binary.getGates().get(2).name());
+        MapToOneHotPort<String> map = new MapToOneHotPort<>("Map");
+        map.createItem("x", network.getCycles());
+        assertEquals("Map.x", map.getGates().get(0).name());
+    }
+}
@@ -0,0 +1,67 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.skalar;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+import rapid.net.Network;
+import rapid.net.TestBase;
+import rapid.net.port.PortFactory;
+
+public class IncrementalOptimizeTest extends TestBase {
+
+    private static final Logger LOG = LogManager.getLogger(IncrementalOptimizeTest.class);
+
+    public static final int BITS = 6;
+
+    public IncrementalOptimizeTest() {
+        super("IncrementalOptimize");
+    }
+
+    @Test
+    public void incrementalTest() {
+        name = "IncrementalOptimize" + BITS + "BitCounter";
+        LOG.info("========== Started: " + name + " ==========");
+
+        int values = 1 << BITS;
+        int[][] inputPattern = new int[values][1];
+        int[][] outputPattern = new int[values][1];
+        for (int i = 0; i < values; i++) {
+            inputPattern[i][0] = i;
+            outputPattern[i][0] = Integer.bitCount(i);
+        }
+
+        // reference: optimize everything at the end
+        Network reference = createBitCounter(new Network("Reference"));
+        for (int i = 0; i < values; i++) {
+            reference.learn(inputPattern[i], outputPattern[i], null, false);
+        }
+        int referenceCount = reference.optimizeAll();
+
+        createBitCounter(network);
+        runTest_Start();
+        runTest_Learn(inputPattern, outputPattern);
+        assertEquals("Every output gate got new inputs.", BITS + 1, network.getDirtyGateCount());
+
+        int count = network.optimizeIncremental(0);
+        assertEquals("A zero budget optimizes just one gate.", BITS, network.getDirtyGateCount());
+        count += network.optimizeIncremental(Long.MAX_VALUE);
+        assertEquals(0, network.getDirtyGateCount());
+        assertEquals(0, network.optimizeIncremental(Long.MAX_VALUE));
+        LOG.info(name + ": optimized " + count + " (optimizeAll: " + referenceCount + "), gates=" + network.getGates().size() + " (optimizeAll: " + reference.getGates().size() + ")");
+        assertEquals(referenceCount, count);
+        assertEquals(reference.getGates().size(), network.getGates().size());
+        assertEquals("optimizeAll() has nothing left to do.", 0, network.optimizeAll());
+
+        runTest_Verify(inputPattern, outputPattern, true);
+        runTest_Stop();
+        LOG.debug("========== Finished: " + name + " ==========");
+    }
+
+    private static Network createBitCounter(Network network) {
+        network.addInput(PortFactory.createOneHot("In", (1 << BITS) - 1, network.getCycles()));
+        network.addOutput(PortFactory.createOneHot("Out", BITS, network.getCycles()));
+        return network;
+    }
+}
@@ -0,0 +1,57 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.skalar;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import rapid.net.Gate;
+import rapid.net.LearnStats;
+import rapid.net.TestBase;
+
+public class LearnStatsTest extends TestBase {
+
+    private static final Logger LOG = LogManager.getLogger(LearnStatsTest.class);
+
+    public static final int MAX = 4;
+
+    public LearnStatsTest() {
+        super("LearnStats");
+    }
+
+    @Test
+    public void phasesTest() {
+        name = "LearnStatsSumMax";
+        addSumMaxPorts(network, MAX);
+        final int[][] inputPattern = generatePairPattern(MAX);
+        runTest_Start();
+        runTest_Learn(inputPattern, generateSumMaxPattern(MAX));
+        final LearnStats stats = network.getLearnStats();
+        assertEquals(inputPattern.length, stats.getLearns());
+        assertEquals(inputPattern.length, stats.getRuns(LearnStats.Phase.QUERY));
+        assertEquals(inputPattern.length, stats.getRuns(LearnStats.Phase.INSERT));
+        assertTrue(stats.getRuns(LearnStats.Phase.VERIFY) > 0);
+        assertEquals(0, stats.getRuns(LearnStats.Phase.OPTIMIZE));
+        assertTrue(stats.getNanos(LearnStats.Phase.QUERY) > 0);
+        // nothing was removed yet, so all gates and edges are the inserted ones
+        int edges = 0;
+        for (Gate gate : network.getGates()) {
+            edges += gate.getIns().size() + gate.getOuts().size();
+        }
+        assertEquals(network.getGates().size(), stats.getGatesInserted());
+        assertEquals(edges, stats.getEdgesCreated());
+        assertEquals(0, stats.getEdgesRemoved());
+        assertTrue(network.toString().contains("learnStats={learns=" + inputPattern.length));
+
+        runTest_Optimize();
+        assertTrue(stats.getRuns(LearnStats.Phase.OPTIMIZE) > 0);
+        assertEquals(stats.getPermutationHits() + stats.getDuplicateHits() > 0, stats.getEdgesRemoved() > 0);
+        LOG.info(name + ": " + stats);
+
+        stats.reset();
+        assertEquals(0, stats.getLearns());
+        assertEquals(0, stats.getNanos(LearnStats.Phase.OPTIMIZE));
+        runTest_Stop();
+    }
+}
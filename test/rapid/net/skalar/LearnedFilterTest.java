@@ -0,0 +1,90 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.skalar;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import rapid.net.Edge;
+import rapid.net.LearnedPatternFilter;
+import rapid.net.Network;
+import rapid.net.TestBase;
+
+public class LearnedFilterTest extends TestBase {
+
+    private static final Logger LOG = LogManager.getLogger(LearnedFilterTest.class);
+
+    public static final int MAX = 5;
+    public static final int EPOCHS = 10;
+
+    public LearnedFilterTest() {
+        super("LearnedFilter");
+    }
+
+    /**
+     * @return the number of learns which inserted gates
+     */
+    private static int learnEpoch(Network network, int[][] inputPattern, int[][] outputPattern) {
+        int learned = 0;
+        for (int i = 0; i < inputPattern.length; i++) {
+            learned += network.learn(inputPattern[i], outputPattern[i], null, false) ? 1 : 0;
+        }
+        return learned;
+    }
+
+    @Test
+    public void replayTest() {
+        name = "LearnedFilterSum";
+        addSumPorts(network, MAX);
+        int[][] inputPattern = generatePairPattern(MAX);
+        int[][] outputPattern = generateSumPattern(MAX);
+        Network plain = new Network("LearnedFilterPlain");
+        addSumPorts(plain, MAX);
+        network.setLearnedFilterCapacity(1024);
+        final LearnedPatternFilter filter = network.getLearnedFilter();
+        runTest_Start();
+
+        // the training data is replayed, the learned pairs are skipped as soon as the network is stable
+        long filteredNanos = 0;
+        long plainNanos = 0;
+        for (int epoch = 0; epoch < EPOCHS; epoch++) {
+            final long cycles = network.getCycles();
+            final long skipped = filter.getSkipped();
+            long start = System.nanoTime();
+            final int learned = learnEpoch(network, inputPattern, outputPattern);
+            filteredNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            assertEquals(learned, learnEpoch(plain, inputPattern, outputPattern));
+            plainNanos = System.nanoTime() - start;
+            if (epoch > 0 && filter.getSkipped() - skipped == inputPattern.length) {
+                assertEquals(cycles, network.getCycles());
+            }
+        }
+        assertEquals(plain.getGates().size(), network.getGates().size());
+        assertTrue(filter.getSkipped() > 0);
+        assertEquals(inputPattern.length, filter.size());
+        runTest_Verify(inputPattern, outputPattern, true);
+        // the last epoch
+        LOG.info(name + ": " + filter + ", " + plainNanos / inputPattern.length + "ns/learn without, "
+                + filteredNanos / inputPattern.length + "ns/learn with the filter");
+
+        // a changed network forgets the pairs
+        final long clears = filter.getClears();
+        Edge edge = network.getGates().get(0).getIns().get(0);
+        edge.setWeight(edge.getWeight());
+        final long skipped = filter.getSkipped();
+        assertFalse(network.learn(inputPattern[0], outputPattern[0], null, false));
+        assertEquals(skipped, filter.getSkipped());
+        assertEquals(clears + 1, filter.getClears());
+        assertEquals(1, filter.size());
+
+        // learning a new pair changes the network, at most the new pair is remembered
+        final int cycles = network.getCycles();
+        assertTrue(network.learn(inputPattern[1], new int[]{2 * MAX}, null, false));
+        assertTrue(network.getCycles() > cycles);
+        assertTrue(filter.size() <= 1);
+        runTest_Stop();
+    }
+}
@@ -0,0 +1,97 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.skalar;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import rapid.net.MemoryFootprint;
+import rapid.net.Pruner;
+import rapid.net.TestBase;
+import rapid.net.port.PortFactory;
+
+public class MemoryBudgetTest extends TestBase {
+
+    private static final Logger LOG = LogManager.getLogger(MemoryBudgetTest.class);
+
+    public static final int BITS = 6;
+
+    public MemoryBudgetTest() {
+        super("MemoryBudget");
+    }
+
+    @Test
+    public void footprintTest() {
+        createBitCounter();
+        MemoryFootprint empty = network.measureMemory();
+        learnAll();
+        MemoryFootprint learned = network.measureMemory();
+        LOG.info(name + ": " + learned);
+
+        assertEquals(network.getGates().size() + (1 << BITS) + BITS + 1, learned.getGateCount());
+        assertTrue(learned.getTotalBytes() > empty.getTotalBytes());
+        long sum = 0;
+        for (long bytes : learned.getBytesByLayer().values()) {
+            sum += bytes;
+        }
+        assertEquals(learned.getTotalBytes(), sum);
+        assertTrue(learned.getBytesByLayer().get(MemoryFootprint.LAYER_HIDDEN) > 0);
+        assertTrue(learned.getBytesByPortType().containsKey("OneHotPort"));
+
+        // every edge costs at least its object and its reference in the lists of both gates
+        assertTrue(learned.getTotalBytes() - empty.getTotalBytes() > 24L * learned.getEdgeCount());
+    }
+
+    @Test
+    public void budgetTest() {
+        createBitCounter();
+        final long empty = network.measureMemory().getTotalBytes();
+        final AtomicInteger alarms = new AtomicInteger();
+        network.setMemoryBudget(empty + 4096, empty + 8192, footprint -> alarms.incrementAndGet());
+        learnAll();
+
+        LOG.info(name + ": estimate=" + network.getMemoryEstimate() + " blocked=" + network.getBlockedInserts() + " gates=" + network.getGates().size());
+        assertEquals("The soft budget raises one alarm.", 1, alarms.get());
+        assertTrue(network.isMemorySoftBudgetExceeded());
+        assertTrue("The hard budget blocks new gates.", network.getBlockedInserts() > 0);
+        assertTrue(network.getMemoryEstimate() < empty + 8192 + 4096);
+
+        // pruning lifts the block
+        int gates = network.getGates().size();
+        Pruner pruner = new Pruner(network);
+        pruner.setMaxGates(gates / 2);
+        pruner.prune();
+        assertTrue(network.getMemoryEstimate() < network.getMemoryHardBudget());
+        int blocked = network.getBlockedInserts();
+        network.learn(new int[]{(1 << BITS) - 1}, new int[]{BITS}, null, false);
+        assertEquals(blocked, network.getBlockedInserts());
+    }
+
+    @Test
+    public void compressedOopsTest() {
+        // the default of the 64 bit JVMs is compressed references, unless the heap exceeds 32GB
+        boolean expected = Runtime.getRuntime().maxMemory() < (32L << 30);
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (argument.equals("-XX:+UseCompressedOops")) {
+                expected = true;
+            } else if (argument.equals("-XX:-UseCompressedOops")) {
+                expected = false;
+            }
+        }
+        assertEquals(expected, MemoryFootprint.isCompressedOops());
+    }
+
+    private void createBitCounter() {
+        network.addInput(PortFactory.createOneHot("In", (1 << BITS) - 1, network.getCycles()));
+        network.addOutput(PortFactory.createOneHot("Out", BITS, network.getCycles()));
+    }
+
+    private void learnAll() {
+        for (int i = 0; i < (1 << BITS); i++) {
+            network.learn(new int[]{i}, new int[]{Integer.bitCount(i)}, null, false);
+        }
+    }
+}
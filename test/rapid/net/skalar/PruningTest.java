@@ -0,0 +1,85 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.skalar;
+
+import java.util.Arrays;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import rapid.net.Pruner;
+import rapid.net.TestBase;
+import rapid.net.port.PortFactory;
+
+public class PruningTest extends TestBase {
+
+    private static final Logger LOG = LogManager.getLogger(PruningTest.class);
+
+    public static final int BITS = 8;
+
+    public PruningTest() {
+        super("Pruning");
+    }
+
+    @Test
+    public void hitRateTest() {
+        name = "Pruning" + BITS + "BitCounter";
+        LOG.info("========== Started: " + name + " ==========");
+
+        int values = 1 << BITS;
+        network.addInput(PortFactory.createOneHot("In", values - 1, network.getCycles()));
+        network.addOutput(PortFactory.createOneHot("Out", BITS, network.getCycles()));
+        int[][] inputPattern = new int[values][1];
+        int[][] outputPattern = new int[values][1];
+        for (int i = 0; i < values; i++) {
+            inputPattern[i][0] = i;
+            outputPattern[i][0] = Integer.bitCount(i);
+        }
+        runTest_Start();
+        runTest_Learn(inputPattern, outputPattern);
+        int gates = network.getGates().size();
+
+        // only the lower half of the patterns is used afterwards
+        int[][] usedIn = Arrays.copyOf(inputPattern, values / 2);
+        int[][] usedOut = Arrays.copyOf(outputPattern, values / 2);
+        for (int n = 0; n < 10; n++) {
+            runTest_Verify(usedIn, usedOut, true);
+        }
+
+        Pruner pruner = new Pruner(network);
+        pruner.setMaxGates(gates / 2);
+
+        // incremental steps
+        assertEquals(10, pruner.prune(10));
+        assertEquals(gates - 10, network.getGates().size());
+
+        Pruner.Report report = pruner.prune(usedIn, usedOut);
+        assertEquals(gates / 2, report.gatesAfter);
+        assertTrue(report.edgesAfter < report.edgesBefore);
+        assertEquals("The used patterns are still known.", 1.0f, report.accuracyAfter, 0.0f);
+        assertEquals("The unused patterns are forgotten.", 0.5f, pruner.accuracy(inputPattern, outputPattern), 0.01f);
+        assertEquals(0, pruner.prune(10));
+        assertEquals(gates - gates / 2, pruner.getPrunedGates());
+
+        runTest_Verify(usedIn, usedOut, true);
+        runTest_Stop();
+        LOG.debug("========== Finished: " + name + " ==========");
+    }
+
+    @Test
+    public void edgeBudgetTest() {
+        network.addInput(PortFactory.createOneHot("InA", 3, network.getCycles()));
+        network.addInput(PortFactory.createOneHot("InB", 3, network.getCycles()));
+        network.addOutput(PortFactory.createOneHot("Out", 6, network.getCycles()));
+        for (int a = 0; a <= 3; a++) {
+            for (int b = 0; b <= 3; b++) {
+                network.learn(new int[]{a, b}, new int[]{a + b}, null, false);
+            }
+        }
+        Pruner pruner = new Pruner(network);
+        pruner.setMaxEdges(pruner.countEdges() / 2);
+        assertTrue(pruner.isOverBudget());
+        pruner.prune();
+        assertTrue(pruner.countEdges() <= pruner.getMaxEdges());
+    }
+}
@@ -0,0 +1,126 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.skalar;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import rapid.net.Edge;
+import rapid.net.QueryCache;
+import rapid.net.TestBase;
+import rapid.net.port.MapToOneHotPort;
+import rapid.net.port.PortFactory;
+import rapid.util.Utils;
+
+public class QueryCacheTest extends TestBase {
+
+    private static final Logger LOG = LogManager.getLogger(QueryCacheTest.class);
+
+    public static final int ROUNDS = 10;
+
+    // few different input patterns, as in the rules of the BoxingGame
+    private static final int MAX = 2;
+
+    public QueryCacheTest() {
+        super("QueryCache");
+    }
+
+    @Test
+    public void hitRateTest() {
+        name = "QueryCacheSumMax";
+        final int[][] inputPattern = runSumMaxTest(MAX);
+        assertNull(network.getQueryCache());
+        network.setQueryCacheCapacity(inputPattern.length);
+        final QueryCache cache = network.getQueryCache();
+
+        final int cycles = network.getCycles();
+        String[] first = new String[inputPattern.length];
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < inputPattern.length; i++) {
+                final String result = Utils.intArrayToString(network.queryCached(inputPattern[i], null, null));
+                if (round == 0) {
+                    first[i] = result;
+                }
+                assertEquals(first[i], result);
+            }
+        }
+        // only the first round was propagated
+        assertEquals(cycles + inputPattern.length, network.getCycles());
+        assertEquals(inputPattern.length, cache.getMisses());
+        assertEquals((ROUNDS - 1) * inputPattern.length, cache.getHits());
+        assertEquals(0, cache.getEvictions());
+        LOG.info(name + ": " + cache);
+
+        // the cached result is a copy
+        network.queryCached(inputPattern[0], null, null)[0] = 2;
+        assertEquals(first[0], Utils.intArrayToString(network.queryCached(inputPattern[0], null, null)));
+
+        // query() is never cached, it propagates the network so the ports have the values of the pattern
+        final long hits = cache.getHits();
+        for (int[] input : inputPattern) {
+            final int before = network.getCycles();
+            network.query(input, null);
+            assertEquals(before + 1, network.getCycles());
+        }
+        assertEquals(hits, cache.getHits());
+
+        // a changed weight invalidates the results
+        final long version = network.getVersion();
+        Edge edge = network.getGates().get(0).getIns().get(0);
+        edge.setWeight(edge.getWeight());
+        assertTrue(network.getVersion() != version);
+        final long misses = cache.getMisses();
+        network.queryCached(inputPattern[0], null, null);
+        assertEquals(misses + 1, cache.getMisses());
+        assertEquals(1, cache.getInvalidations());
+
+        // the least recently used results are evicted
+        network.setQueryCacheCapacity(inputPattern.length - 2);
+        final QueryCache small = network.getQueryCache();
+        for (int round = 0; round < 2; round++) {
+            for (int[] input : inputPattern) {
+                network.queryCached(input, null, null);
+            }
+        }
+        assertEquals(0, small.getHits());
+        assertEquals(2 * inputPattern.length - small.getCapacity(), small.getEvictions());
+    }
+
+    @Test
+    public void contextTest() {
+        name = "QueryCachePlayers";
+        int cycle = network.getCycles();
+        network.addInput(PortFactory.createOneHot("InPos", 2, cycle));
+        MapToOneHotPort<String> player = network.addInput(new MapToOneHotPort<>("InPlayer"));
+        network.addOutput(PortFactory.createOneHot("OutPos", 2, cycle));
+        runTest_Start();
+        for (int pos = 0; pos <= 2; pos++) {
+            network.learn(new int[]{pos}, new int[]{pos}, (bfp, c) -> player.setItem("A", bfp, c), false);
+            network.learn(new int[]{pos}, new int[]{2 - pos}, (bfp, c) -> player.setItem("B", bfp, c), false);
+        }
+        network.setQueryCacheCapacity(16);
+        final QueryCache cache = network.getQueryCache();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int pos = 0; pos <= 2; pos++) {
+                assertEquals(pos, network.queryCached(new int[]{pos}, "A", (bfp, c) -> player.setItem("A", bfp, c))[0]);
+                assertEquals(2 - pos, network.queryCached(new int[]{pos}, "B", (bfp, c) -> player.setItem("B", bfp, c))[0]);
+            }
+        }
+        assertEquals(6, cache.getMisses());
+        assertEquals(6 * (ROUNDS - 1), cache.getHits());
+
+        // without a context the setter function is not cached
+        network.queryCached(new int[]{0}, null, (bfp, c) -> player.setItem("B", bfp, c));
+        assertEquals(6, cache.getMisses());
+        assertEquals(6, cache.size());
+
+        // a learned correction invalidates the results
+        network.learn(new int[]{1}, new int[]{0}, (bfp, c) -> player.setItem("A", bfp, c), false);
+        assertEquals(0, network.queryCached(new int[]{1}, "A", (bfp, c) -> player.setItem("A", bfp, c))[0]);
+        assertEquals(1, cache.getInvalidations());
+        LOG.info(name + ": " + cache);
+        runTest_Stop();
+    }
+}
@@ -9,6 +9,17 @@ import org.junit.runners.Suite;
     rapid.net.skalar.BitCountersTest.class,
     rapid.net.BoxingGameTest.class,
     rapid.net.skalar.FuzzyTest.class,
+    rapid.net.skalar.BitParallelTest.class,
+    rapid.net.skalar.SparseInputTest.class,
+    rapid.net.skalar.IncrementalOptimizeTest.class,
+    rapid.net.skalar.PruningTest.class,
+    rapid.net.skalar.MemoryBudgetTest.class,
+    rapid.net.skalar.GateNameTest.class,
+    rapid.net.skalar.SweepPropagationTest.class,
+    rapid.net.skalar.ConeVerificationTest.class,
+    rapid.net.skalar.QueryCacheTest.class,
+    rapid.net.skalar.LearnedFilterTest.class,
+    rapid.net.skalar.LearnStatsTest.class,
 })
 public class SkalarTestSuite {
     
@@ -0,0 +1,110 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.skalar;
+
+import java.util.Arrays;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import rapid.net.TestBase;
+import rapid.net.port.MapToOneHotPort;
+import rapid.net.port.Portable;
+import rapid.net.port.PortFactory;
+import rapid.util.Utils;
+
+public class SparseInputTest extends TestBase {
+
+    private static final Logger LOG = LogManager.getLogger(SparseInputTest.class);
+
+    public static final int FEATURES = 300;
+    public static final int SAMPLES = 20;
+    public static final int ACTIVE = 3;
+
+    public SparseInputTest() {
+        super("SparseInput");
+    }
+
+    @Test
+    public void wideOneHotTest() {
+        name = "SparseInput" + FEATURES + "Test";
+        LOG.info("========== Started: " + name + " ==========");
+
+        int cycle = network.getCycles();
+        for (int i = 0; i < FEATURES; i++) {
+            network.addInput(PortFactory.createOneHot("F" + i, 1, cycle));
+        }
+        network.addOutput(PortFactory.createOneHot("Out", SAMPLES, cycle));
+        assertEquals(FEATURES, network.getInputSize());
+
+        int[][] activeSlots = new int[SAMPLES][ACTIVE];
+        int[][] activeValues = new int[SAMPLES][ACTIVE];
+        int[][] outputPattern = new int[SAMPLES][1];
+        for (int i = 0; i < SAMPLES; i++) {
+            for (int j = 0; j < ACTIVE; j++) {
+                activeSlots[i][j] = (i * 7 + j * 101) % FEATURES;
+                activeValues[i][j] = (i + j) % 2;
+            }
+            outputPattern[i][0] = i;
+        }
+
+        runTest_Start();
+        for (int i = 0; i < SAMPLES; i++) {
+            network.learnSparse(activeSlots[i], activeValues[i], outputPattern[i], null, false);
+        }
+
+        int[] outputValues = new int[network.getOutputSize()];
+        for (int i = 0; i < SAMPLES; i++) {
+            // sparse and dense queries must return the same (learned) output
+            network.querySparseInto(activeSlots[i], activeValues[i], outputValues, null);
+            assertEquals("Sparse input is " + Utils.intArrayToString(activeSlots[i]), outputPattern[i][0], outputValues[0]);
+
+            int[] dense = toDense(activeSlots[i], activeValues[i]);
+            assertTrue(network.verify(dense, outputPattern[i], null));
+        }
+        // a sparse query after a dense one has to clear all the previously set inputs
+        network.query(toDense(activeSlots[0], activeValues[0]), null);
+        network.querySparseInto(activeSlots[1], activeValues[1], outputValues, null);
+        assertEquals(outputPattern[1][0], outputValues[0]);
+        runTest_Stop();
+        LOG.debug("========== Finished: " + name + " ==========");
+    }
+
+    @Test
+    public void binaryClearTest() {
+        int cycle = network.getCycles();
+        network.addInput(PortFactory.createBinary("In", 4, cycle));
+        network.addOutput(PortFactory.createOneHot("Out", 15, cycle));
+        network.learn(new int[]{5}, new int[]{5}, null, false);
+        network.clearPortValues();
+        assertEquals(5, network.querySparse(new int[]{0}, new int[]{5}, null)[0]);
+    }
+
+    @Test
+    public void setterAfterDenseTest() {
+        int cycle = network.getCycles();
+        network.addInput(PortFactory.createOneHot("InPos", 2, cycle));
+        MapToOneHotPort<String> player = network.addInput(new MapToOneHotPort<>("InPlayer"));
+        network.addOutput(PortFactory.createOneHot("OutPos", 2, cycle));
+        for (int pos = 0; pos <= 2; pos++) {
+            network.learn(new int[]{pos}, new int[]{pos}, (bfp, c) -> player.setItem("A", bfp, c), false);
+            network.learn(new int[]{pos}, new int[]{2 - pos}, (bfp, c) -> player.setItem("B", bfp, c), false);
+        }
+
+        // the clearing of all slots after a dense query must not remove the item set by the setter function
+        for (int pos = 0; pos <= 2; pos++) {
+            network.query(new int[]{pos}, null);
+            assertEquals(2 - pos, network.querySparse(new int[]{0}, new int[]{pos}, (bfp, c) -> player.setItem("B", bfp, c))[0]);
+            assertEquals(pos, network.querySparse(new int[]{0}, new int[]{pos}, (bfp, c) -> player.setItem("A", bfp, c))[0]);
+        }
+    }
+
+    private static int[] toDense(int[] activeSlots, int[] activeValues) {
+        int[] dense = new int[FEATURES];
+        Arrays.fill(dense, Portable.NO_VALUE);
+        for (int i = 0; i < activeSlots.length; i++) {
+            dense[activeSlots[i]] = activeValues[i];
+        }
+        return dense;
+    }
+}
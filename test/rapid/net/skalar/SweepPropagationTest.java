@@ -0,0 +1,142 @@
+// License: Apache 2.0. See LICENSE file in root directory.
+package rapid.net.skalar;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import rapid.net.Edge;
+import rapid.net.Gate;
+import rapid.net.Network;
+import rapid.net.TestBase;
+import rapid.net.port.OneHotPort;
+import rapid.net.port.PortFactory;
+import rapid.util.Utils;
+
+public class SweepPropagationTest extends TestBase {
+
+    private static final Logger LOG = LogManager.getLogger(SweepPropagationTest.class);
+
+    public static final int BITS = 8;
+
+    public SweepPropagationTest() {
+        super("SweepPropagation");
+    }
+
+    @Test
+    public void parityTest() {
+        name = "SweepPropagation" + BITS + "BitCounter";
+        LOG.info("========== Started: " + name + " ==========");
+
+        int values = 1 << BITS;
+        network.addInput(PortFactory.createOneHot("In", values - 1, network.getCycles()));
+        network.addOutput(PortFactory.createOneHot("Out", BITS, network.getCycles()));
+        int[][] inputPattern = new int[values][1];
+        int[][] outputPattern = new int[values][1];
+        for (int i = 0; i < values; i++) {
+            inputPattern[i][0] = i;
+            outputPattern[i][0] = Integer.bitCount(i);
+        }
+
+        // learn with sweeps, so the sweep-order is rebuilt after each insert
+        network.setPropagation(Network.Propagation.SWEEP);
+        runTest_Start();
+        runTest_Learn(inputPattern, outputPattern);
+        runTest_Verify(inputPattern, outputPattern, false);
+        runTest_Optimize();
+        runTest_Verify(inputPattern, outputPattern, true);
+        assertLevelsOrdered();
+
+        for (int[] input : inputPattern) {
+            network.setPropagation(Network.Propagation.BFS);
+            String expected = Utils.intArrayToString(network.query(input, null));
+            network.setPropagation(Network.Propagation.SWEEP);
+            assertEquals("Input is " + Utils.intArrayToString(input), expected, Utils.intArrayToString(network.query(input, null)));
+        }
+        runTest_Stop();
+        LOG.debug("========== Finished: " + name + " ==========");
+    }
+
+    @Test
+    public void dependencyOrderTest() {
+        // In.1 --> A --> B --(w=0.5)--> Out.1 and In.1 --> Out.1: BFS evaluates Out.1 before B
+        OneHotPort in = network.addInput(PortFactory.createOneHot("In", 1, network.getCycles()));
+        OneHotPort out = network.addOutput(PortFactory.createOneHot("Out", 1, network.getCycles()));
+        Gate in1 = in.getGates().get(1);
+        Gate out1 = out.getGates().get(1);
+        Gate a = Gate.createAndGate(network, "A", network.getCycles());
+        Gate b = Gate.createAndGate(network, "B", network.getCycles());
+        connect(in1, a);
+        connect(in1, out1);
+        connect(a, b);
+        connect(b, out1).setWeight(0.5f);
+        network.getGates().add(a);
+        network.getGates().add(b);
+        assertEquals(1, a.getLevel());
+        assertEquals(2, b.getLevel());
+        assertEquals(3, out1.getLevel());
+
+        network.query(new int[]{1}, null);
+        float bfsResult = out1.getResult(network.getCycles());
+        network.setPropagation(Network.Propagation.SWEEP);
+        network.query(new int[]{1}, null);
+        float sweepResult = out1.getResult(network.getCycles());
+        LOG.info("Out.1: bfs=" + bfsResult + " sweep=" + sweepResult);
+        assertEquals("BFS misses the input from B", 1.0f, bfsResult, 0.0f);
+        assertEquals("The sweep waits for all inputs", 0.75f, sweepResult, 0.0001f);
+    }
+
+    @Test
+    public void cycleTest() {
+        // In.1 --> A --> B --> C, an edge C --> A or A --> A is rejected without any change
+        OneHotPort in = network.addInput(PortFactory.createOneHot("In", 1, network.getCycles()));
+        Gate a = Gate.createAndGate(network, "A", network.getCycles());
+        Gate b = Gate.createAndGate(network, "B", network.getCycles());
+        Gate c = Gate.createAndGate(network, "C", network.getCycles());
+        connect(in.getGates().get(1), a);
+        connect(a, b);
+        connect(b, c);
+        assertEquals(3, c.getLevel());
+
+        for (Gate from : new Gate[]{c, a}) {
+            try {
+                connect(from, a);
+                fail("The edge from " + from.name() + " to A creates a cycle.");
+            } catch (IllegalStateException ex) {
+                LOG.info(ex.getMessage());
+            }
+            assertEquals(1, a.getIns().size());
+        }
+        try {
+            a.createIn(c);
+            fail("The edge from C to A creates a cycle.");
+        } catch (IllegalStateException ex) {
+            LOG.info(ex.getMessage());
+        }
+        assertEquals(1, a.getIns().size());
+        assertEquals(1, a.getOuts().size());
+        assertTrue(c.getOuts().isEmpty());
+        assertEquals(1, a.getLevel());
+        assertEquals(2, b.getLevel());
+        assertEquals(3, c.getLevel());
+    }
+
+    private static Edge connect(Gate from, Gate to) {
+        Edge edge = from.createOut(to);
+        to.addIn(edge);
+        return edge;
+    }
+
+    private void assertLevelsOrdered() {
+        for (Gate gate : network.getGates()) {
+            for (Edge in : gate.getIns()) {
+                assertTrue(in.getFrom().getLevel() < gate.getLevel());
+            }
+            for (Edge out : gate.getOuts()) {
+                assertTrue(gate.getLevel() < out.getTo().getLevel());
+            }
+        }
+    }
+}